@@ -1,7 +1,28 @@
 package ink.anh.api.database;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import ink.anh.api.LibraryManager;
 
@@ -16,6 +37,23 @@ public abstract class AbstractTable<T> {
     protected DatabaseManager dbManager;
     protected String dbName;
     private LibraryManager manager;
+    private WriteBehindQueue writeBehindQueue;
+
+    /**
+     * Default number of rows fetched per round trip by {@link #streamQuery(String, SQLConsumer, RowMapper)}.
+     */
+    protected static final int DEFAULT_FETCH_SIZE = 500;
+
+    /**
+     * Default number of rows per statement written by {@link #upsertAll(Collection, String[], String[], Function)}.
+     */
+    protected static final int DEFAULT_UPSERT_BATCH_SIZE = 100;
+
+    /**
+     * Set while an asynchronous operation runs, so {@link #executeTransaction(SQLConsumer, String)} reports
+     * failures to the returned future instead of only logging them.
+     */
+    private static final ThreadLocal<Boolean> PROPAGATE_FAILURES = ThreadLocal.withInitial(() -> Boolean.FALSE);
 
     /**
      * Constructs an instance of {@code AbstractTable} with the specified library manager and database name.
@@ -43,6 +81,7 @@ public abstract class AbstractTable<T> {
 
     /**
      * Updates the specified entity in the database table.
+     * Implementations can use {@link #updateChanged(Object, EntitySnapshots)} to write only the changed columns.
      *
      * @param entity the entity to be updated.
      */
@@ -56,6 +95,306 @@ public abstract class AbstractTable<T> {
      */
     public abstract <K> void updateField(TableField<K> tableField);
 
+    /**
+     * Gets the name of the column holding the row key. Tables that return a column name here get
+     * batched implementations of the key-based helpers such as {@link #updateFields(TableFieldBatch)}.
+     *
+     * @return the key column name, or {@code null} if the table does not declare one.
+     */
+    protected String getKeyColumn() {
+        return null;
+    }
+
+    /**
+     * Writes all pending changes of the batch and empties it.
+     * If the table declares a {@link #getKeyColumn() key column}, the changed fields of each row are merged into
+     * one {@code UPDATE ... SET a = ?, b = ? WHERE key = ?} and all rows are written in one batched transaction.
+     * Otherwise every change is passed to {@link #updateField(TableField)}.
+     * Rows of a table split by key across shards are written in one transaction per shard.
+     *
+     * @param <K> the type of the row key.
+     * @param batch the pending field changes.
+     */
+    public <K> void updateFields(TableFieldBatch<K> batch) {
+        Map<K, Map<String, Object>> rows = batch.drain();
+        if (rows.isEmpty()) {
+            return;
+        }
+        String keyColumn = getKeyColumn();
+        if (keyColumn == null) {
+            rows.forEach((key, fields) -> fields.forEach((fieldName, value) ->
+                    updateField(new TableField<>(key, fieldName, value))));
+            return;
+        }
+        if (dbManager.getShardCount(dbName) > 1) {
+            for (List<Map.Entry<K, Map<String, Object>>> shardRows : groupByShard(rows.entrySet(), Map.Entry::getKey)) {
+                Map<K, Map<String, Object>> shard = new LinkedHashMap<>();
+                shardRows.forEach(row -> shard.put(row.getKey(), row.getValue()));
+                runWithShardKey(shardRows.get(0).getKey(), () -> writeFieldRows(shard, keyColumn));
+            }
+            return;
+        }
+        writeFieldRows(rows, keyColumn);
+    }
+
+    /**
+     * Writes the merged field changes of the rows in one batched transaction.
+     *
+     * @param <K> the type of the row key.
+     * @param rows the changed fields by row key.
+     * @param keyColumn the key column of the table.
+     */
+    private <K> void writeFieldRows(Map<K, Map<String, Object>> rows, String keyColumn) {
+        Map<String, List<Map.Entry<K, Map<String, Object>>>> statements = new LinkedHashMap<>();
+        for (Map.Entry<K, Map<String, Object>> row : rows.entrySet()) {
+            String sql = "UPDATE " + dbName + " SET " + String.join(" = ?, ", row.getValue().keySet())
+                    + " = ? WHERE " + keyColumn + " = ?";
+            statements.computeIfAbsent(sql, k -> new ArrayList<>()).add(row);
+        }
+        executeTransaction(conn -> {
+            for (Map.Entry<String, List<Map.Entry<K, Map<String, Object>>>> statement : statements.entrySet()) {
+                try (PreparedStatement ps = conn.prepareStatement(statement.getKey())) {
+                    for (Map.Entry<K, Map<String, Object>> row : statement.getValue()) {
+                        int index = 1;
+                        for (Object value : row.getValue().values()) {
+                            setParameter(ps, index++, value);
+                        }
+                        setParameter(ps, index, row.getKey());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            ChangeLog changeLog = dbManager.getChangeLog();
+            if (changeLog != null) {
+                changeLog.publish(conn, dbName, rows.keySet());
+            }
+        }, "Failed to update fields in table " + dbName, true);
+    }
+
+    /**
+     * Inserts or updates the entities using the {@link #DEFAULT_UPSERT_BATCH_SIZE default batch size}.
+     *
+     * @param entities the entities to be saved.
+     * @param columns the written columns, including the key columns.
+     * @param keyColumns the columns of the primary key or unique index that detects existing rows.
+     * @param values returns the values of {@code columns} for an entity, in the same order.
+     * @see #upsertAll(Collection, String[], String[], Function, int)
+     */
+    protected void upsertAll(Collection<? extends T> entities, String[] columns, String[] keyColumns,
+            Function<? super T, Object[]> values) {
+        upsertAll(entities, columns, keyColumns, values, DEFAULT_UPSERT_BATCH_SIZE);
+    }
+
+    /**
+     * Inserts or updates the entities using the columns and keys of an {@link EntityMapper}.
+     *
+     * @param entities the entities to be saved.
+     * @param mapper the mapper of the entity type, which must have at least one key column.
+     * @see #upsertAll(Collection, String[], String[], Function, int)
+     */
+    protected void upsertAll(Collection<? extends T> entities, EntityMapper<T> mapper) {
+        upsertAll(entities, mapper.getColumns(), mapper.getKeyColumns(), mapper::values, DEFAULT_UPSERT_BATCH_SIZE);
+    }
+
+    /**
+     * Inserts or updates the entities with native upserts of the database dialect, replacing a SELECT followed
+     * by an INSERT or UPDATE per entity. Up to {@code batchSize} entities are written by a single multi-row
+     * statement, and all statements run in one transaction, which suits bulk saves at shutdown.
+     * The batch size is lowered when the statement would exceed the parameter limit of the dialect.
+     * Rows of a table split by key across shards are routed by their first key column, one transaction per shard.
+     *
+     * @param entities the entities to be saved.
+     * @param columns the written columns, including the key columns.
+     * @param keyColumns the columns of the primary key or unique index that detects existing rows.
+     * @param values returns the values of {@code columns} for an entity, in the same order.
+     * @param batchSize the maximum number of entities per statement.
+     */
+    protected void upsertAll(Collection<? extends T> entities, String[] columns, String[] keyColumns,
+            Function<? super T, Object[]> values, int batchSize) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        SqlDialect dialect = dbManager.getDialect();
+        int rowsPerStatement = Math.max(1, Math.min(batchSize, dialect.getMaxParameters() / columns.length));
+        List<Object[]> rows = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            Object[] row = values.apply(entity);
+            if (row.length != columns.length) {
+                throw new IllegalArgumentException("Expected " + columns.length + " values but got " + row.length);
+            }
+            rows.add(row);
+        }
+        if (dbManager.getShardCount(dbName) > 1) {
+            int shardKeyIndex = Arrays.asList(columns).indexOf(keyColumns[0]);
+            for (List<Object[]> shardRows : groupByShard(rows, row -> row[shardKeyIndex])) {
+                runWithShardKey(shardRows.get(0)[shardKeyIndex],
+                        () -> writeUpserts(columns, keyColumns, shardRows, rowsPerStatement));
+            }
+            return;
+        }
+        writeUpserts(columns, keyColumns, rows, rowsPerStatement);
+    }
+
+    /**
+     * Writes the upserts of the rows in one transaction, {@code rowsPerStatement} rows per statement.
+     *
+     * @param columns the written columns, including the key columns.
+     * @param keyColumns the key columns.
+     * @param rows the row values in column order.
+     * @param rowsPerStatement the number of rows per multi-row statement.
+     */
+    private void writeUpserts(String[] columns, String[] keyColumns, List<Object[]> rows, int rowsPerStatement) {
+        SqlDialect dialect = dbManager.getDialect();
+        int fullStatements = rows.size() / rowsPerStatement;
+        int remainder = rows.size() % rowsPerStatement;
+        executeTransaction(conn -> {
+            if (fullStatements > 0) {
+                try (PreparedStatement ps = conn.prepareStatement(dialect.upsertSql(dbName, columns, keyColumns, rowsPerStatement))) {
+                    for (int i = 0; i < fullStatements; i++) {
+                        bindRows(ps, rows.subList(i * rowsPerStatement, (i + 1) * rowsPerStatement));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            if (remainder > 0) {
+                try (PreparedStatement ps = conn.prepareStatement(dialect.upsertSql(dbName, columns, keyColumns, remainder))) {
+                    bindRows(ps, rows.subList(rows.size() - remainder, rows.size()));
+                    ps.executeUpdate();
+                }
+            }
+            ChangeLog changeLog = dbManager.getChangeLog();
+            if (changeLog != null) {
+                changeLog.publish(conn, dbName, changedKeys(columns, keyColumns, rows));
+            }
+        }, "Failed to upsert " + rows.size() + " rows into table " + dbName, true);
+    }
+
+    /**
+     * Groups items by the shard holding their key, for tables split by key across shards.
+     *
+     * @param <E> the type of the items.
+     * @param items the items to be grouped.
+     * @param keyOf returns the row key of an item.
+     * @return the non-empty groups in shard order.
+     */
+    private <E> Collection<List<E>> groupByShard(Collection<E> items, Function<E, Object> keyOf) {
+        Map<Integer, List<E>> groups = new TreeMap<>();
+        for (E item : items) {
+            groups.computeIfAbsent(dbManager.getShardIndex(dbName, keyOf.apply(item)), k -> new ArrayList<>()).add(item);
+        }
+        return groups.values();
+    }
+
+    /**
+     * Runs a write of this table with a shard key, so it reaches the shard holding the key.
+     *
+     * @param key a row key of the shard.
+     * @param write the write, which reports its own failures.
+     */
+    private void runWithShardKey(Object key, Runnable write) {
+        try {
+            dbManager.withShardKey(key, () -> {
+                write.run();
+                return null;
+            });
+        } catch (SQLException e) {
+            ErrorLogger.log(manager.getPlugin(), e, "Failed to write to the shard of key " + key + " in table " + dbName);
+        }
+    }
+
+    /**
+     * Collects the keys of upserted rows for the {@link ChangeLog}. Rows with a composite key are published
+     * as a change of the whole table.
+     *
+     * @param columns the written columns.
+     * @param keyColumns the key columns.
+     * @param rows the row values in column order.
+     * @return the changed keys.
+     */
+    private static List<Object> changedKeys(String[] columns, String[] keyColumns, List<Object[]> rows) {
+        int keyIndex = keyColumns.length == 1 ? Arrays.asList(columns).indexOf(keyColumns[0]) : -1;
+        if (keyIndex < 0) {
+            return Collections.singletonList(null);
+        }
+        List<Object> keys = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            keys.add(row[keyIndex]);
+        }
+        return keys;
+    }
+
+    /**
+     * Binds the values of consecutive rows to the parameters of a multi-row statement.
+     *
+     * @param ps the statement whose parameters are set.
+     * @param rows the row values in parameter order.
+     * @throws SQLException if a parameter cannot be set.
+     */
+    private static void bindRows(PreparedStatement ps, List<Object[]> rows) throws SQLException {
+        int index = 1;
+        for (Object[] row : rows) {
+            for (Object value : row) {
+                setParameter(ps, index++, value);
+            }
+        }
+    }
+
+    /**
+     * Updates only the columns of the entity that changed since its snapshot, for use in {@link #update(Object)}.
+     * Nothing is written if no column changed; an entity without a snapshot is written in full. The snapshot is
+     * advanced once the update is committed and dropped if it fails or matches no row, so the next update writes
+     * every column again.
+     * The update is routed to the shard of the first key column and published to the {@link ChangeLog}.
+     *
+     * @param entity the entity to be updated.
+     * @param snapshots the snapshots of the entity type.
+     * @return the number of columns written, 0 if nothing changed or no row matched.
+     */
+    protected int updateChanged(T entity, EntitySnapshots<T> snapshots) {
+        EntitySnapshots<T>.Change change = snapshots.diff(entity);
+        if (change.isEmpty()) {
+            return 0;
+        }
+        String sql = change.sql(dbName);
+        String errorMessage = "Failed to update " + change.size() + " columns in table " + dbName;
+        AtomicInteger updated = new AtomicInteger();
+        SQLSupplier<Void> write = () -> {
+            dbManager.executeTransaction(dbName, conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    change.bind(ps);
+                    updated.set(ps.executeUpdate());
+                }
+                ChangeLog changeLog = dbManager.getChangeLog();
+                if (changeLog != null && updated.get() > 0) {
+                    changeLog.publish(conn, dbName, Collections.singletonList(change.isCompositeKey() ? null : change.firstKey()));
+                }
+            }, true);
+            return null;
+        };
+        try {
+            if (dbManager.getShardCount(dbName) > 1) {
+                dbManager.withShardKey(change.firstKey(), write);
+            } else {
+                write.get();
+            }
+        } catch (SQLException e) {
+            snapshots.discard(change);
+            ErrorLogger.log(manager.getPlugin(), e, errorMessage);
+            if (PROPAGATE_FAILURES.get()) {
+                throw new DatabaseException(errorMessage, e);
+            }
+            return 0;
+        }
+        if (updated.get() == 0) {
+            snapshots.discard(change);
+            return 0;
+        }
+        snapshots.commit(change);
+        return change.size();
+    }
+
     /**
      * Deletes the specified entity from the database table.
      *
@@ -69,6 +408,7 @@ public abstract class AbstractTable<T> {
      *
      * @param elements the array of strings to be joined.
      * @return the joined string or null if all elements are null or "null".
+     * @see ColumnCodecs#STRING_ARRAY
      */
     public static String joinOrReturnNull(String[] elements) {
         if (elements == null || elements.length == 0) {
@@ -103,6 +443,8 @@ public abstract class AbstractTable<T> {
     /**
      * Splits a string into an array using the specified delimiter.
      * Nullifies any elements that are equal to "null" (case-insensitive).
+     * New columns should prefer {@link ColumnCodecs#STRING_ARRAY}, which keeps commas inside values and
+     * still reads the strings written by {@link #joinOrReturnNull(String[])}.
      *
      * @param input the string to be split.
      * @param delimiter the delimiter used for splitting.
@@ -122,6 +464,103 @@ public abstract class AbstractTable<T> {
         return parts;
     }
 
+    /**
+     * Sets a statement parameter from a typed value.
+     * UUIDs are stored as their string form and enum constants by name; {@code null} is written as SQL NULL.
+     *
+     * @param ps the statement whose parameter is set.
+     * @param index the parameter index, starting at 1.
+     * @param value the value to be set.
+     * @throws SQLException if the parameter cannot be set.
+     */
+    public static void setParameter(PreparedStatement ps, int index, Object value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.NULL);
+        } else if (value instanceof String) {
+            ps.setString(index, (String) value);
+        } else if (value instanceof UUID || value instanceof Character) {
+            ps.setString(index, value.toString());
+        } else if (value instanceof Enum) {
+            ps.setString(index, ((Enum<?>) value).name());
+        } else if (value instanceof byte[]) {
+            ps.setBytes(index, (byte[]) value);
+        } else {
+            ps.setObject(index, value);
+        }
+    }
+
+    /**
+     * Sets a statement parameter to a large payload stored as a compressed BLOB, such as serialized items.
+     * The payload is deflated with a dictionary of common item YAML and streamed with {@code setBinaryStream},
+     * so it is stored in a fraction of the size of its Base64 text. Small payloads are stored uncompressed.
+     *
+     * @param ps the statement whose parameter is set.
+     * @param index the parameter index, starting at 1.
+     * @param data the payload, or {@code null} for SQL NULL.
+     * @throws SQLException if the parameter cannot be set.
+     * @see #readCompressed(ResultSet, String)
+     */
+    public static void setCompressed(PreparedStatement ps, int index, byte[] data) throws SQLException {
+        if (data == null) {
+            ps.setNull(index, Types.BLOB);
+            return;
+        }
+        byte[] compressed = BlobCompression.compress(data);
+        ps.setBinaryStream(index, new ByteArrayInputStream(compressed), compressed.length);
+    }
+
+    /**
+     * Sets a statement parameter to text stored as a compressed BLOB, encoded as UTF-8.
+     *
+     * @param ps the statement whose parameter is set.
+     * @param index the parameter index, starting at 1.
+     * @param text the text, or {@code null} for SQL NULL.
+     * @throws SQLException if the parameter cannot be set.
+     * @see #setCompressed(PreparedStatement, int, byte[])
+     */
+    public static void setCompressedText(PreparedStatement ps, int index, String text) throws SQLException {
+        setCompressed(ps, index, text == null ? null : text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Opens a stream over a payload written by {@link #setCompressed(PreparedStatement, int, byte[])}, decompressing
+     * it while it is read, so that large payloads are never held as intermediate strings. Values of columns
+     * migrated from TEXT that are still in their old text form are returned unchanged.
+     * The stream reads from the result set; it must be consumed before the cursor moves and then closed.
+     *
+     * @param rs the result set positioned on the row.
+     * @param column the column label.
+     * @return the payload stream, or {@code null} if the value is SQL NULL.
+     * @throws SQLException if the column cannot be read or holds an unknown format.
+     */
+    public static InputStream readCompressed(ResultSet rs, String column) throws SQLException {
+        InputStream in = rs.getBinaryStream(column);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return BlobCompression.decompress(in);
+        } catch (IOException e) {
+            throw new SQLException("Failed to read compressed column " + column, e);
+        }
+    }
+
+    /**
+     * Reads text written by {@link #setCompressedText(PreparedStatement, int, String)}.
+     *
+     * @param rs the result set positioned on the row.
+     * @param column the column label.
+     * @return the text, or {@code null} if the value is SQL NULL.
+     * @throws SQLException if the column cannot be read or holds an unknown format.
+     */
+    public static String readCompressedText(ResultSet rs, String column) throws SQLException {
+        try (InputStream in = readCompressed(rs, column)) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Failed to read compressed column " + column, e);
+        }
+    }
+
     /**
      * Functional interface for SQL operations that throw {@code SQLException}.
      *
@@ -132,26 +571,453 @@ public abstract class AbstractTable<T> {
         void accept(T t) throws SQLException;
     }
 
+    /**
+     * Functional interface for SQL operations that produce a result and throw {@code SQLException}.
+     *
+     * @param <T> the type of the input to the operation.
+     * @param <R> the type of the result of the operation.
+     */
+    @FunctionalInterface
+    public interface SQLFunction<T, R> {
+        R apply(T t) throws SQLException;
+    }
+
+    /**
+     * Functional interface for SQL operations that take no input, produce a result and throw {@code SQLException}.
+     *
+     * @param <R> the type of the result of the operation.
+     */
+    @FunctionalInterface
+    public interface SQLSupplier<R> {
+        R get() throws SQLException;
+    }
+
     /**
      * Executes a transaction with the provided SQL operation.
      * Rolls back the transaction in case of an error and logs the error message.
+     * When called from one of the asynchronous methods of this class, the failure is also rethrown as a
+     * {@link DatabaseException} so that the returned future completes exceptionally.
      *
      * @param sqlConsumer the SQL operation to be executed.
      * @param errorMessage the error message to be logged in case of a failure.
      */
     protected void executeTransaction(SQLConsumer<Connection> sqlConsumer, String errorMessage) {
-        try (Connection conn = dbManager.getConnection()) {
-            conn.setAutoCommit(false); // Start transaction
+        executeTransaction(sqlConsumer, errorMessage, false);
+    }
 
+    /**
+     * Executes a transaction with the provided SQL operation, retrying transient failures according to the
+     * {@link RetryPolicy} of the database manager. Operations that only set absolute values or delete rows are
+     * idempotent and may also be retried after a lost connection.
+     *
+     * @param sqlConsumer the SQL operation to be executed; it may run more than once.
+     * @param errorMessage the error message to be logged in case of a failure.
+     * @param idempotent whether running the operation twice has the same effect as running it once.
+     */
+    protected void executeTransaction(SQLConsumer<Connection> sqlConsumer, String errorMessage, boolean idempotent) {
+        try {
+            dbManager.executeTransaction(dbName, sqlConsumer, idempotent);
+        } catch (SQLException e) {
+            ErrorLogger.log(manager.getPlugin(), e, errorMessage);
+            if (PROPAGATE_FAILURES.get()) {
+                throw new DatabaseException(errorMessage, e);
+            }
+        }
+    }
+
+    /**
+     * Executes a single-statement mutation given as SQL text and parameter values, so that it can be kept in the
+     * {@link WriteJournal} of the database manager. If the journal is enabled and the database is unreachable,
+     * or earlier mutations are still waiting in the journal, the mutation is appended to the journal and written
+     * once the database is available again. Journaled mutations may be written more than once and should be
+     * idempotent, such as absolute updates, upserts and deletes.
+     * On a table split by key, run the mutation inside {@link DatabaseManager#withShardKey} with the key of its row;
+     * the key is journaled with the mutation so that a replay reaches the same shard.
+     *
+     * @param errorMessage the error message to be logged if the mutation fails.
+     * @param sql the SQL statement of the mutation.
+     * @param params the statement parameters, of the types supported by {@link WriteJournal#append(String, String, Object...)}.
+     */
+    protected void executeMutation(String errorMessage, String sql, Object... params) {
+        WriteJournal journal = dbManager.getWriteJournal();
+        if (journal != null && journal.hasPending()) {
+            appendToJournal(journal, errorMessage, sql, params);
+            return;
+        }
+        try {
+            dbManager.executeTransaction(dbName, conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < params.length; i++) {
+                        setParameter(ps, i + 1, params[i]);
+                    }
+                    ps.executeUpdate();
+                }
+            }, true);
+        } catch (SQLException e) {
+            if (journal != null && dbManager.getDialect().isConnectionFailure(e)) {
+                manager.getPlugin().getLogger().warning("Database unreachable, journaling mutation of table " + dbName);
+                appendToJournal(journal, errorMessage, sql, params);
+                return;
+            }
+            ErrorLogger.log(manager.getPlugin(), e, errorMessage);
+            if (PROPAGATE_FAILURES.get()) {
+                throw new DatabaseException(errorMessage, e);
+            }
+        }
+    }
+
+    /**
+     * Records a change of a row in the {@link ChangeLog} of the database manager, so other servers sharing the
+     * database invalidate their cached copy. Writes through {@link EntityCache}, {@link #updateFields(TableFieldBatch)}
+     * and {@code upsertAll} publish their changes already; custom writes call this after they succeed.
+     * Does nothing if the changelog is not enabled.
+     *
+     * @param key the key of the changed row, or {@code null} if rows of the whole table may have changed.
+     */
+    protected void publishChange(Object key) {
+        ChangeLog changeLog = dbManager.getChangeLog();
+        if (changeLog != null) {
+            changeLog.publish(dbName, Collections.singletonList(key));
+        }
+    }
+
+    /**
+     * Appends a mutation to the write journal, logging a failure to write the journal.
+     *
+     * @param journal the write journal.
+     * @param errorMessage the error message to be logged if the journal cannot be written.
+     * @param sql the SQL statement of the mutation.
+     * @param params the statement parameters.
+     */
+    private void appendToJournal(WriteJournal journal, String errorMessage, String sql, Object[] params) {
+        try {
+            journal.append(dbName, sql, params);
+        } catch (IOException e) {
+            ErrorLogger.log(manager.getPlugin(), e, errorMessage);
+        }
+    }
+
+    /**
+     * Streams the rows of a query using the {@link #DEFAULT_FETCH_SIZE default fetch size}.
+     *
+     * @param sql the SQL query.
+     * @param binder sets the statement parameters, or {@code null} if the query has none.
+     * @param mapper maps each row to an entity.
+     * @return the lazily consumed stream of entities; must be closed, or empty if the query could not be started.
+     * @see #streamQuery(String, SQLConsumer, RowMapper, int)
+     */
+    protected Stream<T> streamQuery(String sql, SQLConsumer<PreparedStatement> binder, RowMapper<T> mapper) {
+        return streamQuery(sql, binder, mapper, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Streams the rows of a query without materializing the result. The stream keeps a connection open until it
+     * is exhausted or closed, so it should be consumed in a try-with-resources block.
+     * Failures while reading rows are thrown as {@link DatabaseException}.
+     *
+     * @param sql the SQL query.
+     * @param binder sets the statement parameters, or {@code null} if the query has none.
+     * @param mapper maps each row to an entity.
+     * @param fetchSize the number of rows fetched per round trip.
+     * @return the lazily consumed stream of entities; must be closed, or empty if the query could not be started.
+     */
+    protected Stream<T> streamQuery(String sql, SQLConsumer<PreparedStatement> binder, RowMapper<T> mapper, int fetchSize) {
+        try {
+            return dbManager.stream(dbName, sql, binder, mapper, fetchSize);
+        } catch (SQLException e) {
+            ErrorLogger.log(manager.getPlugin(), e, "Failed to stream rows from table " + dbName);
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Reads one page of entities using keyset (seek) pagination. Instead of skipping rows with {@code OFFSET},
+     * the query starts right after the last row of the previous page, so every page costs the same no matter how
+     * deep it is. An index on {@code (orderColumn, tieColumn)} lets the database read only the rows of the page;
+     * see {@link #ensureIndex(String, String...)}.
+     *
+     * @param orderColumn the column the entities are ordered by.
+     * @param tieColumn a unique column breaking ties in {@code orderColumn}, or {@code null} if {@code orderColumn}
+     *                  is itself unique.
+     * @param descending whether to order from the highest value.
+     * @param after the token of the previous page, or {@code null} for the first page.
+     * @param pageSize the maximum number of entities on the page.
+     * @param mapper maps each row to an entity.
+     * @return the page, or an empty last page if the query failed.
+     */
+    protected Page<T> seekPage(String orderColumn, String tieColumn, boolean descending, PageToken after,
+            int pageSize, RowMapper<T> mapper) {
+        SqlDialect dialect = dbManager.getDialect();
+        String direction = descending ? " DESC" : " ASC";
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(dbName);
+        if (after != null) {
+            sql.append(" WHERE ").append(dialect.keysetPredicate(orderColumn, tieColumn, descending));
+        }
+        sql.append(" ORDER BY ").append(orderColumn).append(direction);
+        if (tieColumn != null) {
+            sql.append(", ").append(tieColumn).append(direction);
+        }
+        sql.append(" LIMIT ?");
+
+        Page<T> page = executeQuery(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                int index = 1;
+                if (after != null) {
+                    index = dialect.bindKeyset(ps, index, after);
+                }
+                ps.setInt(index, pageSize + 1);
+                List<T> items = new ArrayList<>(pageSize);
+                PageToken last = null;
+                boolean more = false;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (items.size() == pageSize) {
+                            more = true;
+                            break;
+                        }
+                        items.add(mapper.map(rs));
+                        last = new PageToken(rs.getObject(orderColumn), tieColumn == null ? null : rs.getObject(tieColumn));
+                    }
+                }
+                return new Page<>(items, more ? last : null);
+            }
+        }, "Failed to read page from table " + dbName);
+        return page != null ? page : new Page<>(new ArrayList<>(), null);
+    }
+
+    /**
+     * Reads the first {@code limit} entities in the given order, for example the top of a leaderboard.
+     * With an index on {@code orderColumn} the database stops after {@code limit} index entries
+     * instead of sorting the whole table.
+     *
+     * @param orderColumn the column the entities are ranked by.
+     * @param descending whether the highest values rank first.
+     * @param limit the number of entities to return.
+     * @param mapper maps each row to an entity.
+     * @return the top entities, or an empty list if the query failed.
+     */
+    protected List<T> topN(String orderColumn, boolean descending, int limit, RowMapper<T> mapper) {
+        return seekPage(orderColumn, null, descending, null, limit, mapper).getItems();
+    }
+
+    /**
+     * Creates an index on this table unless it already exists.
+     *
+     * @param indexName the name of the index.
+     * @param columns the indexed columns in order.
+     */
+    protected void ensureIndex(String indexName, String... columns) {
+        SqlDialect dialect = dbManager.getDialect();
+        try {
+            dbManager.executeOnAllShards(dbName, conn -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute(dialect.createIndexSql(indexName, dbName, columns));
+                }
+            });
+        } catch (SQLException e) {
+            if (!dialect.isDuplicateIndex(e)) {
+                ErrorLogger.log(manager.getPlugin(), e, "Failed to create index " + indexName + " on table " + dbName);
+            }
+        }
+    }
+
+    /**
+     * Inserts the specified entity on a virtual thread of the database manager.
+     *
+     * @param entity the entity to be inserted.
+     * @return a future completed when the entity is inserted, or completed exceptionally with a
+     *         {@link DatabaseException} if the insert fails.
+     */
+    public CompletableFuture<Void> insertAsync(T entity) {
+        return runAsync(() -> insert(entity));
+    }
+
+    /**
+     * Updates the specified entity on a virtual thread of the database manager.
+     *
+     * @param entity the entity to be updated.
+     * @return a future completed when the entity is updated, or completed exceptionally with a
+     *         {@link DatabaseException} if the update fails.
+     */
+    public CompletableFuture<Void> updateAsync(T entity) {
+        return runAsync(() -> update(entity));
+    }
+
+    /**
+     * Updates a specific field on a virtual thread of the database manager.
+     *
+     * @param <K> the type of the key of the field.
+     * @param tableField the field to be updated.
+     * @return a future completed when the field is updated, or completed exceptionally with a
+     *         {@link DatabaseException} if the update fails.
+     */
+    public <K> CompletableFuture<Void> updateFieldAsync(TableField<K> tableField) {
+        return runAsync(() -> updateField(tableField));
+    }
+
+    /**
+     * Writes all pending changes of the batch on a virtual thread of the database manager.
+     *
+     * @param <K> the type of the row key.
+     * @param batch the pending field changes.
+     * @return a future completed when the changes are written, or completed exceptionally with a
+     *         {@link DatabaseException} if the update fails.
+     */
+    public <K> CompletableFuture<Void> updateFieldsAsync(TableFieldBatch<K> batch) {
+        return runAsync(() -> updateFields(batch));
+    }
+
+    /**
+     * Deletes the specified entity on a virtual thread of the database manager.
+     *
+     * @param entity the entity to be deleted.
+     * @return a future completed when the entity is deleted, or completed exceptionally with a
+     *         {@link DatabaseException} if the delete fails.
+     */
+    public CompletableFuture<Void> deleteAsync(T entity) {
+        return runAsync(() -> delete(entity));
+    }
+
+    /**
+     * Executes a read-only query on a virtual thread of the database manager.
+     *
+     * @param <R> the type of the query result.
+     * @param sqlFunction the SQL operation to be executed.
+     * @return a future completed with the result of the query, or completed exceptionally with a
+     *         {@link DatabaseException} if the query fails.
+     */
+    public <R> CompletableFuture<R> queryAsync(SQLFunction<Connection, R> sqlFunction) {
+        return dbManager.supplyAsync(() -> {
             try {
-                sqlConsumer.accept(conn);
-                conn.commit(); // Commit transaction
+                return dbManager.executeQuery(dbName, sqlFunction);
             } catch (SQLException e) {
-                conn.rollback(); // Rollback transaction in case of error
-                ErrorLogger.log(manager.getPlugin(), e, errorMessage);
+                throw new DatabaseException("Failed to query table " + dbName, e);
+            }
+        });
+    }
+
+    /**
+     * Runs a write of this table and reports whether it succeeded. Failures of
+     * {@link #executeTransaction(SQLConsumer, String)} and {@link #executeMutation(String, String, Object...)}
+     * inside the write are logged as usual; in an asynchronous operation they are still rethrown.
+     *
+     * @param write the write, such as {@link #update(Object)}.
+     * @return {@code true} if the write did not fail.
+     */
+    boolean tryWrite(Runnable write) {
+        boolean propagating = PROPAGATE_FAILURES.get();
+        PROPAGATE_FAILURES.set(Boolean.TRUE);
+        try {
+            write.run();
+            return true;
+        } catch (DatabaseException e) {
+            if (propagating) {
+                throw e;
+            }
+            return false;
+        } finally {
+            if (!propagating) {
+                PROPAGATE_FAILURES.remove();
+            }
+        }
+    }
+
+    /**
+     * Runs a write of the row with the given key and reports whether it succeeded, as {@link #tryWrite(Runnable)}.
+     * The key is set as shard key, so the write reaches the shard holding the row of a table split by key.
+     *
+     * @param key the key of the written row.
+     * @param write the write, such as {@link #update(Object)}.
+     * @return {@code true} if the write did not fail.
+     */
+    boolean tryWrite(Object key, Runnable write) {
+        try {
+            return dbManager.withShardKey(key, () -> tryWrite(write));
+        } catch (SQLException e) {
+            ErrorLogger.log(manager.getPlugin(), e, "Failed to write to the shard of key " + key + " in table " + dbName);
+            return false;
+        }
+    }
+
+    /**
+     * Runs a table operation on the asynchronous executor with failure propagation enabled.
+     *
+     * @param operation the operation to run.
+     * @return a future completed when the operation finishes.
+     */
+    private CompletableFuture<Void> runAsync(Runnable operation) {
+        return dbManager.supplyAsync(() -> {
+            PROPAGATE_FAILURES.set(Boolean.TRUE);
+            try {
+                operation.run();
+                return null;
+            } finally {
+                PROPAGATE_FAILURES.remove();
             }
+        });
+    }
+
+    /**
+     * Executes a read-only query with the provided SQL operation.
+     * The operation may run on a dedicated read connection, so it must not modify the table.
+     * Logs the error message in case of a failure.
+     *
+     * @param <R> the type of the query result.
+     * @param sqlFunction the SQL operation to be executed.
+     * @param errorMessage the error message to be logged in case of a failure.
+     * @return the result of the operation, or {@code null} if it failed.
+     */
+    protected <R> R executeQuery(SQLFunction<Connection, R> sqlFunction, String errorMessage) {
+        try {
+            return dbManager.executeQuery(dbName, sqlFunction);
         } catch (SQLException e) {
-            ErrorLogger.log(manager.getPlugin(), e, "Failed to establish database connection");
+            ErrorLogger.log(manager.getPlugin(), e, errorMessage);
+            return null;
         }
     }
+
+    /**
+     * Enables write-behind buffering for this table. Mutations passed to
+     * {@link #enqueueWrite(Object, String, SQLConsumer, String)} are then coalesced per key and written in batches.
+     *
+     * @param maxBatchSize the number of pending mutations that triggers a flush.
+     * @param flushIntervalMillis the maximum time a mutation stays buffered, in milliseconds.
+     */
+    protected void enableWriteBehind(int maxBatchSize, long flushIntervalMillis) {
+        if (writeBehindQueue == null) {
+            writeBehindQueue = dbManager.createWriteBehindQueue(dbName, maxBatchSize, flushIntervalMillis);
+        }
+    }
+
+    /**
+     * Gets the write-behind queue of this table.
+     *
+     * @return the write-behind queue, or {@code null} if write-behind is not enabled.
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Writes a single-statement mutation. With write-behind enabled the mutation is buffered and a pending
+     * mutation with the same SQL and key is replaced; otherwise it is executed immediately in its own transaction.
+     * Either way the key is used as shard key, so the mutation reaches the shard holding the row.
+     *
+     * @param key the key of the affected row.
+     * @param sql the SQL statement of the mutation.
+     * @param binder sets the statement parameters of the mutation.
+     * @param errorMessage the error message to be logged if an immediate write fails.
+     */
+    protected void enqueueWrite(Object key, String sql, SQLConsumer<PreparedStatement> binder, String errorMessage) {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.enqueue(key, sql, binder);
+            return;
+        }
+        runWithShardKey(key, () -> executeTransaction(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                binder.accept(ps);
+                ps.executeUpdate();
+            }
+        }, errorMessage));
+    }
 }
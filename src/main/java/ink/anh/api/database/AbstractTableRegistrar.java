@@ -13,4 +13,14 @@ public abstract class AbstractTableRegistrar {
      */
     public abstract void registerAllTables(DatabaseManager instance);
 
+    /**
+     * Registers the schema migrations of the tables. Tables with registered migrations are created and upgraded
+     * by the migration steps instead of {@link AbstractTable#initialize()}, and only steps newer than the stored
+     * schema version run. The default implementation registers nothing.
+     *
+     * @param migrations the registry to add the migration steps to.
+     */
+    public void registerMigrations(SchemaMigrations migrations) {
+    }
+
 }
@@ -0,0 +1,60 @@
+package ink.anh.api.database;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodic task whose timing runs on a scheduler but whose work runs on a separate executor.
+ * The single scheduler thread of a {@link DatabaseManager} only triggers the runs, so blocking JDBC or file work
+ * of one task, such as a stalled flush or a long backup, cannot delay the others or the health monitor.
+ * A trigger is skipped while the previous run of the same task is still working.
+ */
+final class BackgroundTask implements Runnable {
+
+    private final Executor worker;
+    private final Runnable work;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private BackgroundTask(Executor worker, Runnable work) {
+        this.worker = worker;
+        this.work = work;
+    }
+
+    /**
+     * Schedules the work with a fixed delay between triggers, handing every run to the worker.
+     *
+     * @param scheduler the scheduler timing the runs.
+     * @param worker the executor running the work.
+     * @param work the blocking work; it reports its own failures.
+     * @param initialDelay the delay before the first run.
+     * @param delay the delay between triggers.
+     * @param unit the unit of the delays.
+     * @return the future cancelling further runs.
+     */
+    static ScheduledFuture<?> scheduleWithFixedDelay(ScheduledExecutorService scheduler, Executor worker, Runnable work,
+            long initialDelay, long delay, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(new BackgroundTask(worker, work), initialDelay, delay, unit);
+    }
+
+    @Override
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            worker.execute(() -> {
+                try {
+                    work.run();
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ink.anh.api.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of large payloads stored in BLOB columns by {@link AbstractTable#setCompressed(PreparedStatement, int, byte[])}.
+ * <p>
+ * A compressed value starts with a marker byte followed by a raw deflate stream. Marker {@code 1} is deflate
+ * primed with the built-in dictionary of serialized item YAML, which lets even a single short item compress well.
+ * Values too small to gain from compression are stored after marker {@code 0} as they are. Legacy text values,
+ * such as Base64 or YAML written to a TEXT column, never start with a byte below {@code 0x09} and are returned
+ * unchanged. The dictionary is part of the stored format: a new dictionary needs a new marker.
+ */
+final class BlobCompression {
+
+    private static final byte STORED = 0;
+    private static final byte DEFLATE_ITEMS_V1 = 1;
+    private static final int MIN_COMPRESSED_SIZE = 64;
+
+    /**
+     * Deflate dictionary of the YAML written by {@code YamlConfiguration.saveToString()} for item stacks,
+     * the most frequent strings last. Never change it: stored values are only readable with the exact same bytes.
+     */
+    private static final byte[] ITEMS_DICTIONARY_V1 = ("true false null minecraft: PublicBukkitValues:"
+            + " custom-model-data: ItemFlags:\n    - HIDE_ATTRIBUTES\n    - HIDE_ENCHANTS\n    Unbreakable: true\n"
+            + "    Damage: \n    repair-cost: \n    attribute-modifiers:\n    stored-enchants:\n"
+            + "    enchants:\n      DAMAGE_ALL: 'PROTECTION_ENVIRONMENTAL: DURABILITY: MENDING: 1\n"
+            + "    skull-owner: color:\n      ==: Color\n      RED: BLUE: GREEN: \n"
+            + "    meta-type: LEATHER_ARMOR\n    meta-type: SKULL\n    meta-type: ENCHANTED\n"
+            + "{\"extra\":[{\"bold\":false,\"italic\":false,\"underlined\":false,\"strikethrough\":false,"
+            + "\"obfuscated\":false,\"color\":\"gray\",\"text\":\"\"}],\"text\":\"\"}'\n"
+            + "    lore:\n    - '{\"extra\":[{\"italic\":false,\"color\":\"white\",\"text\":\"\"}],\"text\":\"\"}'\n"
+            + "    display-name: '{\"extra\":[{\"italic\":false,\"color\":\"gold\",\"text\":\"\"}],\"text\":\"\"}'\n"
+            + "  meta:\n    ==: ItemMeta\n    meta-type: UNSPECIFIC\n"
+            + "  type: DIAMOND_SWORD\n  type: NETHERITE_\n  amount: 64\n"
+            + "item:\n  ==: org.bukkit.inventory.ItemStack\n  v: 3\n  type: ").getBytes(StandardCharsets.UTF_8);
+
+    private BlobCompression() {
+    }
+
+    /**
+     * Compresses a payload into the stored format.
+     *
+     * @param data the payload.
+     * @return the marker byte and the payload, compressed unless that would not make it smaller.
+     */
+    static byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, data.length / 3));
+        if (data.length < MIN_COMPRESSED_SIZE) {
+            out.write(STORED);
+            out.write(data, 0, data.length);
+            return out.toByteArray();
+        }
+        out.write(DEFLATE_ITEMS_V1);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setDictionary(ITEMS_DICTIONARY_V1);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[Math.min(8192, data.length + 64)];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+        if (out.size() > data.length) {
+            out.reset();
+            out.write(STORED);
+            out.write(data, 0, data.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Wraps a stored value in a stream returning the original payload, decompressing while it is read.
+     *
+     * @param in the stream of the stored value; it is closed with the returned stream.
+     * @return the payload stream, which must be closed to release the native inflater.
+     * @throws IOException if the value cannot be read or has an unknown marker.
+     */
+    static InputStream decompress(InputStream in) throws IOException {
+        PushbackInputStream source = new PushbackInputStream(in, 1);
+        int marker = source.read();
+        if (marker == STORED || marker < 0) {
+            return source;
+        }
+        if (marker == DEFLATE_ITEMS_V1) {
+            Inflater inflater = new Inflater(true);
+            inflater.setDictionary(ITEMS_DICTIONARY_V1);
+            return new InflaterInputStream(source, inflater, 8192) {
+                private boolean ended;
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (!ended) {
+                            ended = true;
+                            inflater.end();
+                        }
+                    }
+                }
+            };
+        }
+        if (marker < 0x09) {
+            source.close();
+            throw new IOException("Unknown compressed value format " + marker);
+        }
+        source.unread(marker);
+        return source;
+    }
+}
@@ -0,0 +1,400 @@
+package ink.anh.api.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Cross-server cache invalidation through a changelog table in the shared MySQL database.
+ * Instances are created through {@link MySQLDatabaseManager#enableChangeLog(String, long, long)}.
+ * <p>
+ * Writes made through an {@link EntityCache} and the batched helpers of {@link AbstractTable} append a record
+ * (table, key, version, node) to the changelog; custom writes can publish their own through
+ * {@link AbstractTable#publishChange(Object)}. Every node polls the changelog by its auto-increment id and
+ * invalidates the matching entries of the caches registered with {@link #register(EntityCache, Function)}.
+ * Records written by the node itself are skipped, since its caches were already updated by the write.
+ * A record without a key invalidates every cache of the table. Records older than the retention period are pruned.
+ * <p>
+ * Ids of concurrent transactions may become visible out of order. Ids skipped by a poll are therefore looked up
+ * again for a short grace period before they are given up.
+ */
+public class ChangeLog {
+
+    private static final int POLL_BATCH_SIZE = 1_000;
+    private static final int MAX_TRACKED_GAPS = 1_000;
+    private static final long GAP_GRACE_MILLIS = 10_000L;
+    private static final int PRUNE_BATCH_SIZE = 10_000;
+    private static final long PRUNE_INTERVAL_MILLIS = 60_000L;
+
+    private final DatabaseManager dbManager;
+    private final String tableName;
+    private final String nodeId;
+    private final long retentionMillis;
+    private final Map<String, List<Subscription<?>>> subscriptions = new ConcurrentHashMap<>();
+    private final Map<Long, Long> gaps = new LinkedHashMap<>();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong missedCount = new AtomicLong();
+    private final ScheduledFuture<?> pollTimer;
+    private final ScheduledFuture<?> pruneTimer;
+    private long cursor;
+
+    /**
+     * Constructs an instance of {@code ChangeLog}, creating the changelog table if needed, and starts polling
+     * from the newest record, so changes made before this node started are not replayed.
+     *
+     * @param dbManager the database manager of the shared database.
+     * @param nodeId the unique name of this server.
+     * @param pollIntervalMillis the time between polls, in milliseconds.
+     * @param retentionMillis the time records are kept before they are pruned, in milliseconds.
+     * @throws SQLException if the changelog table cannot be created or read.
+     */
+    ChangeLog(DatabaseManager dbManager, String nodeId, long pollIntervalMillis, long retentionMillis) throws SQLException {
+        this.dbManager = dbManager;
+        this.tableName = dbManager.getTablePrefix() + "changelog";
+        this.nodeId = nodeId;
+        this.retentionMillis = retentionMillis;
+        dbManager.executeTransaction(tableName, conn -> {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                        + "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                        + "table_name VARCHAR(128) NOT NULL, "
+                        + "row_key VARCHAR(255) NULL, "
+                        + "version BIGINT NOT NULL, "
+                        + "node_id VARCHAR(64) NOT NULL, "
+                        + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                        + "INDEX idx_" + tableName + "_created_at (created_at))");
+                try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + tableName)) {
+                    rs.next();
+                    cursor = rs.getLong(1);
+                }
+            }
+        }, true);
+        this.pollTimer = dbManager.scheduleBackground(this::poll, pollIntervalMillis, pollIntervalMillis);
+        this.pruneTimer = dbManager.scheduleBackground(this::prune, PRUNE_INTERVAL_MILLIS, PRUNE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Registers a cache whose entries are invalidated when other nodes change rows of its table.
+     *
+     * @param <K> the type of the entity key.
+     * @param cache the cache to be kept consistent.
+     * @param keyParser converts the key text stored in the changelog back to a cache key.
+     */
+    public <K> void register(EntityCache<K, ?> cache, Function<String, K> keyParser) {
+        subscriptions.computeIfAbsent(cache.getTable().dbName, k -> new CopyOnWriteArrayList<>())
+                .add(new Subscription<>(cache, keyParser));
+    }
+
+    /**
+     * Removes a previously registered cache.
+     *
+     * @param cache the cache to be removed.
+     */
+    public void unregister(EntityCache<?, ?> cache) {
+        List<Subscription<?>> list = subscriptions.get(cache.getTable().dbName);
+        if (list != null) {
+            list.removeIf(subscription -> subscription.cache == cache);
+        }
+    }
+
+    /**
+     * Publishes changes of rows in their own statement. Failures are logged; the changed rows are already written.
+     *
+     * @param table the name of the changed table, including the prefix.
+     * @param keys the keys of the changed rows; a {@code null} key stands for the whole table.
+     */
+    public void publish(String table, Collection<?> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            dbManager.executeTransaction(tableName, conn -> publish(conn, table, keys), true);
+        } catch (SQLException e) {
+            ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to publish changes of table " + table);
+        }
+    }
+
+    /**
+     * Publishes changes of rows on the given connection, so they commit together with the changes themselves.
+     *
+     * @param conn the connection of the running transaction.
+     * @param table the name of the changed table, including the prefix.
+     * @param keys the keys of the changed rows; a {@code null} key stands for the whole table.
+     * @throws SQLException if the records cannot be written.
+     */
+    public void publish(Connection conn, String table, Collection<?> keys) throws SQLException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        long version = System.currentTimeMillis();
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + tableName
+                + " (table_name, row_key, version, node_id) VALUES (?, ?, ?, ?)")) {
+            for (Object key : keys) {
+                ps.setString(1, table);
+                ps.setString(2, keyText(key));
+                ps.setLong(3, version);
+                ps.setString(4, nodeId);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        publishedCount.addAndGet(keys.size());
+    }
+
+    /**
+     * Reads the records written since the last poll and invalidates the affected cache entries.
+     * Runs on the background executor; may also be called directly.
+     */
+    public synchronized void poll() {
+        PollState[] result = new PollState[1];
+        try {
+            dbManager.executeTransaction(tableName, conn -> {
+                PollState state = new PollState(cursor, gaps);
+                readNew(conn, state);
+                readGaps(conn, state);
+                result[0] = state;
+            }, true);
+        } catch (SQLException e) {
+            ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to poll changelog " + tableName);
+            return;
+        }
+        PollState state = result[0];
+        cursor = state.cursor;
+        gaps.clear();
+        gaps.putAll(state.gaps);
+        missedCount.addAndGet(state.missed);
+        for (ChangeRecord record : state.records) {
+            apply(record);
+        }
+    }
+
+    /**
+     * Gets the name of this node as stored in the records it publishes.
+     *
+     * @return the node id.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the number of change records written by this node.
+     *
+     * @return the published record count.
+     */
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    /**
+     * Gets the number of change records of other nodes applied to the local caches.
+     *
+     * @return the received record count.
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * Gets the number of skipped ids that never became visible within the grace period, which happens for
+     * rolled-back transactions and for servers with an {@code auto_increment_increment} above 1.
+     *
+     * @return the missed id count.
+     */
+    public long getMissedCount() {
+        return missedCount.get();
+    }
+
+    /**
+     * Stops polling and pruning.
+     */
+    public void stop() {
+        pollTimer.cancel(false);
+        pruneTimer.cancel(false);
+    }
+
+    /**
+     * Reads the records after the cursor, remembering the ids that were skipped.
+     *
+     * @param conn the connection.
+     * @param state the poll in progress.
+     * @throws SQLException if the records cannot be read.
+     */
+    private void readNew(Connection conn, PollState state) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id, table_name, row_key, node_id FROM " + tableName
+                + " WHERE id > ? ORDER BY id LIMIT " + POLL_BATCH_SIZE)) {
+            ps.setLong(1, state.cursor);
+            try (ResultSet rs = ps.executeQuery()) {
+                long now = System.currentTimeMillis();
+                while (rs.next()) {
+                    long id = rs.getLong(1);
+                    for (long missing = state.cursor + 1; missing < id && state.gaps.size() < MAX_TRACKED_GAPS; missing++) {
+                        state.gaps.put(missing, now);
+                    }
+                    state.cursor = id;
+                    state.records.add(new ChangeRecord(rs.getString(2), rs.getString(3), rs.getString(4)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the skipped ids again and gives up those older than the grace period.
+     *
+     * @param conn the connection.
+     * @param state the poll in progress.
+     * @throws SQLException if the records cannot be read.
+     */
+    private void readGaps(Connection conn, PollState state) throws SQLException {
+        long expiredBefore = System.currentTimeMillis() - GAP_GRACE_MILLIS;
+        for (Iterator<Long> it = state.gaps.values().iterator(); it.hasNext();) {
+            if (it.next() < expiredBefore) {
+                it.remove();
+                state.missed++;
+            }
+        }
+        if (state.gaps.isEmpty()) {
+            return;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(state.gaps.size(), "?"));
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id, table_name, row_key, node_id FROM " + tableName
+                + " WHERE id IN (" + placeholders + ")")) {
+            int index = 1;
+            for (Long id : state.gaps.keySet()) {
+                ps.setLong(index++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    state.gaps.remove(rs.getLong(1));
+                    state.records.add(new ChangeRecord(rs.getString(2), rs.getString(3), rs.getString(4)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates the cache entries named by a record of another node.
+     *
+     * @param record the change record.
+     */
+    private void apply(ChangeRecord record) {
+        if (nodeId.equals(record.nodeId)) {
+            return;
+        }
+        receivedCount.incrementAndGet();
+        List<Subscription<?>> list = subscriptions.get(record.table);
+        if (list == null) {
+            return;
+        }
+        for (Subscription<?> subscription : list) {
+            try {
+                subscription.invalidate(record.key);
+            } catch (RuntimeException e) {
+                ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to invalidate key " + record.key
+                        + " of table " + record.table);
+            }
+        }
+    }
+
+    /**
+     * Deletes records older than the retention period, a batch at a time.
+     */
+    private void prune() {
+        try {
+            dbManager.executeTransaction(tableName, conn -> {
+                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + tableName
+                        + " WHERE created_at < NOW() - INTERVAL ? SECOND LIMIT " + PRUNE_BATCH_SIZE)) {
+                    ps.setLong(1, Math.max(1L, retentionMillis / 1000L));
+                    ps.executeUpdate();
+                }
+            }, true);
+        } catch (SQLException e) {
+            ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to prune changelog " + tableName);
+        }
+    }
+
+    /**
+     * Converts a row key to the text stored in the changelog.
+     *
+     * @param key the row key.
+     * @return the key text, or {@code null} for the whole table.
+     */
+    static String keyText(Object key) {
+        if (key == null) {
+            return null;
+        }
+        return key instanceof Enum ? ((Enum<?>) key).name() : key.toString();
+    }
+
+    /**
+     * Cursor, skipped ids and records of a poll, applied to the changelog only once the poll succeeded,
+     * so a retried or failed poll does not lose records.
+     */
+    private static final class PollState {
+        private final Map<Long, Long> gaps;
+        private final List<ChangeRecord> records = new ArrayList<>();
+        private long cursor;
+        private long missed;
+
+        private PollState(long cursor, Map<Long, Long> gaps) {
+            this.cursor = cursor;
+            this.gaps = new LinkedHashMap<>(gaps);
+        }
+    }
+
+    /**
+     * One record read from the changelog.
+     */
+    private static final class ChangeRecord {
+        private final String table;
+        private final String key;
+        private final String nodeId;
+
+        private ChangeRecord(String table, String key, String nodeId) {
+            this.table = table;
+            this.key = key;
+            this.nodeId = nodeId;
+        }
+    }
+
+    /**
+     * A registered cache with the parser of its keys.
+     *
+     * @param <K> the type of the entity key.
+     */
+    private static final class Subscription<K> {
+        private final EntityCache<K, ?> cache;
+        private final Function<String, K> keyParser;
+
+        private Subscription(EntityCache<K, ?> cache, Function<String, K> keyParser) {
+            this.cache = cache;
+            this.keyParser = keyParser;
+        }
+
+        /**
+         * Invalidates the entry of a key, or all entries for a change of the whole table.
+         */
+        private void invalidate(String key) {
+            if (key == null) {
+                cache.invalidateAll();
+            } else {
+                cache.invalidate(keyParser.apply(key));
+            }
+        }
+    }
+}
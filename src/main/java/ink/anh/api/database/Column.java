@@ -0,0 +1,36 @@
+package ink.anh.api.database;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a field or record component to a table column for {@link EntityMapper}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.RECORD_COMPONENT })
+public @interface Column {
+
+    /**
+     * Gets the name of the column.
+     *
+     * @return the column name, or an empty string to use the field name.
+     */
+    String value() default "";
+
+    /**
+     * Marks the column as part of the row key used by {@code UPDATE ... WHERE} and upserts.
+     *
+     * @return {@code true} if the column is a key column.
+     */
+    boolean key() default false;
+
+    /**
+     * Stores the value in a BLOB column through the built-in codec of its type from {@link ColumnCodecs#forType(Class)}.
+     * Values written in the legacy string form remain readable.
+     *
+     * @return {@code true} if the column uses the binary codec.
+     */
+    boolean binary() default false;
+}
@@ -0,0 +1,69 @@
+package ink.anh.api.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Converts a column value to and from its binary form stored in a BLOB column.
+ * Ready-made codecs for string arrays, UUIDs, enums and primitive arrays are provided by {@link ColumnCodecs};
+ * their decoders also accept the legacy string form, so existing rows stay readable after a column switches to a codec.
+ *
+ * @param <V> the type of the column value.
+ */
+public interface ColumnCodec<V> {
+
+    /**
+     * Encodes a value.
+     *
+     * @param value the value to be encoded, never {@code null}.
+     * @return the binary form of the value.
+     */
+    byte[] encode(V value);
+
+    /**
+     * Decodes a value.
+     *
+     * @param data the stored bytes, never {@code null}.
+     * @return the decoded value.
+     * @throws IllegalArgumentException if the bytes are not a valid encoding.
+     */
+    V decode(byte[] data);
+
+    /**
+     * Sets a statement parameter to the encoded value, or SQL NULL if the value is {@code null}.
+     *
+     * @param ps the statement whose parameter is set.
+     * @param index the parameter index, starting at 1.
+     * @param value the value to be set.
+     * @throws SQLException if the parameter cannot be set.
+     */
+    default void bind(PreparedStatement ps, int index, V value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.BLOB);
+        } else {
+            ps.setBytes(index, encode(value));
+        }
+    }
+
+    /**
+     * Reads and decodes a column of the current row.
+     *
+     * @param rs the result set positioned on the row.
+     * @param index the column index, starting at 1.
+     * @return the decoded value, or {@code null} if the column is NULL.
+     * @throws SQLException if the column cannot be read or holds an invalid encoding.
+     */
+    default V read(ResultSet rs, int index) throws SQLException {
+        byte[] data = rs.getBytes(index);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return decode(data);
+        } catch (IllegalArgumentException e) {
+            throw new SQLException("Invalid value in column " + index + ": " + e.getMessage(), e);
+        }
+    }
+}
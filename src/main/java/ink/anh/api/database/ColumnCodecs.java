@@ -0,0 +1,415 @@
+package ink.anh.api.database;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Built-in {@link ColumnCodec}s.
+ * <p>
+ * Arrays are written as a marker byte {@code 0}, a variable-length count and the elements: strings with a
+ * variable-length size prefix, numbers in fixed-width big-endian form. UUIDs take 16 bytes and fit a
+ * {@code BINARY(16)} column. Enum constants are written by name, so constants can be reordered safely.
+ * <p>
+ * Every decoder also accepts the legacy string form of the value: the comma-joined text produced by
+ * {@link AbstractTable#joinOrReturnNull(String[])} for arrays and the canonical text form of UUIDs. Legacy text
+ * never starts with a zero byte and a text UUID is never 16 bytes long, which tells the two forms apart.
+ */
+public final class ColumnCodecs {
+
+    private static final byte BINARY_MARKER = 0;
+
+    /**
+     * Codec for {@code String[]} values; {@code null} elements are preserved.
+     */
+    public static final ColumnCodec<String[]> STRING_ARRAY = new ColumnCodec<>() {
+        @Override
+        public byte[] encode(String[] value) {
+            byte[][] elements = new byte[value.length][];
+            int size = 1 + varIntSize(value.length);
+            for (int i = 0; i < value.length; i++) {
+                if (value[i] != null) {
+                    elements[i] = value[i].getBytes(StandardCharsets.UTF_8);
+                    size += elements[i].length;
+                }
+                size += varIntSize(elements[i] == null ? 0 : elements[i].length + 1);
+            }
+            ByteBuffer out = ByteBuffer.allocate(size).put(BINARY_MARKER);
+            putVarInt(out, value.length);
+            for (byte[] element : elements) {
+                if (element == null) {
+                    putVarInt(out, 0);
+                } else {
+                    putVarInt(out, element.length + 1);
+                    out.put(element);
+                }
+            }
+            return out.array();
+        }
+
+        @Override
+        public String[] decode(byte[] data) {
+            if (!isBinary(data)) {
+                List<String> parts = splitLegacy(data);
+                for (int i = 0; i < parts.size(); i++) {
+                    if ("null".equalsIgnoreCase(parts.get(i))) {
+                        parts.set(i, null);
+                    }
+                }
+                return parts.toArray(new String[0]);
+            }
+            ByteBuffer in = binaryBody(data);
+            try {
+                String[] value = new String[getCount(in)];
+                for (int i = 0; i < value.length; i++) {
+                    int length = getVarInt(in) - 1;
+                    if (length >= 0) {
+                        value[i] = new String(data, in.position(), length, StandardCharsets.UTF_8);
+                        in.position(in.position() + length);
+                    }
+                }
+                return value;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Truncated string array", e);
+            }
+        }
+    };
+
+    /**
+     * Codec for UUIDs stored in 16 bytes.
+     */
+    public static final ColumnCodec<UUID> UUID_BINARY = new ColumnCodec<>() {
+        @Override
+        public byte[] encode(UUID value) {
+            return ByteBuffer.allocate(16)
+                    .putLong(value.getMostSignificantBits())
+                    .putLong(value.getLeastSignificantBits())
+                    .array();
+        }
+
+        @Override
+        public UUID decode(byte[] data) {
+            if (data.length == 16) {
+                ByteBuffer in = ByteBuffer.wrap(data);
+                return new UUID(in.getLong(), in.getLong());
+            }
+            return UUID.fromString(new String(data, StandardCharsets.US_ASCII));
+        }
+    };
+
+    /**
+     * Codec for {@code int[]} values.
+     */
+    public static final ColumnCodec<int[]> INT_ARRAY = new ColumnCodec<>() {
+        @Override
+        public byte[] encode(int[] value) {
+            ByteBuffer out = binaryHeader(value.length, Integer.BYTES);
+            for (int element : value) {
+                out.putInt(element);
+            }
+            return out.array();
+        }
+
+        @Override
+        public int[] decode(byte[] data) {
+            if (!isBinary(data)) {
+                List<String> parts = splitLegacy(data);
+                int[] value = new int[parts.size()];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = Integer.parseInt(parts.get(i).trim());
+                }
+                return value;
+            }
+            ByteBuffer in = binaryBody(data);
+            int[] value = new int[getCount(in, Integer.BYTES)];
+            in.asIntBuffer().get(value);
+            return value;
+        }
+    };
+
+    /**
+     * Codec for {@code long[]} values.
+     */
+    public static final ColumnCodec<long[]> LONG_ARRAY = new ColumnCodec<>() {
+        @Override
+        public byte[] encode(long[] value) {
+            ByteBuffer out = binaryHeader(value.length, Long.BYTES);
+            for (long element : value) {
+                out.putLong(element);
+            }
+            return out.array();
+        }
+
+        @Override
+        public long[] decode(byte[] data) {
+            if (!isBinary(data)) {
+                List<String> parts = splitLegacy(data);
+                long[] value = new long[parts.size()];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = Long.parseLong(parts.get(i).trim());
+                }
+                return value;
+            }
+            ByteBuffer in = binaryBody(data);
+            long[] value = new long[getCount(in, Long.BYTES)];
+            in.asLongBuffer().get(value);
+            return value;
+        }
+    };
+
+    /**
+     * Codec for {@code double[]} values.
+     */
+    public static final ColumnCodec<double[]> DOUBLE_ARRAY = new ColumnCodec<>() {
+        @Override
+        public byte[] encode(double[] value) {
+            ByteBuffer out = binaryHeader(value.length, Double.BYTES);
+            for (double element : value) {
+                out.putDouble(element);
+            }
+            return out.array();
+        }
+
+        @Override
+        public double[] decode(byte[] data) {
+            if (!isBinary(data)) {
+                List<String> parts = splitLegacy(data);
+                double[] value = new double[parts.size()];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = Double.parseDouble(parts.get(i).trim());
+                }
+                return value;
+            }
+            ByteBuffer in = binaryBody(data);
+            double[] value = new double[getCount(in, Double.BYTES)];
+            in.asDoubleBuffer().get(value);
+            return value;
+        }
+    };
+
+    private static final ClassValue<ColumnCodec<?>> ENUM_CODECS = new ClassValue<>() {
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        protected ColumnCodec<?> computeValue(Class<?> type) {
+            return new EnumCodec(type);
+        }
+    };
+
+    private ColumnCodecs() {
+    }
+
+    /**
+     * Gets the codec of an enum type.
+     *
+     * @param <E> the enum type.
+     * @param type the enum class.
+     * @return the codec, shared by all callers.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E extends Enum<E>> ColumnCodec<E> forEnum(Class<E> type) {
+        return (ColumnCodec<E>) ENUM_CODECS.get(type);
+    }
+
+    /**
+     * Gets the built-in codec of a value type.
+     *
+     * @param type the value class.
+     * @return the codec, or {@code null} if the type has no built-in codec.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static ColumnCodec<?> forType(Class<?> type) {
+        if (type == String[].class) {
+            return STRING_ARRAY;
+        }
+        if (type == UUID.class) {
+            return UUID_BINARY;
+        }
+        if (type == int[].class) {
+            return INT_ARRAY;
+        }
+        if (type == long[].class) {
+            return LONG_ARRAY;
+        }
+        if (type == double[].class) {
+            return DOUBLE_ARRAY;
+        }
+        if (type.isEnum()) {
+            return forEnum((Class) type);
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the bytes hold the binary form rather than legacy text.
+     *
+     * @param data the stored bytes.
+     * @return {@code true} if the data starts with the binary marker.
+     */
+    private static boolean isBinary(byte[] data) {
+        return data.length > 0 && data[0] == BINARY_MARKER;
+    }
+
+    /**
+     * Splits legacy comma-joined text without regular expressions.
+     *
+     * @param data the UTF-8 text.
+     * @return the parts, empty for empty text.
+     */
+    private static List<String> splitLegacy(byte[] data) {
+        List<String> parts = new ArrayList<>();
+        if (data.length == 0) {
+            return parts;
+        }
+        int start = 0;
+        for (int i = 0; i <= data.length; i++) {
+            if (i == data.length || data[i] == ',') {
+                parts.add(new String(data, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Allocates the buffer of a fixed-width array and writes the marker and the count.
+     *
+     * @param count the number of elements.
+     * @param elementSize the size of one element in bytes.
+     * @return the buffer positioned at the first element.
+     */
+    private static ByteBuffer binaryHeader(int count, int elementSize) {
+        ByteBuffer out = ByteBuffer.allocate(1 + varIntSize(count) + count * elementSize).put(BINARY_MARKER);
+        putVarInt(out, count);
+        return out;
+    }
+
+    /**
+     * Wraps the binary form positioned after the marker byte.
+     *
+     * @param data the stored bytes.
+     * @return the buffer.
+     */
+    private static ByteBuffer binaryBody(byte[] data) {
+        return ByteBuffer.wrap(data, 1, data.length - 1);
+    }
+
+    /**
+     * Reads an element count, checking it against the remaining bytes.
+     *
+     * @param in the buffer.
+     * @return the count.
+     */
+    private static int getCount(ByteBuffer in) {
+        int count = getVarInt(in);
+        if (count > in.remaining()) {
+            throw new IllegalArgumentException("Invalid element count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads the element count of a fixed-width array, checking it against the remaining bytes.
+     *
+     * @param in the buffer.
+     * @param elementSize the size of one element in bytes.
+     * @return the count.
+     */
+    private static int getCount(ByteBuffer in, int elementSize) {
+        int count = getVarInt(in);
+        if ((long) count * elementSize != in.remaining()) {
+            throw new IllegalArgumentException("Invalid element count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the encoded size of a non-negative variable-length integer.
+     *
+     * @param value the value.
+     * @return the size in bytes.
+     */
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a non-negative integer in 7-bit groups, least significant first.
+     *
+     * @param out the buffer.
+     * @param value the value.
+     */
+    private static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an integer written by {@link #putVarInt(ByteBuffer, int)}.
+     *
+     * @param in the buffer.
+     * @return the value.
+     */
+    private static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            try {
+                byte b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("Truncated length", e);
+            }
+        }
+        throw new IllegalArgumentException("Malformed length");
+    }
+
+    /**
+     * Codec of one enum type, with the encoded names computed once.
+     *
+     * @param <E> the enum type.
+     */
+    private static final class EnumCodec<E extends Enum<E>> implements ColumnCodec<E> {
+        private final Class<E> type;
+        private final byte[][] names;
+        private final Map<String, E> constants = new HashMap<>();
+
+        private EnumCodec(Class<E> type) {
+            this.type = type;
+            E[] values = type.getEnumConstants();
+            this.names = new byte[values.length][];
+            for (E constant : values) {
+                names[constant.ordinal()] = constant.name().getBytes(StandardCharsets.UTF_8);
+                constants.put(constant.name(), constant);
+            }
+        }
+
+        @Override
+        public byte[] encode(E value) {
+            return names[value.ordinal()].clone();
+        }
+
+        @Override
+        public E decode(byte[] data) {
+            String name = new String(data, StandardCharsets.UTF_8);
+            E constant = constants.get(name);
+            if (constant == null) {
+                throw new IllegalArgumentException("No constant " + name + " in " + type.getName());
+            }
+            return constant;
+        }
+    }
+}
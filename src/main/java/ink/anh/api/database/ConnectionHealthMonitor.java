@@ -0,0 +1,182 @@
+package ink.anh.api.database;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Background keep-alive for the connections of a {@link DatabaseManager}.
+ * Instances are created through {@link DatabaseManager#startHealthMonitor(long)}.
+ * On every check the idle connections are pinged, connections that went stale (for example after the MySQL
+ * {@code wait_timeout}) are replaced, and pools are topped up, so callers find a working connection instead of
+ * reconnecting inline. While the monitor runs, a single-connection manager no longer reconnects in the caller's
+ * thread; a call made while the database is down fails fast and the monitor restores the connection.
+ */
+public class ConnectionHealthMonitor {
+
+    /**
+     * Health of the database connections as seen by the last check.
+     */
+    public enum State {
+        /**
+         * No check has completed yet.
+         */
+        UNKNOWN,
+        /**
+         * The last check found or opened a working connection.
+         */
+        CONNECTED,
+        /**
+         * The last check could not obtain a working connection.
+         */
+        DISCONNECTED
+    }
+
+    private final DatabaseManager dbManager;
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong checkCount = new AtomicLong();
+    private final AtomicLong failedCheckCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private final ScheduledFuture<?> timer;
+    private volatile State state = State.UNKNOWN;
+    private volatile long lastCheckAt;
+    private volatile SQLException lastFailure;
+
+    /**
+     * Constructs an instance of {@code ConnectionHealthMonitor} and schedules the first check immediately.
+     *
+     * @param dbManager the database manager whose connections are monitored.
+     * @param intervalMillis the time between checks, in milliseconds.
+     */
+    ConnectionHealthMonitor(DatabaseManager dbManager, long intervalMillis) {
+        this.dbManager = dbManager;
+        this.timer = dbManager.scheduleBackground(this::check, 0L, intervalMillis);
+    }
+
+    /**
+     * Pings the connections once, replacing stale ones. Runs on the background executor; may also be called directly.
+     */
+    public synchronized void check() {
+        checkCount.incrementAndGet();
+        lastCheckAt = System.currentTimeMillis();
+        try {
+            reconnectCount.addAndGet(dbManager.keepAlive());
+            lastFailure = null;
+            transition(State.CONNECTED);
+        } catch (SQLException e) {
+            failedCheckCount.incrementAndGet();
+            lastFailure = e;
+            if (transition(State.DISCONNECTED)) {
+                ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Database connection lost, reconnecting in the background");
+            }
+        }
+    }
+
+    /**
+     * Registers a listener notified on a background thread whenever the state changes.
+     *
+     * @param listener the listener receiving the new state.
+     */
+    public void addListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a previously registered listener.
+     *
+     * @param listener the listener to be removed.
+     */
+    public void removeListener(Consumer<State> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Gets the state seen by the last check.
+     *
+     * @return the connection state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the time the last check started.
+     *
+     * @return the epoch time in milliseconds, or 0 if no check ran yet.
+     */
+    public long getLastCheckAt() {
+        return lastCheckAt;
+    }
+
+    /**
+     * Gets the error of the last check if it failed.
+     *
+     * @return the last failure, or {@code null} if the last check succeeded.
+     */
+    public SQLException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Gets the number of checks run so far.
+     *
+     * @return the check count.
+     */
+    public long getCheckCount() {
+        return checkCount.get();
+    }
+
+    /**
+     * Gets the number of checks that could not obtain a working connection.
+     *
+     * @return the failed check count.
+     */
+    public long getFailedCheckCount() {
+        return failedCheckCount.get();
+    }
+
+    /**
+     * Gets the number of connections reopened by the monitor after they went stale or were lost.
+     *
+     * @return the reconnect count.
+     */
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /**
+     * Stops the scheduled checks.
+     */
+    public void stop() {
+        timer.cancel(false);
+    }
+
+    /**
+     * Moves to a new state and notifies the listeners if it changed.
+     *
+     * @param next the new state.
+     * @return {@code true} if the state changed.
+     */
+    private boolean transition(State next) {
+        State previous = state;
+        if (previous == next) {
+            return false;
+        }
+        state = next;
+        if (previous == State.DISCONNECTED) {
+            dbManager.getManager().getPlugin().getLogger().info("Database connection restored");
+        }
+        for (Consumer<State> listener : listeners) {
+            try {
+                listener.accept(next);
+            } catch (RuntimeException e) {
+                dbManager.getManager().getPlugin().getLogger().log(Level.WARNING, "Connection state listener failed", e);
+            }
+        }
+        return true;
+    }
+}
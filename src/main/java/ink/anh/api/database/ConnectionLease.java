@@ -0,0 +1,200 @@
+package ink.anh.api.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Handle over a physical connection that is lent to a caller.
+ * The caller sees a {@link Connection} proxy whose {@code close()} hands the physical connection back
+ * to its owner instead of closing it. Every other call is forwarded to the physical connection
+ * until the lease is closed. When the physical connection has a {@link StatementCache},
+ * {@code prepareStatement(String)} is served from it, and statements left open are closed with the lease.
+ */
+final class ConnectionLease implements InvocationHandler {
+
+    /**
+     * Callback invoked exactly once when the lease is closed.
+     */
+    @FunctionalInterface
+    interface ReleaseHandler {
+        void release(ConnectionLease lease);
+    }
+
+    private final Connection physical;
+    private final StatementCache statementCache;
+    private final ReleaseHandler releaseHandler;
+    private final long borrowedAt;
+    private final Throwable origin;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Connection proxy;
+    private final List<PreparedStatement> cachedStatements = new ArrayList<>();
+    private volatile boolean leakReported;
+    private volatile boolean autoCommitDisabled;
+
+    /**
+     * Creates a lease over the given physical connection.
+     *
+     * @param physical the connection being lent.
+     * @param statementCache the statement cache of the physical connection, or {@code null} if statements are not cached.
+     * @param releaseHandler the callback that takes the connection back when the lease is closed.
+     * @param recordOrigin whether to capture the borrowing stack trace for leak reports.
+     */
+    ConnectionLease(Connection physical, StatementCache statementCache, ReleaseHandler releaseHandler, boolean recordOrigin) {
+        this.physical = physical;
+        this.statementCache = statementCache;
+        this.releaseHandler = releaseHandler;
+        this.borrowedAt = System.currentTimeMillis();
+        this.origin = recordOrigin ? new Throwable("Connection lease borrowed here") : null;
+        this.proxy = (Connection) Proxy.newProxyInstance(
+                ConnectionLease.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+    }
+
+    /**
+     * Gets the connection proxy handed out to the caller.
+     *
+     * @return the lease proxy.
+     */
+    Connection getProxy() {
+        return proxy;
+    }
+
+    /**
+     * Gets the physical connection behind this lease.
+     *
+     * @return the physical connection.
+     */
+    Connection getPhysical() {
+        return physical;
+    }
+
+    /**
+     * Gets the time the lease was handed out.
+     *
+     * @return the borrow time in epoch milliseconds.
+     */
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    /**
+     * Gets the stack trace captured when the lease was handed out.
+     *
+     * @return the borrowing stack trace, or {@code null} if it was not recorded.
+     */
+    Throwable getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Marks the lease as reported by leak detection.
+     *
+     * @return {@code true} if the lease had not been reported before.
+     */
+    boolean markLeakReported() {
+        if (leakReported) {
+            return false;
+        }
+        leakReported = true;
+        return true;
+    }
+
+    /**
+     * Checks whether the holder of this lease turned auto-commit off and did not turn it back on, which means
+     * the holder may have left a transaction open on the physical connection.
+     *
+     * @return {@code true} if auto-commit was disabled through this lease.
+     */
+    boolean hasDisabledAutoCommit() {
+        return autoCommitDisabled;
+    }
+
+    /**
+     * Checks whether the lease has been closed.
+     *
+     * @return {@code true} if the lease is closed.
+     */
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                if (closed.compareAndSet(false, true)) {
+                    closeCachedStatements();
+                    releaseHandler.release(this);
+                }
+                return null;
+            case "isClosed":
+                return closed.get() || physical.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "ConnectionLease[" + physical + "]";
+            default:
+                break;
+        }
+        if (closed.get()) {
+            throw new SQLException("Connection lease has already been closed");
+        }
+        if (statementCache != null && method.getName().equals("prepareStatement") && args.length == 1) {
+            PreparedStatement statement = statementCache.prepare((String) args[0]);
+            synchronized (cachedStatements) {
+                cachedStatements.removeIf(ConnectionLease::isClosedQuietly);
+                cachedStatements.add(statement);
+            }
+            return statement;
+        }
+        Object result;
+        try {
+            result = method.invoke(physical, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (method.getName().equals("setAutoCommit")) {
+            autoCommitDisabled = !(Boolean) args[0];
+        }
+        return result;
+    }
+
+    /**
+     * Closes the statements prepared through this lease that the holder left open, returning cached ones to the cache.
+     */
+    private void closeCachedStatements() {
+        synchronized (cachedStatements) {
+            for (PreparedStatement statement : cachedStatements) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                    // The statement is gone together with its connection
+                }
+            }
+            cachedStatements.clear();
+        }
+    }
+
+    /**
+     * Checks whether a statement is closed, treating a failing check as closed.
+     *
+     * @param statement the statement.
+     * @return {@code true} if the statement is closed.
+     */
+    private static boolean isClosedQuietly(PreparedStatement statement) {
+        try {
+            return statement.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package ink.anh.api.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+import org.bukkit.plugin.Plugin;
+
+import ink.anh.api.utils.MetricsRegistry;
+
+/**
+ * Bounded pool of JDBC connections.
+ * Connections are handed out as leases: closing a lease returns the physical connection to the pool
+ * instead of closing it, so {@link AbstractTable#executeTransaction} no longer pays a full handshake per call.
+ * Idle connections are validated on borrow, evicted after {@link PoolConfig#getIdleTimeoutMillis()} and
+ * retired after {@link PoolConfig#getMaxLifetimeMillis()}. Leases held longer than
+ * {@link PoolConfig#getLeakDetectionThresholdMillis()} are reported together with the borrowing stack trace.
+ * While started, the pool publishes its active, idle, total and pending counts and the time spent waiting for a
+ * connection in the {@link MetricsRegistry} under {@code database.<plugin>.pool.<name>.}.
+ */
+public class ConnectionPool {
+
+    /**
+     * Opens new physical connections for the pool.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+
+        /**
+         * Opens a new physical connection.
+         *
+         * @return the new connection.
+         * @throws SQLException if the connection cannot be opened.
+         */
+        Connection create() throws SQLException;
+    }
+
+    private static final long HOUSEKEEPING_PERIOD_MILLIS = 30_000L;
+    private static final long VALIDATION_BYPASS_MILLIS = 500L;
+
+    private final Plugin plugin;
+    private final String name;
+    private final PoolConfig config;
+    private final ConnectionFactory factory;
+    private final StatementCacheStats statementCacheStats;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<ConnectionLease> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private final MetricsRegistry.Timer acquireTimer;
+    private ScheduledFuture<?> housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an instance of {@code ConnectionPool}.
+     * The pool does not open any connection until {@link #start(ScheduledExecutorService)} or the first borrow.
+     *
+     * @param plugin the plugin whose logger receives pool warnings.
+     * @param name the pool name used in log messages.
+     * @param config the pool settings.
+     * @param factory the factory that opens physical connections.
+     */
+    public ConnectionPool(Plugin plugin, String name, PoolConfig config, ConnectionFactory factory) {
+        this(plugin, name, config, factory, new StatementCacheStats());
+    }
+
+    /**
+     * Constructs an instance of {@code ConnectionPool} whose statement caches report to the given counters.
+     * The pool does not open any connection until {@link #start(ScheduledExecutorService)} or the first borrow.
+     *
+     * @param plugin the plugin whose logger receives pool warnings.
+     * @param name the pool name used in log messages.
+     * @param config the pool settings.
+     * @param factory the factory that opens physical connections.
+     * @param statementCacheStats the counters updated by the per-connection statement caches.
+     */
+    public ConnectionPool(Plugin plugin, String name, PoolConfig config, ConnectionFactory factory,
+            StatementCacheStats statementCacheStats) {
+        this.plugin = plugin;
+        this.name = name;
+        this.config = config;
+        this.factory = factory;
+        this.statementCacheStats = statementCacheStats;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+        this.acquireTimer = MetricsRegistry.global().timer(metricPrefix() + "acquire");
+    }
+
+    /**
+     * Opens the minimum number of idle connections and schedules the housekeeping task
+     * responsible for idle eviction, lifetime retirement and leak detection.
+     *
+     * @param scheduler the scheduler running the housekeeping task.
+     */
+    public void start(ScheduledExecutorService scheduler) {
+        start(scheduler, Runnable::run);
+    }
+
+    /**
+     * Opens the minimum number of idle connections and schedules the housekeeping task, which is timed by the
+     * scheduler but runs on the given executor, so opening or validating connections does not block the scheduler.
+     *
+     * @param scheduler the scheduler timing the housekeeping task.
+     * @param worker the executor running the housekeeping task.
+     */
+    public void start(ScheduledExecutorService scheduler, Executor worker) {
+        String prefix = metricPrefix();
+        gauges.put(prefix + "active", this::getActiveConnections);
+        gauges.put(prefix + "idle", this::getIdleConnections);
+        gauges.put(prefix + "total", this::getTotalConnections);
+        gauges.put(prefix + "pending", this::getPendingThreads);
+        gauges.forEach(MetricsRegistry.global()::gauge);
+        fillIdle();
+        housekeeper = BackgroundTask.scheduleWithFixedDelay(scheduler, worker, this::housekeep,
+                HOUSEKEEPING_PERIOD_MILLIS, HOUSEKEEPING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to {@link PoolConfig#getConnectionTimeoutMillis()}
+     * for one to become available. The returned connection must be closed to return it to the pool.
+     *
+     * @return a leased connection.
+     * @throws SQLException if the pool is closed, the wait times out or a new connection cannot be opened.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool '" + name + "' is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(config.getConnectionTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Timed out after " + config.getConnectionTimeoutMillis()
+                        + "ms waiting for a connection from pool '" + name + "'");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection from pool '" + name + "'", e);
+        } finally {
+            acquireTimer.record(System.nanoTime() - start);
+        }
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            return lend(pooled);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the pool. Idle connections are closed immediately, leased connections are closed when returned.
+     */
+    public void close() {
+        closed = true;
+        if (housekeeper != null) {
+            housekeeper.cancel(false);
+        }
+        gauges.forEach(MetricsRegistry.global()::removeGauge);
+        List<PooledConnection> toClose;
+        synchronized (idle) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        toClose.forEach(this::discard);
+    }
+
+    /**
+     * Pings every idle connection, replaces the ones that went stale and tops the pool back up to the minimum
+     * idle size, so that borrowers do not pay for validation failures and reconnects.
+     *
+     * @return the number of connections opened to replace stale or missing ones.
+     * @throws SQLException if the pool holds no working connection and cannot open one.
+     */
+    public int keepAlive() throws SQLException {
+        if (closed) {
+            return 0;
+        }
+        int count = getIdleConnections();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollLast();
+            }
+            if (pooled == null) {
+                break;
+            }
+            boolean alive;
+            try {
+                alive = !isExpired(pooled, now) && pooled.connection.isValid(config.getValidationTimeoutSeconds());
+            } catch (SQLException e) {
+                alive = false;
+            }
+            if (!alive || !offerIdle(pooled, true)) {
+                discard(pooled);
+            }
+        }
+        try {
+            return openIdle();
+        } catch (SQLException e) {
+            if (getIdleConnections() == 0 && leased.isEmpty()) {
+                throw e;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the number of physical connections currently open.
+     *
+     * @return the total number of connections.
+     */
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    /**
+     * Gets the prefix of the metrics this pool publishes.
+     *
+     * @return the prefix, ending with a dot.
+     */
+    private String metricPrefix() {
+        return "database." + plugin.getName() + ".pool." + name + ".";
+    }
+
+    /**
+     * Gets the number of connections waiting in the pool.
+     *
+     * @return the number of idle connections.
+     */
+    public int getIdleConnections() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Gets the number of connections currently leased to callers.
+     *
+     * @return the number of active connections.
+     */
+    public int getActiveConnections() {
+        return leased.size();
+    }
+
+    /**
+     * Gets the counters of the per-connection statement caches.
+     *
+     * @return the statement cache statistics.
+     */
+    public StatementCacheStats getStatementCacheStats() {
+        return statementCacheStats;
+    }
+
+    /**
+     * Gets the number of threads waiting for a connection.
+     *
+     * @return the number of waiting threads.
+     */
+    public int getPendingThreads() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Takes the most recently used idle connection that is still alive and within its lifetime.
+     * Connections that fail validation are discarded.
+     *
+     * @return an idle connection, or {@code null} if none is available.
+     */
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return null;
+            }
+            if (isExpired(pooled, System.currentTimeMillis()) || !isAlive(pooled)) {
+                discard(pooled);
+                continue;
+            }
+            return pooled;
+        }
+    }
+
+    /**
+     * Wraps a physical connection into a lease and tracks it for leak detection.
+     *
+     * @param pooled the pooled connection to lend.
+     * @return the lease proxy.
+     */
+    private Connection lend(PooledConnection pooled) {
+        ConnectionLease lease = new ConnectionLease(pooled.connection, pooled.statementCache, l -> giveBack(pooled, l),
+                config.getLeakDetectionThresholdMillis() > 0);
+        leased.add(lease);
+        return lease.getProxy();
+    }
+
+    /**
+     * Takes a connection back from a closed lease. Connections left in a transaction are rolled back;
+     * broken, expired or surplus connections are closed instead of being pooled.
+     *
+     * @param pooled the pooled connection being returned.
+     * @param lease the closed lease.
+     */
+    private void giveBack(PooledConnection pooled, ConnectionLease lease) {
+        leased.remove(lease);
+        try {
+            long now = System.currentTimeMillis();
+            boolean reusable = !closed && !isExpired(pooled, now) && total.get() <= config.getMaxSize();
+            if (reusable) {
+                try {
+                    Connection connection = pooled.connection;
+                    if (connection.isClosed()) {
+                        reusable = false;
+                    } else {
+                        if (!connection.getAutoCommit()) {
+                            connection.rollback();
+                            connection.setAutoCommit(true);
+                        }
+                        if (pooled.statementCache != null) {
+                            pooled.statementCache.releaseAll();
+                        }
+                    }
+                } catch (SQLException e) {
+                    reusable = false;
+                }
+            }
+            if (reusable) {
+                pooled.lastUsedAt = now;
+            }
+            if (!reusable || !offerIdle(pooled, true)) {
+                discard(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Opens a new physical connection and counts it towards the pool size.
+     *
+     * @return the new pooled connection.
+     * @throws SQLException if the connection cannot be opened.
+     */
+    private PooledConnection open() throws SQLException {
+        total.incrementAndGet();
+        try {
+            Connection connection = factory.create();
+            StatementCache statementCache = config.getStatementCacheSize() > 0
+                    ? new StatementCache(connection, config.getStatementCacheSize(), statementCacheStats)
+                    : null;
+            return new PooledConnection(connection, statementCache);
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes a physical connection and removes it from the pool size.
+     *
+     * @param pooled the connection to close.
+     */
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        if (pooled.statementCache != null) {
+            pooled.statementCache.close();
+        }
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.FINE, "Failed to close pooled connection", e);
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled, long now) {
+        return config.getMaxLifetimeMillis() > 0 && now - pooled.createdAt > config.getMaxLifetimeMillis();
+    }
+
+    private boolean isAlive(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsedAt < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(config.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Periodic maintenance: reports leaked leases, evicts idle and expired connections
+     * and tops the pool back up to the minimum idle size.
+     */
+    private void housekeep() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long leakThreshold = config.getLeakDetectionThresholdMillis();
+        if (leakThreshold > 0) {
+            for (ConnectionLease lease : leased) {
+                if (now - lease.getBorrowedAt() > leakThreshold && lease.markLeakReported()) {
+                    plugin.getLogger().log(Level.WARNING, "Connection leak detection triggered in pool '" + name
+                            + "': a lease has been open for more than " + leakThreshold + "ms", lease.getOrigin());
+                }
+            }
+        }
+
+        List<PooledConnection> evicted = new ArrayList<>();
+        synchronized (idle) {
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                boolean idleTooLong = config.getIdleTimeoutMillis() > 0
+                        && now - pooled.lastUsedAt > config.getIdleTimeoutMillis()
+                        && idle.size() > config.getMinIdle();
+                if (idleTooLong || isExpired(pooled, now)) {
+                    iterator.remove();
+                    evicted.add(pooled);
+                }
+            }
+        }
+        evicted.forEach(this::discard);
+
+        fillIdle();
+    }
+
+    /**
+     * Opens connections until the pool holds {@link PoolConfig#getMinIdle()} idle connections
+     * or reaches its maximum size. Failures are logged.
+     */
+    private void fillIdle() {
+        try {
+            openIdle();
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to open connection for pool '" + name + "'");
+        }
+    }
+
+    /**
+     * Opens connections until the pool holds {@link PoolConfig#getMinIdle()} idle connections
+     * or reaches its maximum size.
+     *
+     * @return the number of connections opened.
+     * @throws SQLException if a connection cannot be opened.
+     */
+    private int openIdle() throws SQLException {
+        int opened = 0;
+        while (!closed && getIdleConnections() < config.getMinIdle() && permits.tryAcquire()) {
+            try {
+                if (total.get() >= config.getMaxSize()) {
+                    break;
+                }
+                PooledConnection pooled = open();
+                if (!offerIdle(pooled, false)) {
+                    discard(pooled);
+                    break;
+                }
+                opened++;
+            } finally {
+                permits.release();
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Puts a connection into the idle set unless the pool was closed meanwhile. The closed flag is checked under
+     * the same lock {@link #close()} drains the idle set with, so a connection is either drained or refused.
+     *
+     * @param pooled the connection.
+     * @param first whether to put it at the head, where it is borrowed first, instead of the tail.
+     * @return {@code true} if the connection was pooled, {@code false} if the pool is closed and it must be closed.
+     */
+    private boolean offerIdle(PooledConnection pooled, boolean first) {
+        synchronized (idle) {
+            if (closed) {
+                return false;
+            }
+            if (first) {
+                idle.offerFirst(pooled);
+            } else {
+                idle.offerLast(pooled);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool together with its statement cache and bookkeeping timestamps.
+     */
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private final long createdAt;
+        private volatile long lastUsedAt;
+
+        private PooledConnection(Connection connection, StatementCache statementCache) {
+            this.connection = connection;
+            this.statementCache = statementCache;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = createdAt;
+        }
+    }
+}
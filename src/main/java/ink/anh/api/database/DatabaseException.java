@@ -0,0 +1,32 @@
+package ink.anh.api.database;
+
+import java.sql.SQLException;
+
+/**
+ * Unchecked exception carrying a failed database operation out of code that cannot throw {@link SQLException},
+ * such as the {@link java.util.concurrent.CompletableFuture}s returned by the asynchronous table API.
+ */
+public class DatabaseException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs an instance of {@code DatabaseException} with the specified message and cause.
+     *
+     * @param message the description of the failed operation.
+     * @param cause the underlying SQL error.
+     */
+    public DatabaseException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Gets the underlying SQL error.
+     *
+     * @return the SQL exception that caused this failure.
+     */
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
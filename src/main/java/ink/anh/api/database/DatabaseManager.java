@@ -1,22 +1,72 @@
 package ink.anh.api.database;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bukkit.Bukkit;
 
 import ink.anh.api.LibraryManager;
+import ink.anh.api.database.AbstractTable.SQLConsumer;
+import ink.anh.api.database.AbstractTable.SQLFunction;
+import ink.anh.api.database.AbstractTable.SQLSupplier;
 
 /**
  * Abstract class for managing database connections and tables.
  * Provides common functionality for different types of database managers.
  */
 public abstract class DatabaseManager {
+
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 3;
+    private static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30_000L;
+
+    /**
+     * Shard key set by {@link #withShardKey(Object, SQLSupplier)} for the operations of the current thread.
+     */
+    private static final ThreadLocal<Object> SHARD_KEY = new ThreadLocal<>();
+
+    /**
+     * Table name under which statements run directly on a connection from {@link #getConnection()} are recorded.
+     */
+    private static final String DIRECT_CONNECTION_TABLE = "(direct)";
+
     private LibraryManager manager;
     private AbstractTableRegistrar tableRegistrar;
 
-    protected Connection connection;
+    protected volatile Connection connection;
     private Map<Class<?>, AbstractTable<?>> tables = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService asyncExecutor;
+    private ExecutorService backgroundExecutor;
+    private final StatementCacheStats statementCacheStats = new StatementCacheStats();
+    private StatementCache sharedStatementCache;
+    private Connection sharedCacheConnection;
+    private final List<WriteBehindQueue> writeBehindQueues = new CopyOnWriteArrayList<>();
+    private final RetryStats retryStats = new RetryStats();
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private volatile WriteJournal writeJournal;
+    private volatile ConnectionHealthMonitor healthMonitor;
+    private volatile InFlight inFlight = new InFlight();
+    private final QueryMetrics queryMetrics;
+    private final Object reloadLock = new Object();
     
     /**
      * Constructs an instance of {@code DatabaseManager} with the specified library manager and table registrar.
@@ -27,6 +77,7 @@ public abstract class DatabaseManager {
     protected DatabaseManager(LibraryManager manager, AbstractTableRegistrar tableRegistrar) {
         this.manager = manager;
         this.tableRegistrar = tableRegistrar;
+        this.queryMetrics = new QueryMetrics(manager.getPlugin());
     }
 
     /**
@@ -44,11 +95,483 @@ public abstract class DatabaseManager {
     public abstract void initialize();
 
     /**
-     * Gets the current connection to the database.
+     * Gets the current connection to the database. Implementations pass it through
+     * {@link #instrumentConnection(Connection)}, so its statements are recorded while statement recording is enabled.
      *
      * @return the current connection to the database.
      */
     public abstract Connection getConnection();
+
+    /**
+     * Wraps a connection handed out by {@link #getConnection()} or {@link #getReadConnection()} so that its
+     * statements are recorded in the {@link QueryMetrics} while statement recording is enabled. Statements run on it
+     * directly are recorded under the table name {@code (direct)}; operations of the manager record them
+     * under their own table instead.
+     *
+     * @param conn the connection, or {@code null}.
+     * @return the instrumented connection, or {@code conn} itself if statement recording is disabled.
+     */
+    protected Connection instrumentConnection(Connection conn) {
+        return conn == null || !queryMetrics.isEnabled() ? conn : queryMetrics.instrument(DIRECT_CONNECTION_TABLE, conn);
+    }
+
+    /**
+     * Gets a connection for read-only work. Managers with dedicated read connections override this;
+     * by default it is the same as {@link #getConnection()}.
+     *
+     * @return a connection suitable for reading.
+     */
+    public Connection getReadConnection() {
+        return getConnection();
+    }
+
+    /**
+     * Gets a connection for read-only work on the specified table. Managers that keep tables in separate
+     * databases override this; by default it is the same as {@link #getReadConnection()}.
+     *
+     * @param tableName the name of the table the work belongs to.
+     * @return a connection suitable for reading the table.
+     */
+    protected Connection getReadConnection(String tableName) {
+        return getReadConnection();
+    }
+
+    /**
+     * Runs the work with a shard key, so operations on tables sharded by key reach the database holding that key.
+     * Managers without key sharding ignore the key. Calls may be nested; the innermost key applies.
+     *
+     * @param <R> the type of the result.
+     * @param key the key of the rows the work reads or writes.
+     * @param work the work to run.
+     * @return the result of the work.
+     * @throws SQLException if the work fails.
+     */
+    public <R> R withShardKey(Object key, SQLSupplier<R> work) throws SQLException {
+        Object previous = SHARD_KEY.get();
+        SHARD_KEY.set(key);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                SHARD_KEY.remove();
+            } else {
+                SHARD_KEY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Gets the shard key set for the current thread by {@link #withShardKey(Object, SQLSupplier)}.
+     *
+     * @return the shard key, or {@code null} if none is set.
+     */
+    protected static Object getShardKey() {
+        return SHARD_KEY.get();
+    }
+
+    /**
+     * Checks whether the table is stored apart from the main database, in its own database or split by key.
+     *
+     * @param tableName the name of the table.
+     * @return {@code true} if the table is sharded; always {@code false} for managers without sharding.
+     */
+    public boolean isSharded(String tableName) {
+        return false;
+    }
+
+    /**
+     * Gets the number of databases the rows of the table are split across by key.
+     *
+     * @param tableName the name of the table.
+     * @return the shard count, 1 if the table is not split by key.
+     */
+    public int getShardCount(String tableName) {
+        return 1;
+    }
+
+    /**
+     * Gets the shard holding the rows of the table with the specified key.
+     *
+     * @param tableName the name of the table.
+     * @param key the row key.
+     * @return the shard index, from 0 to {@link #getShardCount(String)} minus 1.
+     */
+    public int getShardIndex(String tableName, Object key) {
+        return 0;
+    }
+
+    /**
+     * Executes the given SQL operation in a transaction on every database holding rows of the table, for schema
+     * changes and for writes that are not bound to a key. Without sharding this is a single idempotent transaction.
+     * Each shard commits on its own.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed once per shard; it may run more than once.
+     * @throws SQLException if the operation fails on a shard; earlier shards stay committed.
+     */
+    public void executeOnAllShards(String tableName, SQLConsumer<Connection> sqlConsumer) throws SQLException {
+        executeTransaction(tableName, sqlConsumer, true);
+    }
+
+    /**
+     * Executes the given read-only SQL operation on every database holding rows of the table, for queries that
+     * are not bound to a key. Without sharding this is a single query.
+     *
+     * @param <R> the type of the query result.
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlFunction the SQL operation to be executed once per shard.
+     * @return the results of the shards in shard order.
+     * @throws SQLException if the operation fails on a shard.
+     */
+    public <R> List<R> queryAllShards(String tableName, SQLFunction<Connection, R> sqlFunction) throws SQLException {
+        return Collections.singletonList(executeQuery(tableName, sqlFunction));
+    }
+
+    /**
+     * Executes the given SQL operation in a transaction on behalf of the specified table.
+     * The transaction is committed if the operation completes and rolled back if it throws.
+     * Transactions rolled back by a deadlock or a busy database are retried according to the {@link RetryPolicy}.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed.
+     * @throws SQLException if no connection is available or the operation fails.
+     */
+    public void executeTransaction(String tableName, SQLConsumer<Connection> sqlConsumer) throws SQLException {
+        executeTransaction(tableName, sqlConsumer, false);
+    }
+
+    /**
+     * Executes the given SQL operation in a transaction on behalf of the specified table, retrying transient
+     * failures according to the {@link RetryPolicy}. Deadlocks, lock wait timeouts and busy databases are always
+     * retried, since the whole transaction is rolled back. A lost connection is only retried for idempotent
+     * operations, because the commit may have been applied before the connection failed.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed; it may run more than once.
+     * @param idempotent whether running the operation twice has the same effect as running it once.
+     * @throws SQLException if no connection is available or the operation fails.
+     */
+    public void executeTransaction(String tableName, SQLConsumer<Connection> sqlConsumer, boolean idempotent) throws SQLException {
+        withRetry(tableName, "transaction", idempotent, () -> {
+            runTransaction(tableName, queryMetrics.isEnabled()
+                    ? conn -> sqlConsumer.accept(queryMetrics.instrument(tableName, conn))
+                    : sqlConsumer);
+            return null;
+        });
+    }
+
+    /**
+     * Executes the given read-only SQL operation on behalf of the specified table.
+     * Transient failures are retried according to the {@link RetryPolicy}.
+     *
+     * @param <R> the type of the query result.
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlFunction the SQL operation to be executed.
+     * @return the result of the operation.
+     * @throws SQLException if no connection is available or the operation fails.
+     */
+    public <R> R executeQuery(String tableName, SQLFunction<Connection, R> sqlFunction) throws SQLException {
+        return withRetry(tableName, "query", true, () -> runQuery(tableName, queryMetrics.isEnabled()
+                ? conn -> sqlFunction.apply(queryMetrics.instrument(tableName, conn))
+                : sqlFunction));
+    }
+
+    /**
+     * Runs one attempt of a transaction. Managers with a dedicated write path override this.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed.
+     * @throws SQLException if no connection is available or the operation fails.
+     */
+    protected void runTransaction(String tableName, SQLConsumer<Connection> sqlConsumer) throws SQLException {
+        try (Connection conn = requireConnection(getConnection())) {
+            runInTransaction(conn, sqlConsumer);
+        }
+    }
+
+    /**
+     * Runs one attempt of a read-only operation. Managers with dedicated read connections override this.
+     *
+     * @param <R> the type of the query result.
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlFunction the SQL operation to be executed.
+     * @return the result of the operation.
+     * @throws SQLException if no connection is available or the operation fails.
+     */
+    protected <R> R runQuery(String tableName, SQLFunction<Connection, R> sqlFunction) throws SQLException {
+        try (Connection conn = requireConnection(getReadConnection())) {
+            return sqlFunction.apply(conn);
+        }
+    }
+
+    /**
+     * Runs the work, repeating it after a backoff delay while it fails with a retryable error
+     * and the {@link RetryPolicy} allows another attempt. On the server main thread the work is retried
+     * at most once and without delay, so a deadlock retry cannot stall the tick.
+     *
+     * The whole run, including retries, is recorded in the {@link QueryMetrics}.
+     *
+     * @param <R> the type of the result.
+     * @param tableName the name of the table the work belongs to.
+     * @param operation the operation name recorded in the metrics.
+     * @param idempotent whether the work may be repeated after a lost connection.
+     * @param work the work to run.
+     * @return the result of the work.
+     * @throws SQLException the last failure if the work does not succeed.
+     */
+    private <R> R withRetry(String tableName, String operation, boolean idempotent, SQLSupplier<R> work) throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            R result = withRetry(idempotent, work);
+            failed = false;
+            return result;
+        } finally {
+            queryMetrics.recordOperation(tableName, operation, (System.nanoTime() - start) / 1000L, failed);
+        }
+    }
+
+    /**
+     * Runs the work, repeating it after a backoff delay while it fails with a retryable error
+     * and the {@link RetryPolicy} allows another attempt.
+     *
+     * @param <R> the type of the result.
+     * @param idempotent whether the work may be repeated after a lost connection.
+     * @param work the work to run.
+     * @return the result of the work.
+     * @throws SQLException the last failure if the work does not succeed.
+     */
+    private <R> R withRetry(boolean idempotent, SQLSupplier<R> work) throws SQLException {
+        RetryPolicy policy = retryPolicy;
+        SqlDialect dialect = getDialect();
+        boolean mainThread = Bukkit.isPrimaryThread();
+        int maxAttempts = mainThread ? Math.min(policy.getMaxAttempts(), 2) : policy.getMaxAttempts();
+        for (int attempt = 1; ; attempt++) {
+            InFlight flight = enterOperation();
+            try {
+                R result = work.get();
+                if (attempt > 1) {
+                    retryStats.recordRecovered();
+                }
+                return result;
+            } catch (SQLException e) {
+                if (!dialect.isTransient(e) && !(idempotent && dialect.isConnectionFailure(e))) {
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    if (attempt > 1) {
+                        retryStats.recordExhausted();
+                    }
+                    throw e;
+                }
+                retryStats.recordRetry();
+                flight.leave();
+                flight = null;
+                if (mainThread) {
+                    continue;
+                }
+                try {
+                    Thread.sleep(policy.getDelayMillis(attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } finally {
+                if (flight != null) {
+                    flight.leave();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers an operation with the current connection set, so a reload waits for it before closing that set.
+     * Must be called before the operation obtains a connection.
+     *
+     * @return the counter to leave when the operation has released its connection.
+     */
+    private InFlight enterOperation() {
+        while (true) {
+            InFlight current = inFlight;
+            current.enter();
+            if (current == inFlight) {
+                return current;
+            }
+            // A reload swapped the connection set in between; register with the new one
+            current.leave();
+        }
+    }
+
+    /**
+     * Runs a query and returns its rows as a lazily consumed stream. Rows are fetched from the server in chunks of
+     * {@code fetchSize} and mapped one at a time, so memory use does not grow with the size of the result.
+     * The stream holds a read connection until it is exhausted or closed; use it in a try-with-resources block.
+     * Failures while reading rows are thrown as {@link DatabaseException}.
+     *
+     * @param <R> the type of the mapped rows.
+     * @param tableName the name of the table the query belongs to.
+     * @param sql the SQL query.
+     * @param binder sets the statement parameters, or {@code null} if the query has none.
+     * @param mapper maps each row.
+     * @param fetchSize the number of rows fetched per round trip.
+     * @return the stream of mapped rows.
+     * @throws SQLException if no connection is available or the query cannot be started.
+     */
+    public <R> Stream<R> stream(String tableName, String sql, SQLConsumer<PreparedStatement> binder,
+            RowMapper<R> mapper, int fetchSize) throws SQLException {
+        InFlight flight = enterOperation();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        try {
+            conn = requireConnection(getReadConnection(tableName));
+            ps = queryMetrics.instrument(tableName, conn).prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(getStreamingFetchSize(fetchSize));
+            if (binder != null) {
+                binder.accept(ps);
+            }
+            ResultSet rs = ps.executeQuery();
+            ResultSetSpliterator<R> rows = new ResultSetSpliterator<>(conn, ps, rs, mapper, flight::leave);
+            return StreamSupport.stream(rows, false).onClose(rows::close);
+        } catch (SQLException | RuntimeException e) {
+            ResultSetSpliterator.closeQuietly(ps);
+            ResultSetSpliterator.closeQuietly(conn);
+            flight.leave();
+            throw e;
+        }
+    }
+
+    /**
+     * Translates the requested fetch size into the value the JDBC driver needs for streaming.
+     *
+     * @param requested the number of rows the caller wants per round trip.
+     * @return the fetch size passed to {@link PreparedStatement#setFetchSize(int)}.
+     */
+    protected int getStreamingFetchSize(int requested) {
+        return requested;
+    }
+
+    /**
+     * Executes the given SQL operation in a transaction on a virtual thread.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed.
+     * @return a future completed when the transaction is committed, or completed exceptionally with the
+     *         {@link SQLException} wrapped in a {@link CompletionException} if it fails.
+     */
+    public CompletableFuture<Void> executeTransactionAsync(String tableName, SQLConsumer<Connection> sqlConsumer) {
+        return supplyAsync(() -> {
+            executeTransaction(tableName, sqlConsumer);
+            return null;
+        });
+    }
+
+    /**
+     * Executes the given read-only SQL operation on a virtual thread.
+     *
+     * @param <R> the type of the query result.
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlFunction the SQL operation to be executed.
+     * @return a future completed with the result of the operation, or completed exceptionally with the
+     *         {@link SQLException} wrapped in a {@link CompletionException} if it fails.
+     */
+    public <R> CompletableFuture<R> executeQueryAsync(String tableName, SQLFunction<Connection, R> sqlFunction) {
+        return supplyAsync(() -> executeQuery(tableName, sqlFunction));
+    }
+
+    /**
+     * Runs blocking database work on the virtual-thread executor of this manager.
+     * Continuations that touch the server should hop back to the main thread, for example with
+     * {@code thenAcceptAsync(..., SyncExecutor.mainThreadExecutor())}.
+     *
+     * @param <R> the type of the result.
+     * @param work the work to run; a thrown {@link SQLException} completes the future exceptionally.
+     * @return a future completed with the result of the work.
+     */
+    public <R> CompletableFuture<R> supplyAsync(SQLSupplier<R> work) {
+        Object context = captureCallerContext();
+        ExecutorService executor = getAsyncExecutor();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.get();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, context == null ? executor : command -> executor.execute(() -> {
+            applyCallerContext(context);
+            command.run();
+        }));
+    }
+
+    /**
+     * Captures the state of the calling thread that the asynchronous operations it starts must share,
+     * such as the time of its last write. By default there is none.
+     *
+     * @return the captured state, or {@code null} if there is nothing to carry over.
+     */
+    protected Object captureCallerContext() {
+        return null;
+    }
+
+    /**
+     * Applies state captured by {@link #captureCallerContext()} to the virtual thread running an asynchronous
+     * operation, before the operation and its completion stages run. The thread ends with the operation,
+     * so the state need not be removed again.
+     *
+     * @param context the captured state.
+     */
+    protected void applyCallerContext(Object context) {
+    }
+
+    /**
+     * Gets the executor that runs asynchronous database operations. Every task gets its own virtual thread,
+     * so blocking JDBC calls do not occupy platform threads. The executor is created on first use.
+     *
+     * @return the asynchronous executor.
+     */
+    public synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null || asyncExecutor.isShutdown()) {
+            asyncExecutor = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name(manager.getPlugin().getName() + "-database-async-", 0).factory());
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Runs the given SQL operation in a transaction on the given connection.
+     * Commits on success, rolls back on failure and restores the previous auto-commit mode.
+     *
+     * @param conn the connection to run the transaction on.
+     * @param sqlConsumer the SQL operation to be executed.
+     * @throws SQLException if the operation, the commit or the rollback fails.
+     */
+    protected static void runInTransaction(Connection conn, SQLConsumer<Connection> sqlConsumer) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false); // Start transaction
+        try {
+            sqlConsumer.accept(conn);
+            conn.commit(); // Commit transaction
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback(); // Rollback transaction in case of error
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Checks that a connection was obtained.
+     *
+     * @param conn the connection returned by the manager.
+     * @return the same connection.
+     * @throws SQLException if the connection is {@code null}.
+     */
+    protected static Connection requireConnection(Connection conn) throws SQLException {
+        if (conn == null) {
+            throw new SQLException("Failed to establish database connection", "08001");
+        }
+        return conn;
+    }
     
     /**
      * Gets the table prefix for the database.
@@ -57,6 +580,13 @@ public abstract class DatabaseManager {
      */
     public abstract String getTablePrefix();
 
+    /**
+     * Gets the SQL dialect of the database.
+     *
+     * @return the SQL dialect.
+     */
+    public abstract SqlDialect getDialect();
+
     /**
      * Registers a table with the specified class and table instance.
      *
@@ -81,22 +611,91 @@ public abstract class DatabaseManager {
     }
 
     /**
-     * Reloads the database manager with a new library manager and table registrar.
+     * Reloads the database manager with a new library manager and table registrar,
+     * waiting up to 30 seconds for in-flight operations.
      *
      * @param manager the new library manager.
      * @param tableRegistrar the new table registrar.
+     * @see #reload(LibraryManager, AbstractTableRegistrar, long)
      */
     public void reload(LibraryManager manager, AbstractTableRegistrar tableRegistrar) {
-        closeConnection();
+        reload(manager, tableRegistrar, DEFAULT_DRAIN_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Reloads the database manager with a new library manager and table registrar without dropping operations.
+     * The new connections are opened first and swapped in atomically, so operations started from then on use them.
+     * Operations still running on the old connections are given up to {@code drainTimeoutMillis} to finish before
+     * the old connections are closed. If the new connections cannot be opened, the old ones stay in use.
+     * Only operations run through this manager are tracked; connections obtained directly with
+     * {@link #getConnection()} are not waited for.
+     *
+     * @param manager the new library manager.
+     * @param tableRegistrar the new table registrar.
+     * @param drainTimeoutMillis the maximum time to wait for in-flight operations, in milliseconds.
+     */
+    public void reload(LibraryManager manager, AbstractTableRegistrar tableRegistrar, long drainTimeoutMillis) {
+        LibraryManager previousManager = this.manager;
+        AbstractTableRegistrar previousRegistrar = this.tableRegistrar;
         this.manager = manager;
         this.tableRegistrar = tableRegistrar;
+        Runnable closeOld;
+        InFlight draining;
+        synchronized (reloadLock) {
+            try {
+                closeOld = swapConnections();
+            } catch (SQLException e) {
+                this.manager = previousManager;
+                this.tableRegistrar = previousRegistrar;
+                ErrorLogger.log(manager.getPlugin(), e, "Failed to open new database connections, keeping the current ones");
+                return;
+            }
+            draining = inFlight;
+            inFlight = new InFlight();
+        }
+        try {
+            if (!draining.await(drainTimeoutMillis)) {
+                manager.getPlugin().getLogger().warning("Closing old database connections with "
+                        + draining.count.get() + " operations still running after " + drainTimeoutMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeOld.run();
+    }
+
+    /**
+     * Opens a new connection set from the current configuration and swaps it in place of the current one.
+     * Managers override this to keep the old connections open until {@link #reload} has drained them;
+     * by default the old connection is closed and the manager is initialized again.
+     *
+     * @return an action closing the old connections.
+     * @throws SQLException if the new connections cannot be opened; the current ones must then stay in use.
+     */
+    protected Runnable swapConnections() throws SQLException {
+        releaseConnections();
         initialize();
+        return () -> { };
     }
 
     /**
      * Closes the current connection to the database.
+     * Buffered write-behind mutations are flushed and the write journal is replayed before the connection is released.
      */
     public void closeConnection() {
+        flushWriteBehindQueues();
+        WriteJournal journal = writeJournal;
+        if (journal != null && journal.hasPending()) {
+            journal.replay();
+        }
+        releaseConnections();
+    }
+
+    /**
+     * Releases the connections held by this manager. Managers with their own connection handling
+     * override this method.
+     */
+    protected void releaseConnections() {
         try {
             if (connection != null && !connection.isClosed()) {
                 connection.close();
@@ -106,11 +705,400 @@ public abstract class DatabaseManager {
         }
     }
 
+    /**
+     * Creates a write-behind queue for the specified table. The queue is flushed automatically
+     * whenever this manager closes its connection.
+     *
+     * @param tableName the name of the table the mutations belong to.
+     * @param maxBatchSize the number of pending mutations that triggers a flush.
+     * @param flushIntervalMillis the maximum time a mutation stays buffered, in milliseconds.
+     * @return the new write-behind queue.
+     */
+    public WriteBehindQueue createWriteBehindQueue(String tableName, int maxBatchSize, long flushIntervalMillis) {
+        WriteBehindQueue queue = new WriteBehindQueue(this, tableName, maxBatchSize, flushIntervalMillis);
+        writeBehindQueues.add(queue);
+        return queue;
+    }
+
+    /**
+     * Writes all mutations buffered in write-behind queues. Failures are logged.
+     */
+    public void flushWriteBehindQueues() {
+        writeBehindQueues.forEach(WriteBehindQueue::flushQuietly);
+    }
+
+    /**
+     * Starts the background health monitor that pings the connections of this manager every
+     * {@code intervalMillis} and reconnects proactively. Calling this again returns the running monitor.
+     * The interval should be shorter than the server's idle timeout, such as the MySQL {@code wait_timeout}.
+     *
+     * @param intervalMillis the time between checks, in milliseconds.
+     * @return the health monitor.
+     */
+    public synchronized ConnectionHealthMonitor startHealthMonitor(long intervalMillis) {
+        if (healthMonitor == null) {
+            healthMonitor = new ConnectionHealthMonitor(this, intervalMillis);
+        }
+        return healthMonitor;
+    }
+
+    /**
+     * Gets the cross-server changelog of this manager.
+     *
+     * @return the changelog, or {@code null} if the manager does not support it or it is not enabled.
+     */
+    public ChangeLog getChangeLog() {
+        return null;
+    }
+
+    /**
+     * Gets the health monitor of this manager.
+     *
+     * @return the health monitor, or {@code null} if it is not running.
+     */
+    public ConnectionHealthMonitor getHealthMonitor() {
+        return healthMonitor;
+    }
+
+    /**
+     * Pings the connections of this manager and replaces the ones that went stale. Called by the
+     * {@link ConnectionHealthMonitor}; managers override this to maintain their connections.
+     *
+     * @return the number of connections reopened.
+     * @throws SQLException if no working connection can be obtained.
+     */
+    protected int keepAlive() throws SQLException {
+        return 0;
+    }
+
+    /**
+     * Keeps the single shared connection alive: validates it and reopens it if it is missing, closed or stale.
+     *
+     * @param opener opens a new physical connection.
+     * @return 1 if the connection was reopened, otherwise 0.
+     * @throws SQLException if the connection cannot be reopened.
+     */
+    protected int keepAliveConnection(SQLSupplier<Connection> opener) throws SQLException {
+        Connection current = connection;
+        try {
+            if (current != null && !current.isClosed() && current.isValid(HEALTH_CHECK_TIMEOUT_SECONDS)) {
+                return 0;
+            }
+        } catch (SQLException e) {
+            // Treated as a stale connection below
+        }
+        ResultSetSpliterator.closeQuietly(current);
+        connection = opener.get();
+        return 1;
+    }
+
+    /**
+     * Lends the single shared connection without reconnecting. Closing the returned connection resets it
+     * instead of closing it, so the connection kept alive by the health monitor stays open.
+     *
+     * @return a lease over the shared connection, or {@code null} if it is not open.
+     */
+    protected Connection shareConnection() {
+        Connection current = connection;
+        try {
+            if (current == null || current.isClosed()) {
+                return null;
+            }
+        } catch (SQLException e) {
+            return null;
+        }
+        return new ConnectionLease(current, sharedStatementCache(current), lease -> resetSharedConnection(lease), false)
+                .getProxy();
+    }
+
+    /**
+     * Gets the number of prepared statements cached for the single shared connection. Managers that lend a
+     * shared connection through {@link #shareConnection()} override this to enable the cache.
+     *
+     * @return the cache size, 0 to disable the cache.
+     */
+    protected int getSharedStatementCacheSize() {
+        return 0;
+    }
+
+    /**
+     * Gets the statement cache of the shared connection, replacing it when the connection was reopened.
+     *
+     * @param current the shared connection.
+     * @return the statement cache, or {@code null} if caching is disabled.
+     */
+    private synchronized StatementCache sharedStatementCache(Connection current) {
+        int size = getSharedStatementCacheSize();
+        if (size <= 0) {
+            return null;
+        }
+        if (sharedCacheConnection != current) {
+            if (sharedStatementCache != null) {
+                sharedStatementCache.close();
+            }
+            sharedStatementCache = new StatementCache(current, size, statementCacheStats);
+            sharedCacheConnection = current;
+        }
+        return sharedStatementCache;
+    }
+
+    /**
+     * Rolls back a transaction that a closed lease of the shared connection left unfinished and restores
+     * auto-commit mode. Only the lease that turned auto-commit off resets the connection, so closing another lease
+     * of the shared connection does not roll back a transaction still running on a different thread.
+     *
+     * @param lease the closed lease of the shared connection.
+     */
+    private void resetSharedConnection(ConnectionLease lease) {
+        if (!lease.hasDisabledAutoCommit()) {
+            return;
+        }
+        Connection shared = lease.getPhysical();
+        try {
+            if (!shared.isClosed() && !shared.getAutoCommit()) {
+                shared.rollback();
+                shared.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            ErrorLogger.log(manager.getPlugin(), e, "Failed to reset shared database connection");
+        }
+    }
+
+    /**
+     * Enables the local write journal that keeps mutations written through
+     * {@link AbstractTable#executeMutation(String, String, Object...)} while the database is unreachable.
+     * The journal lives in the {@code journal} folder of the plugin; segments left by a previous run are replayed.
+     * Calling this again returns the existing journal.
+     *
+     * @param syncIntervalMillis the maximum time an appended mutation stays unsynced, in milliseconds.
+     * @param replayIntervalMillis the interval between replay attempts, in milliseconds.
+     * @return the write journal.
+     * @throws IOException if the journal folder cannot be opened.
+     */
+    public synchronized WriteJournal enableWriteJournal(long syncIntervalMillis, long replayIntervalMillis) throws IOException {
+        if (writeJournal == null) {
+            writeJournal = new WriteJournal(this, new File(manager.getPlugin().getDataFolder(), "journal"),
+                    syncIntervalMillis, replayIntervalMillis);
+        }
+        return writeJournal;
+    }
+
+    /**
+     * Gets the local write journal of this manager.
+     *
+     * @return the write journal, or {@code null} if it is not enabled.
+     */
+    public WriteJournal getWriteJournal() {
+        return writeJournal;
+    }
+
+    /**
+     * Gets the hit, miss and eviction counters of the prepared statement caches of this manager.
+     * Statements are cached per pooled or persistent connection; plain connections do not cache statements.
+     *
+     * @return the statement cache statistics.
+     */
+    public StatementCacheStats getStatementCacheStats() {
+        return statementCacheStats;
+    }
+
+    /**
+     * Gets the latency histograms, row and error counts and the slow query log of this manager.
+     *
+     * @return the query metrics.
+     */
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Gets the policy used to retry transactions and queries that fail with a transient error.
+     *
+     * @return the retry policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy used to retry transactions and queries that fail with a transient error.
+     * Retries block the calling thread for the backoff delay, so policies with long delays are best
+     * combined with the asynchronous methods.
+     *
+     * @param retryPolicy the retry policy, or {@link RetryPolicy#none()} to disable retries.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the counters of retried, recovered and failed operations of this manager.
+     *
+     * @return the retry statistics.
+     */
+    public RetryStats getRetryStats() {
+        return retryStats;
+    }
+
+    /**
+     * Gets the scheduler that times background database work such as pool housekeeping.
+     * The scheduler uses a single daemon thread and is created on first use. It is meant for timing only:
+     * blocking work should be handed to {@link #getBackgroundExecutor()}, as {@link #scheduleBackground} does,
+     * so one stalled task cannot delay the others.
+     *
+     * @return the background scheduler.
+     */
+    public synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null || scheduler.isShutdown()) {
+            String threadName = manager.getPlugin().getName() + "-database";
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Gets the executor that runs blocking background work triggered by the scheduler, such as flushes,
+     * journal replay and checkpoints. Every task gets its own virtual thread. The executor is created on first use.
+     *
+     * @return the background executor.
+     */
+    public synchronized ExecutorService getBackgroundExecutor() {
+        if (backgroundExecutor == null || backgroundExecutor.isShutdown()) {
+            backgroundExecutor = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name(manager.getPlugin().getName() + "-database-background-", 0).factory());
+        }
+        return backgroundExecutor;
+    }
+
+    /**
+     * Runs the given work periodically on the background executor, timed by the scheduler.
+     * A run is skipped while the previous one is still working.
+     *
+     * @param work the blocking work; it must report its own failures.
+     * @param initialDelayMillis the delay before the first run in milliseconds.
+     * @param delayMillis the delay between runs in milliseconds.
+     * @return the future cancelling further runs.
+     */
+    ScheduledFuture<?> scheduleBackground(Runnable work, long initialDelayMillis, long delayMillis) {
+        return BackgroundTask.scheduleWithFixedDelay(getScheduler(), getBackgroundExecutor(), work,
+                initialDelayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shuts the database manager down. Waits for running asynchronous operations, closes the connection
+     * and stops all background tasks.
+     * Should be called when the plugin is disabled.
+     */
+    public void shutdown() {
+        ConnectionHealthMonitor monitor;
+        synchronized (this) {
+            monitor = healthMonitor;
+            healthMonitor = null;
+        }
+        if (monitor != null) {
+            monitor.stop();
+        }
+        ExecutorService async;
+        synchronized (this) {
+            async = asyncExecutor;
+            asyncExecutor = null;
+        }
+        if (async != null) {
+            async.shutdown();
+            try {
+                async.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeConnection();
+        synchronized (this) {
+            if (writeJournal != null) {
+                writeJournal.close();
+                writeJournal = null;
+            }
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+        ExecutorService background;
+        synchronized (this) {
+            background = backgroundExecutor;
+            backgroundExecutor = null;
+        }
+        if (background != null) {
+            background.shutdown();
+            try {
+                background.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Initializes all tables registered with the table registrar.
+     * Tables with schema migrations get their pending migration steps applied; all other tables are initialized
+     * through {@link AbstractTable#initialize()}.
      */
     public void initializeTables() {
         tableRegistrar.registerAllTables(this);
-        tables.values().forEach(AbstractTable::initialize);
+        SchemaMigrations migrations = new SchemaMigrations();
+        tableRegistrar.registerMigrations(migrations);
+        if (!migrations.isEmpty()) {
+            try {
+                migrations.migrate(this, tables);
+            } catch (SQLException e) {
+                ErrorLogger.log(manager.getPlugin(), e, "Failed to read schema versions");
+            }
+        }
+        tables.forEach((clazz, table) -> {
+            if (!migrations.hasMigrations(clazz)) {
+                table.initialize();
+            }
+        });
+    }
+
+    /**
+     * Counts the operations running on one connection set.
+     */
+    private static final class InFlight {
+        private final AtomicInteger count = new AtomicInteger();
+
+        private void enter() {
+            count.incrementAndGet();
+        }
+
+        private void leave() {
+            if (count.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Waits until no operation is running.
+         *
+         * @param timeoutMillis the maximum time to wait, in milliseconds.
+         * @return {@code true} if all operations finished in time.
+         * @throws InterruptedException if the thread is interrupted while waiting.
+         */
+        private synchronized boolean await(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (count.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
     }
 }
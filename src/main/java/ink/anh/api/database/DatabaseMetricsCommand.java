@@ -0,0 +1,115 @@
+package ink.anh.api.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+
+/**
+ * Command that shows the {@link QueryMetrics} of a {@link DatabaseManager} in game or on the console.
+ * Plugins register it for a command of their own, for example in {@code onEnable}:
+ * {@code getCommand("dbstats").setExecutor(new DatabaseMetricsCommand(dbManager))}.
+ * <p>
+ * Subcommands: {@code stats [table]}, {@code jdbc}, {@code slow}, {@code dump}, {@code reset}, and {@code enable}
+ * and {@code disable} to turn statement recording on and off. Transactions, queries and slow operations are
+ * always recorded; statement recording, which adds the per-statement counters and the SQL text of slow
+ * statements, is off by default.
+ */
+public class DatabaseMetricsCommand implements CommandExecutor, TabCompleter {
+
+    private static final List<String> SUBCOMMANDS = Arrays.asList("stats", "jdbc", "slow", "dump", "reset",
+            "enable", "disable");
+
+    private final DatabaseManager dbManager;
+
+    /**
+     * Constructs an instance of {@code DatabaseMetricsCommand}.
+     *
+     * @param dbManager the database manager whose metrics are shown.
+     */
+    public DatabaseMetricsCommand(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        QueryMetrics metrics = dbManager.getQueryMetrics();
+        String subcommand = args.length == 0 ? "stats" : args[0].toLowerCase(Locale.ROOT);
+        switch (subcommand) {
+            case "stats":
+                List<String> lines = metrics.formatReport(args.length > 1 ? args[1] : null);
+                sendLines(sender, lines.isEmpty() ? Collections.singletonList("No database operations recorded") : lines);
+                return true;
+            case "jdbc":
+                List<String> jdbc = metrics.formatJdbcReport();
+                sendLines(sender, jdbc.isEmpty() ? Collections.singletonList("No JDBC metrics recorded") : jdbc);
+                return true;
+            case "slow":
+                List<String> slow = metrics.formatSlowQueries();
+                sendLines(sender, slow.isEmpty() ? Collections.singletonList("No slow queries above "
+                        + metrics.getSlowQueryThresholdMillis() + " ms") : slow);
+                return true;
+            case "dump":
+                try {
+                    File file = metrics.dump();
+                    sender.sendMessage("Database metrics written to " + file.getPath());
+                } catch (IOException e) {
+                    ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to write database metrics");
+                    sender.sendMessage("Failed to write database metrics: " + e.getMessage());
+                }
+                return true;
+            case "reset":
+                metrics.reset();
+                sender.sendMessage("Database metrics reset");
+                return true;
+            case "enable":
+            case "disable":
+                metrics.setEnabled(subcommand.equals("enable"));
+                sender.sendMessage("Database statement metrics " + subcommand + "d");
+                return true;
+            default:
+                sender.sendMessage("Usage: /" + label + " <stats [table]|jdbc|slow|dump|reset|enable|disable>");
+                return true;
+        }
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> completions = new ArrayList<>();
+        if (args.length == 1) {
+            for (String subcommand : SUBCOMMANDS) {
+                if (subcommand.startsWith(args[0].toLowerCase(Locale.ROOT))) {
+                    completions.add(subcommand);
+                }
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("stats")) {
+            for (OperationStats stats : dbManager.getQueryMetrics().getAllStats()) {
+                String table = stats.getTableName();
+                if (table.startsWith(args[1]) && !completions.contains(table)) {
+                    completions.add(table);
+                }
+            }
+        }
+        return completions;
+    }
+
+    /**
+     * Sends the lines to the sender one message per line.
+     *
+     * @param sender the receiver.
+     * @param lines the lines to send.
+     */
+    private static void sendLines(CommandSender sender, List<String> lines) {
+        for (String line : lines) {
+            sender.sendMessage(line);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package ink.anh.api.database;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import ink.anh.api.database.AbstractTable.SQLFunction;
+
+/**
+ * Read-through and write-through cache in front of an {@link AbstractTable}.
+ * Lookups through {@link #get(Object)} are served from memory and fall back to the loader on a miss.
+ * Writes through {@link #insert(Object)}, {@link #update(Object)} and {@link #delete(Object)} go to the table
+ * first and then refresh or invalidate the cached entry; a write that fails drops the cached entry and is not
+ * published. Entities written while a load of the same key is running are not overwritten by the loaded row.
+ * Loads and writes run with the entity key as shard key, so they reach the shard holding the row of a table split
+ * by key. The cache is bounded by size with LRU or LFU eviction,
+ * and entries optionally expire after a fixed time to live.
+ * When the database manager has a {@link ChangeLog}, writes through the cache are published to other servers,
+ * and a cache registered with {@link ChangeLog#register(EntityCache, Function)} drops entries changed elsewhere.
+ *
+ * @param <K> the type of the entity key.
+ * @param <T> the type of the cached entity.
+ */
+public class EntityCache<K, T> {
+
+    /**
+     * Strategy used to choose which entry leaves a full cache.
+     */
+    public enum EvictionPolicy {
+        /**
+         * Evicts the least recently used entry.
+         */
+        LRU,
+        /**
+         * Evicts the least frequently used entry; ties are broken by age.
+         */
+        LFU
+    }
+
+    private final AbstractTable<T> table;
+    private final Function<T, K> keyExtractor;
+    private final SQLFunction<K, T> loader;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final EntryStore<K, T> store;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    /** Token of the running load of each key; a write or invalidation of the key removes it to cancel the load. */
+    private final Map<K, Object> loading = new HashMap<>();
+
+    /**
+     * Constructs an instance of {@code EntityCache} bound to the specified table.
+     *
+     * @param table the table that stores the entities.
+     * @param keyExtractor returns the key of an entity.
+     * @param loader loads an entity by key from the database, returning {@code null} if it does not exist.
+     * @param maxSize the maximum number of cached entities.
+     * @param policy the eviction policy applied when the cache is full.
+     * @param ttlMillis the time an entity stays cached after it was loaded or written, or 0 for no expiry.
+     */
+    public EntityCache(AbstractTable<T> table, Function<T, K> keyExtractor, SQLFunction<K, T> loader,
+            int maxSize, EvictionPolicy policy, long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.table = table;
+        this.keyExtractor = keyExtractor;
+        this.loader = loader;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.store = policy == EvictionPolicy.LFU ? new LfuStore<>() : new LruStore<>();
+    }
+
+    /**
+     * Gets the entity with the specified key, loading it from the database on a cache miss.
+     * Load failures are logged and reported as a missing entity.
+     *
+     * @param key the key of the entity.
+     * @return the entity, or {@code null} if it does not exist or could not be loaded.
+     */
+    public T get(K key) {
+        T cached = getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        Object token = new Object();
+        synchronized (this) {
+            loading.put(key, token);
+        }
+        T loaded;
+        try {
+            loaded = table.dbManager.withShardKey(key, () -> loader.apply(key));
+        } catch (SQLException e) {
+            synchronized (this) {
+                loading.remove(key, token);
+            }
+            ErrorLogger.log(table.dbManager.getManager().getPlugin(), e, "Failed to load entity " + key + " from table " + table.dbName);
+            return null;
+        }
+        loads.incrementAndGet();
+        synchronized (this) {
+            if (loading.remove(key, token) && loaded != null) {
+                putEntry(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Gets the entity with the specified key if it is cached, without touching the database.
+     *
+     * @param key the key of the entity.
+     * @return the cached entity, or {@code null} if it is not cached or has expired.
+     */
+    public synchronized T getIfPresent(K key) {
+        Entry<T> entry = store.get(key);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            store.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Inserts the entity into the table and caches it.
+     *
+     * @param entity the entity to be inserted.
+     */
+    public void insert(T entity) {
+        K key = keyExtractor.apply(entity);
+        if (!table.tryWrite(key, () -> table.insert(entity))) {
+            invalidate(key);
+            return;
+        }
+        put(entity);
+        table.publishChange(key);
+    }
+
+    /**
+     * Updates the entity in the table and replaces the cached copy.
+     *
+     * @param entity the entity to be updated.
+     */
+    public void update(T entity) {
+        K key = keyExtractor.apply(entity);
+        if (!table.tryWrite(key, () -> table.update(entity))) {
+            invalidate(key);
+            return;
+        }
+        put(entity);
+        table.publishChange(key);
+    }
+
+    /**
+     * Updates a single field in the table and invalidates the cached entity of that key.
+     *
+     * @param tableField the field to be updated.
+     */
+    public void updateField(TableField<K> tableField) {
+        boolean written = table.tryWrite(tableField.getKey(), () -> table.updateField(tableField));
+        invalidate(tableField.getKey());
+        if (written) {
+            table.publishChange(tableField.getKey());
+        }
+    }
+
+    /**
+     * Deletes the entity from the table and removes it from the cache.
+     *
+     * @param entity the entity to be deleted.
+     */
+    public void delete(T entity) {
+        K key = keyExtractor.apply(entity);
+        boolean written = table.tryWrite(key, () -> table.delete(entity));
+        invalidate(key);
+        if (written) {
+            table.publishChange(key);
+        }
+    }
+
+    /**
+     * Caches the entity without writing it to the table. A load of the same key that started earlier does not
+     * replace it.
+     *
+     * @param entity the entity to be cached.
+     */
+    public synchronized void put(T entity) {
+        K key = keyExtractor.apply(entity);
+        loading.remove(key);
+        putEntry(key, entity);
+    }
+
+    /**
+     * Removes the entity with the specified key from the cache. A running load of the key does not cache its row.
+     *
+     * @param key the key of the entity.
+     */
+    public synchronized void invalidate(K key) {
+        loading.remove(key);
+        store.remove(key);
+    }
+
+    /**
+     * Removes all entities from the cache. Running loads do not cache their rows.
+     */
+    public synchronized void invalidateAll() {
+        loading.clear();
+        store.clear();
+    }
+
+    /**
+     * Gets the table this cache is bound to.
+     *
+     * @return the table.
+     */
+    public AbstractTable<T> getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the number of cached entities, including expired entities not yet removed.
+     *
+     * @return the cache size.
+     */
+    public synchronized int size() {
+        return store.size();
+    }
+
+    /**
+     * Gets the number of lookups served from the cache.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that did not find a cached entity.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of entities loaded from the database.
+     *
+     * @return the load count.
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * Gets the number of entities removed to keep the cache within its maximum size.
+     *
+     * @return the eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the share of lookups served from the cache.
+     *
+     * @return the hit ratio between 0 and 1, or 0 if there were no lookups.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    /**
+     * Stores an entry, first evicting entries if a new key would exceed the maximum size. Must hold the cache lock.
+     *
+     * @param key the key of the entity.
+     * @param value the entity.
+     */
+    private void putEntry(K key, T value) {
+        long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        if (!store.containsKey(key)) {
+            while (store.size() >= maxSize) {
+                store.evict();
+                evictions.incrementAndGet();
+            }
+        }
+        store.put(key, new Entry<>(value, expiresAt));
+    }
+
+    /**
+     * A cached entity with its expiry time.
+     *
+     * @param <T> the type of the entity.
+     */
+    private static final class Entry<T> {
+        private final T value;
+        private final long expiresAt;
+
+        private Entry(T value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * Storage with an eviction order. Accessed only while holding the cache lock.
+     *
+     * @param <K> the type of the key.
+     * @param <T> the type of the entity.
+     */
+    private interface EntryStore<K, T> {
+        Entry<T> get(K key);
+
+        boolean containsKey(K key);
+
+        void put(K key, Entry<T> entry);
+
+        void remove(K key);
+
+        void evict();
+
+        int size();
+
+        void clear();
+    }
+
+    /**
+     * Least recently used order backed by an access-ordered {@link LinkedHashMap}.
+     */
+    private static final class LruStore<K, T> implements EntryStore<K, T> {
+        private final LinkedHashMap<K, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        @Override
+        public Entry<T> get(K key) {
+            return entries.get(key);
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public void put(K key, Entry<T> entry) {
+            entries.put(key, entry);
+        }
+
+        @Override
+        public void remove(K key) {
+            entries.remove(key);
+        }
+
+        @Override
+        public void evict() {
+            Iterator<K> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Least frequently used order with constant-time operations: keys are kept in buckets per access count,
+     * and each bucket preserves insertion order so ties evict the oldest key.
+     */
+    private static final class LfuStore<K, T> implements EntryStore<K, T> {
+        private final Map<K, Entry<T>> entries = new HashMap<>();
+        private final Map<K, Integer> frequencies = new HashMap<>();
+        private final Map<Integer, LinkedHashSet<K>> buckets = new HashMap<>();
+        private int minFrequency;
+
+        @Override
+        public Entry<T> get(K key) {
+            Entry<T> entry = entries.get(key);
+            if (entry != null) {
+                touch(key);
+            }
+            return entry;
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public void put(K key, Entry<T> entry) {
+            if (entries.put(key, entry) != null) {
+                touch(key);
+                return;
+            }
+            frequencies.put(key, 1);
+            buckets.computeIfAbsent(1, f -> new LinkedHashSet<>()).add(key);
+            minFrequency = 1;
+        }
+
+        @Override
+        public void remove(K key) {
+            if (entries.remove(key) == null) {
+                return;
+            }
+            int frequency = frequencies.remove(key);
+            LinkedHashSet<K> bucket = buckets.get(frequency);
+            bucket.remove(key);
+            if (bucket.isEmpty()) {
+                buckets.remove(frequency);
+            }
+        }
+
+        @Override
+        public void evict() {
+            LinkedHashSet<K> bucket = buckets.get(minFrequency);
+            if (bucket == null) {
+                minFrequency = buckets.keySet().stream().min(Integer::compare).orElse(0);
+                bucket = buckets.get(minFrequency);
+            }
+            remove(bucket.iterator().next());
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+            frequencies.clear();
+            buckets.clear();
+            minFrequency = 0;
+        }
+
+        private void touch(K key) {
+            int frequency = frequencies.get(key);
+            LinkedHashSet<K> bucket = buckets.get(frequency);
+            bucket.remove(key);
+            if (bucket.isEmpty()) {
+                buckets.remove(frequency);
+                if (minFrequency == frequency) {
+                    minFrequency = frequency + 1;
+                }
+            }
+            frequencies.put(key, frequency + 1);
+            buckets.computeIfAbsent(frequency + 1, f -> new LinkedHashSet<>()).add(key);
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package ink.anh.api.database;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Maps rows to entities and entities to statement parameters without per-row reflection.
+ * The mapping of an entity type is built once, using {@link MethodHandle}s for the constructor, the field
+ * accessors and a typed column reader per column, and is then cached for the type.
+ * <p>
+ * Records are mapped through their canonical constructor, one column per component. Other classes need a
+ * no-argument constructor and are mapped field by field: the fields annotated with {@link Column}, or every
+ * non-static, non-transient field if none is annotated. Column names default to the field names.
+ * {@code String[]} columns use the comma-joined format of {@link AbstractTable#joinOrReturnNull(String[])};
+ * UUIDs and enums are stored as strings. Columns marked with {@link Column#binary()} use the {@link ColumnCodec}
+ * of their type instead.
+ *
+ * @param <T> the type of the entity.
+ */
+public final class EntityMapper<T> {
+
+    private static final ClassValue<EntityMapper<?>> MAPPERS = new ClassValue<>() {
+        @Override
+        protected EntityMapper<?> computeValue(Class<?> type) {
+            return new EntityMapper<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final MapperColumn[] columns;
+    private final String[] columnNames;
+    private final String[] keyColumns;
+    private final MethodHandle constructor;
+    private final boolean record;
+
+    /**
+     * Gets the mapper of an entity type, building it on first use.
+     *
+     * @param <T> the type of the entity.
+     * @param type the entity class.
+     * @return the mapper of the type.
+     * @throws IllegalArgumentException if the type cannot be mapped.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMapper<T> of(Class<T> type) {
+        return (EntityMapper<T>) MAPPERS.get(type);
+    }
+
+    /**
+     * Builds the mapping of an entity type.
+     *
+     * @param type the entity class.
+     */
+    private EntityMapper(Class<T> type) {
+        this.type = type;
+        this.record = type.isRecord();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            List<MapperColumn> mapped = new ArrayList<>();
+            if (record) {
+                RecordComponent[] components = type.getRecordComponents();
+                Class<?>[] parameterTypes = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    RecordComponent component = components[i];
+                    parameterTypes[i] = component.getType();
+                    Column column = component.getAnnotation(Column.class);
+                    mapped.add(new MapperColumn(columnName(column, component.getName()), column,
+                            component.getType(), lookup.unreflect(component.getAccessor()), null));
+                }
+                Constructor<T> canonical = type.getDeclaredConstructor(parameterTypes);
+                this.constructor = lookup.unreflectConstructor(canonical)
+                        .asSpreader(Object[].class, components.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } else {
+                for (Field field : mappedFields(type)) {
+                    Column column = field.getAnnotation(Column.class);
+                    mapped.add(new MapperColumn(columnName(column, field.getName()), column,
+                            field.getType(), lookup.unreflectGetter(field), lookup.unreflectSetter(field)));
+                }
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+            }
+            if (mapped.isEmpty()) {
+                throw new IllegalArgumentException(type.getName() + " has no mapped columns");
+            }
+            this.columns = mapped.toArray(new MapperColumn[0]);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot map " + type.getName(), e);
+        }
+        this.columnNames = Arrays.stream(columns).map(c -> c.name).toArray(String[]::new);
+        this.keyColumns = Arrays.stream(columns).filter(c -> c.key).map(c -> c.name).toArray(String[]::new);
+    }
+
+    /**
+     * Gets the entity type of this mapper.
+     *
+     * @return the entity class.
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Gets the mapped columns in parameter order.
+     *
+     * @return a copy of the column names.
+     */
+    public String[] getColumns() {
+        return columnNames.clone();
+    }
+
+    /**
+     * Gets the columns marked with {@link Column#key()}.
+     *
+     * @return a copy of the key column names.
+     */
+    public String[] getKeyColumns() {
+        return keyColumns.clone();
+    }
+
+    /**
+     * Gets a new row mapper for this entity type. Column positions are looked up by name once per result set
+     * the mapper reads, so the order of the selected columns does not matter. Get a row mapper per query:
+     * a shared one stays correct but looks the positions up again whenever the result set changes.
+     *
+     * @return the row mapper.
+     */
+    public RowMapper<T> rowMapper() {
+        return new PositionCachingRowMapper();
+    }
+
+    /**
+     * Maps the current row of a result set to a new entity. Column positions are looked up on every call;
+     * use {@link #rowMapper()} to map many rows.
+     *
+     * @param rs the result set positioned on the row.
+     * @return the entity.
+     * @throws SQLException if a column cannot be read or is missing from the result set.
+     */
+    public T map(ResultSet rs) throws SQLException {
+        return map(rs, indexesFor(rs));
+    }
+
+    /**
+     * Maps the current row of a result set to a new entity, reading the columns at resolved positions.
+     *
+     * @param rs the result set positioned on the row.
+     * @param indexes the column index of every mapped column.
+     * @return the entity.
+     * @throws SQLException if a column cannot be read.
+     */
+    private T map(ResultSet rs, int[] indexes) throws SQLException {
+        try {
+            if (record) {
+                Object[] args = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    args[i] = columns[i].read(rs, indexes[i]);
+                }
+                return type.cast(constructor.invokeExact(args));
+            }
+            Object entity = constructor.invokeExact();
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].setter.invokeExact(entity, columns[i].read(rs, indexes[i]));
+            }
+            return type.cast(entity);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SQLException("Failed to create " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Gets the values of all mapped columns of an entity, in the order of {@link #getColumns()}.
+     *
+     * @param entity the entity.
+     * @return the column values, ready for {@link AbstractTable#setParameter(PreparedStatement, int, Object)}.
+     */
+    public Object[] values(T entity) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].get(entity);
+        }
+        return values;
+    }
+
+    /**
+     * Builds {@code INSERT INTO table (columns) VALUES (?, ...)}, bound by {@link #bindInsert(PreparedStatement, Object)}.
+     *
+     * @param tableName the name of the table.
+     * @return the SQL statement.
+     */
+    public String insertSql(String tableName) {
+        String[] placeholders = new String[columns.length];
+        Arrays.fill(placeholders, "?");
+        return "INSERT INTO " + tableName + " (" + String.join(", ", columnNames) + ") VALUES ("
+                + String.join(", ", placeholders) + ")";
+    }
+
+    /**
+     * Builds {@code UPDATE table SET columns = ? WHERE keys = ?}, bound by {@link #bindUpdate(PreparedStatement, Object)}.
+     *
+     * @param tableName the name of the table.
+     * @return the SQL statement.
+     * @throws IllegalStateException if no column is marked as a key.
+     */
+    public String updateSql(String tableName) {
+        requireKey();
+        List<String> assignments = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        for (MapperColumn column : columns) {
+            (column.key ? conditions : assignments).add(column.name + " = ?");
+        }
+        return "UPDATE " + tableName + " SET " + String.join(", ", assignments) + " WHERE " + String.join(" AND ", conditions);
+    }
+
+    /**
+     * Sets the parameters of the statement built by {@link #insertSql(String)}.
+     *
+     * @param ps the statement.
+     * @param entity the entity to insert.
+     * @throws SQLException if a parameter cannot be set.
+     */
+    public void bindInsert(PreparedStatement ps, T entity) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            AbstractTable.setParameter(ps, i + 1, columns[i].get(entity));
+        }
+    }
+
+    /**
+     * Sets the parameters of the statement built by {@link #updateSql(String)}: the non-key columns, then the keys.
+     *
+     * @param ps the statement.
+     * @param entity the entity to update.
+     * @throws SQLException if a parameter cannot be set.
+     */
+    public void bindUpdate(PreparedStatement ps, T entity) throws SQLException {
+        requireKey();
+        int index = 1;
+        for (MapperColumn column : columns) {
+            if (!column.key) {
+                AbstractTable.setParameter(ps, index++, column.get(entity));
+            }
+        }
+        for (MapperColumn column : columns) {
+            if (column.key) {
+                AbstractTable.setParameter(ps, index++, column.get(entity));
+            }
+        }
+    }
+
+    /**
+     * Resolves the positions of the mapped columns in a result set.
+     *
+     * @param rs the result set.
+     * @return the column index of every mapped column.
+     * @throws SQLException if a mapped column is missing.
+     */
+    private int[] indexesFor(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        Map<String, Integer> byLabel = new HashMap<>();
+        for (int i = metaData.getColumnCount(); i >= 1; i--) {
+            byLabel.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Integer index = byLabel.get(columns[i].name.toLowerCase(Locale.ROOT));
+            if (index == null) {
+                throw new SQLException("Column " + columns[i].name + " of " + type.getName() + " is not in the result set");
+            }
+            indexes[i] = index;
+        }
+        return indexes;
+    }
+
+    /**
+     * Fails if the entity type has no key column.
+     */
+    private void requireKey() {
+        if (keyColumns.length == 0) {
+            throw new IllegalStateException(type.getName() + " has no column marked with @Column(key = true)");
+        }
+    }
+
+    /**
+     * Selects the mapped fields of a class: the annotated ones, or all instance fields if none is annotated.
+     *
+     * @param type the entity class.
+     * @return the mapped fields in declaration order.
+     */
+    private static List<Field> mappedFields(Class<?> type) {
+        List<Field> annotated = new ArrayList<>();
+        List<Field> all = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                continue;
+            }
+            if (Modifier.isFinal(modifiers)) {
+                if (field.isAnnotationPresent(Column.class)) {
+                    throw new IllegalArgumentException("Mapped field " + field.getName() + " of " + type.getName() + " is final");
+                }
+                continue;
+            }
+            all.add(field);
+            if (field.isAnnotationPresent(Column.class)) {
+                annotated.add(field);
+            }
+        }
+        return annotated.isEmpty() ? all : annotated;
+    }
+
+    /**
+     * Gets the column name of a field or record component.
+     *
+     * @param column the annotation of the member, or {@code null}.
+     * @param defaultName the member name.
+     * @return the column name.
+     */
+    private static String columnName(Column column, String defaultName) {
+        return column == null || column.value().isEmpty() ? defaultName : column.value();
+    }
+
+    /**
+     * Row mapper reusing the column positions resolved for the result set it last read.
+     * The result set is only weakly referenced, so a mapper kept in a field does not retain it.
+     */
+    private final class PositionCachingRowMapper implements RowMapper<T> {
+        private volatile ResolvedColumns last;
+
+        @Override
+        public T map(ResultSet rs) throws SQLException {
+            ResolvedColumns current = last;
+            if (current == null || current.resultSet.get() != rs) {
+                current = new ResolvedColumns(rs, indexesFor(rs));
+                last = current;
+            }
+            return EntityMapper.this.map(rs, current.indexes);
+        }
+    }
+
+    /**
+     * Column positions resolved for one result set.
+     */
+    private static final class ResolvedColumns {
+        private final WeakReference<ResultSet> resultSet;
+        private final int[] indexes;
+
+        private ResolvedColumns(ResultSet resultSet, int[] indexes) {
+            this.resultSet = new WeakReference<>(resultSet);
+            this.indexes = indexes;
+        }
+    }
+
+    /**
+     * One mapped column with its accessors and typed reader.
+     */
+    private static final class MapperColumn {
+        private final String name;
+        private final boolean key;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final ColumnReader reader;
+        private final ColumnCodec<Object> codec;
+
+        @SuppressWarnings("unchecked")
+        private MapperColumn(String name, Column column, Class<?> fieldType, MethodHandle getter, MethodHandle setter) {
+            this.name = name;
+            this.key = column != null && column.key();
+            this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = setter == null ? null : setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            if (column != null && column.binary()) {
+                this.codec = (ColumnCodec<Object>) ColumnCodecs.forType(fieldType);
+                if (codec == null) {
+                    throw new IllegalArgumentException("No binary codec for column " + name + " of type " + fieldType.getName());
+                }
+                this.reader = codec::read;
+            } else {
+                this.codec = null;
+                this.reader = readerFor(fieldType);
+            }
+        }
+
+        /**
+         * Reads the column from the current row.
+         */
+        private Object read(ResultSet rs, int index) throws SQLException {
+            return reader.read(rs, index);
+        }
+
+        /**
+         * Gets the column value of an entity as a statement parameter.
+         */
+        private Object get(Object entity) {
+            Object value;
+            try {
+                value = getter.invokeExact(entity);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to read column " + name, e);
+            }
+            if (value == null) {
+                return null;
+            }
+            if (codec != null) {
+                return codec.encode(value);
+            }
+            return value instanceof String[] ? AbstractTable.joinOrReturnNull((String[]) value) : value;
+        }
+    }
+
+    /**
+     * Reads one column value as the type of the mapped field.
+     */
+    @FunctionalInterface
+    private interface ColumnReader {
+        Object read(ResultSet rs, int index) throws SQLException;
+    }
+
+    /**
+     * Chooses the column reader for a field type once, so rows are read without type checks.
+     *
+     * @param fieldType the type of the mapped field.
+     * @return the column reader.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static ColumnReader readerFor(Class<?> fieldType) {
+        if (fieldType == int.class) {
+            return ResultSet::getInt;
+        }
+        if (fieldType == long.class) {
+            return ResultSet::getLong;
+        }
+        if (fieldType == double.class) {
+            return ResultSet::getDouble;
+        }
+        if (fieldType == float.class) {
+            return ResultSet::getFloat;
+        }
+        if (fieldType == boolean.class) {
+            return ResultSet::getBoolean;
+        }
+        if (fieldType == short.class) {
+            return ResultSet::getShort;
+        }
+        if (fieldType == byte.class) {
+            return ResultSet::getByte;
+        }
+        if (fieldType == String.class) {
+            return ResultSet::getString;
+        }
+        if (fieldType == Integer.class) {
+            return (rs, i) -> nullable(rs, rs.getInt(i));
+        }
+        if (fieldType == Long.class) {
+            return (rs, i) -> nullable(rs, rs.getLong(i));
+        }
+        if (fieldType == Double.class) {
+            return (rs, i) -> nullable(rs, rs.getDouble(i));
+        }
+        if (fieldType == Float.class) {
+            return (rs, i) -> nullable(rs, rs.getFloat(i));
+        }
+        if (fieldType == Boolean.class) {
+            return (rs, i) -> nullable(rs, rs.getBoolean(i));
+        }
+        if (fieldType == UUID.class) {
+            return (rs, i) -> {
+                String value = rs.getString(i);
+                return value == null ? null : UUID.fromString(value);
+            };
+        }
+        if (fieldType.isEnum()) {
+            Class<? extends Enum> enumType = (Class<? extends Enum>) fieldType;
+            return (rs, i) -> {
+                String value = rs.getString(i);
+                return value == null ? null : Enum.valueOf(enumType, value);
+            };
+        }
+        if (fieldType == String[].class) {
+            return (rs, i) -> AbstractTable.splitStringAndNullify(rs.getString(i), ",");
+        }
+        if (fieldType == byte[].class) {
+            return ResultSet::getBytes;
+        }
+        if (fieldType == BigDecimal.class) {
+            return ResultSet::getBigDecimal;
+        }
+        if (fieldType == Timestamp.class) {
+            return ResultSet::getTimestamp;
+        }
+        return (rs, i) -> rs.getObject(i, fieldType);
+    }
+
+    /**
+     * Replaces the value read from a primitive column getter with {@code null} if the column was SQL NULL.
+     *
+     * @param rs the result set the value was read from.
+     * @param value the value read.
+     * @return the value, or {@code null} if the column was NULL.
+     */
+    private static Object nullable(ResultSet rs, Object value) throws SQLException {
+        return rs.wasNull() ? null : value;
+    }
+}
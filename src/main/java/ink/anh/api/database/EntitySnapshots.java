@@ -0,0 +1,272 @@
+package ink.anh.api.database;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last persisted state of entities, used to write only the columns that changed.
+ * A snapshot holds the column values of an entity as produced by its {@link EntityMapper}, keyed by the values
+ * of the key columns. {@link AbstractTable#updateChanged(Object, EntitySnapshots)} compares the entity with its
+ * snapshot and writes an {@code UPDATE} of the changed columns only, or nothing if no column changed.
+ * <p>
+ * Entities are remembered when they are loaded through {@link #rowMapper()} or passed to {@link #remember(Object)}
+ * after an insert, and should be forgotten when they are unloaded or deleted. Values are compared in their
+ * stored form, so {@code String[]} and binary columns are compared by content; other mutable values, such as
+ * dates, must be replaced rather than modified in place to be detected.
+ *
+ * @param <T> the type of the entity.
+ */
+public final class EntitySnapshots<T> {
+
+    private final EntityMapper<T> mapper;
+    private final String[] columns;
+    private final int[] keyIndexes;
+    private final Map<List<Object>, Object[]> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an instance of {@code EntitySnapshots}.
+     *
+     * @param mapper the mapper of the entity type, which must have at least one key column.
+     * @throws IllegalArgumentException if the mapper has no key column.
+     */
+    public EntitySnapshots(EntityMapper<T> mapper) {
+        this.mapper = mapper;
+        this.columns = mapper.getColumns();
+        String[] keyColumns = mapper.getKeyColumns();
+        if (keyColumns.length == 0) {
+            throw new IllegalArgumentException(mapper.getType().getName() + " has no column marked with @Column(key = true)");
+        }
+        List<String> columnList = Arrays.asList(columns);
+        this.keyIndexes = new int[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+            keyIndexes[i] = columnList.indexOf(keyColumns[i]);
+        }
+    }
+
+    /**
+     * Gets the mapper of the entity type.
+     *
+     * @return the entity mapper.
+     */
+    public EntityMapper<T> getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Gets a row mapper that maps rows with the entity mapper and remembers every loaded entity.
+     *
+     * @return the row mapper.
+     */
+    public RowMapper<T> rowMapper() {
+        RowMapper<T> rows = mapper.rowMapper();
+        return rs -> {
+            T entity = rows.map(rs);
+            remember(entity);
+            return entity;
+        };
+    }
+
+    /**
+     * Records the current state of the entity as persisted, for example after it was inserted.
+     *
+     * @param entity the entity.
+     */
+    public void remember(T entity) {
+        Object[] values = mapper.values(entity);
+        snapshots.put(keyOf(values), values);
+    }
+
+    /**
+     * Drops the snapshot of the entity, so its next update writes every column.
+     *
+     * @param entity the entity.
+     */
+    public void forget(T entity) {
+        snapshots.remove(keyOf(mapper.values(entity)));
+    }
+
+    /**
+     * Drops all snapshots.
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    /**
+     * Checks whether a snapshot of the entity exists.
+     *
+     * @param entity the entity.
+     * @return {@code true} if the entity has a snapshot.
+     */
+    public boolean isTracked(T entity) {
+        return snapshots.containsKey(keyOf(mapper.values(entity)));
+    }
+
+    /**
+     * Gets the number of snapshots held.
+     *
+     * @return the snapshot count.
+     */
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * Compares the entity with its snapshot.
+     *
+     * @param entity the entity.
+     * @return the changed columns; every non-key column if the entity has no snapshot.
+     */
+    Change diff(T entity) {
+        Object[] values = mapper.values(entity);
+        List<Object> key = keyOf(values);
+        Object[] snapshot = snapshots.get(key);
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            if (!isKey(i) && (snapshot == null || !Objects.deepEquals(values[i], snapshot[i]))) {
+                changed.add(i);
+            }
+        }
+        return new Change(key, values, changed);
+    }
+
+    /**
+     * Records the state of a written change as persisted.
+     *
+     * @param change the change that was written.
+     */
+    void commit(Change change) {
+        snapshots.put(change.key, change.values);
+    }
+
+    /**
+     * Drops the snapshot of a change that failed to be written, so the next update writes every column.
+     *
+     * @param change the change that was not written.
+     */
+    void discard(Change change) {
+        snapshots.remove(change.key);
+    }
+
+    /**
+     * Checks whether the column at the given position is a key column.
+     *
+     * @param index the column position.
+     * @return {@code true} for key columns.
+     */
+    private boolean isKey(int index) {
+        for (int keyIndex : keyIndexes) {
+            if (keyIndex == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the map key of an entity from its key column values. Binary values are wrapped so they compare by content.
+     *
+     * @param values the column values of the entity.
+     * @return the key.
+     */
+    private List<Object> keyOf(Object[] values) {
+        Object[] key = new Object[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            Object value = values[keyIndexes[i]];
+            key[i] = value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value;
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * The columns of one entity that differ from its snapshot, with the statement writing them.
+     */
+    final class Change {
+        private final List<Object> key;
+        private final Object[] values;
+        private final List<Integer> changed;
+
+        private Change(List<Object> key, Object[] values, List<Integer> changed) {
+            this.key = key;
+            this.values = values;
+            this.changed = changed;
+        }
+
+        /**
+         * Checks whether no column changed.
+         *
+         * @return {@code true} if there is nothing to write.
+         */
+        boolean isEmpty() {
+            return changed.isEmpty();
+        }
+
+        /**
+         * Gets the number of changed columns.
+         *
+         * @return the changed column count.
+         */
+        int size() {
+            return changed.size();
+        }
+
+        /**
+         * Gets the value of the first key column, used to route the write to its shard and to publish the change.
+         *
+         * @return the key value.
+         */
+        Object firstKey() {
+            return values[keyIndexes[0]];
+        }
+
+        /**
+         * Checks whether the entity has a composite key.
+         *
+         * @return {@code true} if there is more than one key column.
+         */
+        boolean isCompositeKey() {
+            return keyIndexes.length > 1;
+        }
+
+        /**
+         * Builds {@code UPDATE table SET changed = ? WHERE keys = ?}.
+         *
+         * @param tableName the name of the table.
+         * @return the SQL statement.
+         */
+        String sql(String tableName) {
+            List<String> assignments = new ArrayList<>(changed.size());
+            for (int index : changed) {
+                assignments.add(columns[index] + " = ?");
+            }
+            List<String> conditions = new ArrayList<>(keyIndexes.length);
+            for (int index : keyIndexes) {
+                conditions.add(columns[index] + " = ?");
+            }
+            return "UPDATE " + tableName + " SET " + String.join(", ", assignments) + " WHERE " + String.join(" AND ", conditions);
+        }
+
+        /**
+         * Sets the parameters of the statement built by {@link #sql(String)}: the changed columns, then the keys.
+         *
+         * @param ps the statement.
+         * @throws SQLException if a parameter cannot be set.
+         */
+        void bind(PreparedStatement ps) throws SQLException {
+            int parameter = 1;
+            for (int index : changed) {
+                AbstractTable.setParameter(ps, parameter++, values[index]);
+            }
+            for (int index : keyIndexes) {
+                AbstractTable.setParameter(ps, parameter++, values[index]);
+            }
+        }
+    }
+}
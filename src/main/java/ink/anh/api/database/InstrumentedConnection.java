@@ -0,0 +1,241 @@
+package ink.anh.api.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Connection proxy that times the statements created from it and reports them to {@link QueryMetrics}.
+ * Statements keep the SQL text they were prepared with, so slow statements can be logged without their parameters.
+ * Commits, rollbacks, batch sizes and the rows read from result sets are counted in the {@link JdbcMetrics}
+ * of the manager.
+ */
+final class InstrumentedConnection implements InvocationHandler {
+
+    private final Connection delegate;
+    private final QueryMetrics metrics;
+    private final String tableName;
+    private final JdbcMetrics jdbc;
+
+    private InstrumentedConnection(Connection delegate, QueryMetrics metrics, String tableName) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.tableName = tableName;
+        this.jdbc = metrics.getJdbcMetrics();
+    }
+
+    /**
+     * Wraps a connection. A connection that is already instrumented is wrapped again for the given table
+     * instead of twice, so its statements are recorded once.
+     *
+     * @param conn the connection to wrap.
+     * @param metrics the metrics receiving the statement timings.
+     * @param tableName the name of the table the statements run for.
+     * @return the instrumented connection.
+     */
+    static Connection wrap(Connection conn, QueryMetrics metrics, String tableName) {
+        if (Proxy.isProxyClass(conn.getClass()) && Proxy.getInvocationHandler(conn) instanceof InstrumentedConnection) {
+            conn = ((InstrumentedConnection) Proxy.getInvocationHandler(conn)).delegate;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                new InstrumentedConnection(conn, metrics, tableName));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("commit") || name.equals("rollback")) {
+            long start = System.nanoTime();
+            try {
+                return invokeDelegate(delegate, method, args);
+            } finally {
+                if (name.equals("commit")) {
+                    jdbc.recordCommit(System.nanoTime() - start);
+                } else {
+                    jdbc.recordRollback(System.nanoTime() - start);
+                }
+            }
+        }
+        Object result = invokeDelegate(delegate, method, args);
+        if (result instanceof CallableStatement) {
+            return wrapStatement(result, CallableStatement.class, (String) args[0]);
+        }
+        if (result instanceof PreparedStatement && name.equals("prepareStatement")) {
+            return wrapStatement(result, PreparedStatement.class, (String) args[0]);
+        }
+        if (result instanceof Statement && name.equals("createStatement")) {
+            return wrapStatement(result, Statement.class, null);
+        }
+        return result;
+    }
+
+    /**
+     * Wraps a statement in a timing proxy.
+     *
+     * @param statement the statement to wrap.
+     * @param type the statement interface to expose.
+     * @param sql the SQL text the statement was prepared with, or {@code null} for plain statements.
+     * @return the proxy.
+     */
+    private Object wrapStatement(Object statement, Class<?> type, String sql) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new StatementHandler((Statement) statement, sql));
+    }
+
+    /**
+     * Invokes a method on the real object, rethrowing the exception it threw.
+     *
+     * @param target the real object.
+     * @param method the invoked method.
+     * @param args the arguments.
+     * @return the result of the method.
+     * @throws Throwable the exception thrown by the method.
+     */
+    static Object invokeDelegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Counts the rows reported by an update or batch result.
+     *
+     * @param result the value returned by an execute method.
+     * @return the number of written rows, or 0 if the result carries none.
+     */
+    static long affectedRows(Object result) {
+        if (result instanceof Integer) {
+            return Math.max(0, (Integer) result);
+        }
+        if (result instanceof Long) {
+            return Math.max(0L, (Long) result);
+        }
+        long rows = 0;
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(0L, count);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Wraps a result set in a proxy counting the rows read and the time spent in {@code next()}.
+     *
+     * @param rs the result set to wrap.
+     * @return the proxy.
+     */
+    private ResultSet wrapResultSet(ResultSet rs) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                new ResultSetHandler(rs));
+    }
+
+    /**
+     * Times the execute methods of one statement.
+     */
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String preparedSql;
+        private String batchSql;
+        private int batchItems;
+
+        private StatementHandler(Statement statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("addBatch")) {
+                batchItems++;
+                if (args != null && args.length == 1 && batchSql == null) {
+                    batchSql = (String) args[0];
+                }
+            } else if (name.equals("clearBatch")) {
+                batchItems = 0;
+            }
+            if (!name.startsWith("execute")) {
+                Object result = invokeDelegate(statement, method, args);
+                return result instanceof ResultSet ? wrapResultSet((ResultSet) result) : result;
+            }
+            String sql = args != null && args.length > 0 && args[0] instanceof String
+                    ? (String) args[0] : (preparedSql != null ? preparedSql : batchSql);
+            long start = System.nanoTime();
+            boolean failed = true;
+            Object result = null;
+            try {
+                result = invokeDelegate(statement, method, args);
+                failed = false;
+                return result instanceof ResultSet ? wrapResultSet((ResultSet) result) : result;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                metrics.recordStatement(tableName, sql, nanos / 1000L,
+                        name.startsWith("executeQuery") ? 0L : affectedRows(result), failed);
+                jdbc.recordStatement(nanos, failed);
+                if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+                    jdbc.recordBatch(nanos, batchItems);
+                    batchSql = null;
+                    batchItems = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the rows read from one result set and the time spent fetching them. The totals are published
+     * once, when the rows are exhausted or the result set is closed.
+     */
+    private final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private long rows;
+        private long nanos;
+        private boolean published;
+
+        private ResultSetHandler(ResultSet resultSet) {
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                long start = System.nanoTime();
+                boolean more = (Boolean) invokeDelegate(resultSet, method, args);
+                nanos += System.nanoTime() - start;
+                if (more) {
+                    rows++;
+                } else {
+                    publish();
+                }
+                return more;
+            }
+            if (name.equals("close")) {
+                publish();
+            }
+            return invokeDelegate(resultSet, method, args);
+        }
+
+        /**
+         * Publishes the totals of this result set once.
+         */
+        private void publish() {
+            if (!published) {
+                published = true;
+                jdbc.recordResultSet(rows, nanos);
+            }
+        }
+    }
+}
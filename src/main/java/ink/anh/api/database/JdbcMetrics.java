@@ -0,0 +1,106 @@
+package ink.anh.api.database;
+
+import ink.anh.api.utils.MetricsRegistry;
+import ink.anh.api.utils.MetricsRegistry.Counter;
+import ink.anh.api.utils.MetricsRegistry.Timer;
+
+/**
+ * The JDBC-level metrics of one {@link DatabaseManager}, published in the {@link MetricsRegistry} under
+ * {@code database.<plugin>.jdbc.}. They are recorded by the {@link InstrumentedConnection} proxies and separate the
+ * time spent in the driver (statements, fetching rows, commits) from the time spent in plugin code around it.
+ */
+final class JdbcMetrics {
+
+    private final String prefix;
+    private final Timer statements;
+    private final Counter statementErrors;
+    private final Timer batches;
+    private final Counter batchItems;
+    private final Counter resultSets;
+    private final Counter rowsFetched;
+    private final Timer fetches;
+    private final Timer commits;
+    private final Timer rollbacks;
+
+    /**
+     * Creates the metrics of one manager in the given registry.
+     *
+     * @param registry the registry receiving the metrics.
+     * @param prefix the name prefix, ending with a dot.
+     */
+    JdbcMetrics(MetricsRegistry registry, String prefix) {
+        this.prefix = prefix;
+        this.statements = registry.timer(prefix + "statement");
+        this.statementErrors = registry.counter(prefix + "statement.errors");
+        this.batches = registry.timer(prefix + "batch");
+        this.batchItems = registry.counter(prefix + "batch.items");
+        this.resultSets = registry.counter(prefix + "resultset.opened");
+        this.rowsFetched = registry.counter(prefix + "resultset.rows");
+        this.fetches = registry.timer(prefix + "resultset.fetch");
+        this.commits = registry.timer(prefix + "commit");
+        this.rollbacks = registry.timer(prefix + "rollback");
+    }
+
+    /**
+     * Gets the name prefix of these metrics.
+     *
+     * @return the prefix, ending with a dot.
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Records an executed statement; batches are also recorded by {@link #recordBatch(long, int)}.
+     *
+     * @param nanos the execution time in nanoseconds.
+     * @param failed whether the statement failed.
+     */
+    void recordStatement(long nanos, boolean failed) {
+        statements.record(nanos);
+        if (failed) {
+            statementErrors.increment();
+        }
+    }
+
+    /**
+     * Records an executed batch.
+     *
+     * @param nanos the execution time in nanoseconds.
+     * @param items the number of statements or parameter sets in the batch.
+     */
+    void recordBatch(long nanos, int items) {
+        batches.record(nanos);
+        batchItems.add(items);
+    }
+
+    /**
+     * Records a consumed result set.
+     *
+     * @param rows the number of rows read.
+     * @param nanos the time spent moving through the rows, in nanoseconds.
+     */
+    void recordResultSet(long rows, long nanos) {
+        resultSets.increment();
+        rowsFetched.add(rows);
+        fetches.record(nanos);
+    }
+
+    /**
+     * Records a commit.
+     *
+     * @param nanos the commit time in nanoseconds.
+     */
+    void recordCommit(long nanos) {
+        commits.record(nanos);
+    }
+
+    /**
+     * Records a rollback.
+     *
+     * @param nanos the rollback time in nanoseconds.
+     */
+    void recordRollback(long nanos) {
+        rollbacks.record(nanos);
+    }
+}
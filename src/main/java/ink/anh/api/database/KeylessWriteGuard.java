@@ -0,0 +1,69 @@
+package ink.anh.api.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+/**
+ * Connection proxy used while a write without shard key runs on every shard of a table split by key.
+ * Schema changes, updates and deletes apply to each shard alike, but an insert would be copied into every shard,
+ * so statements inserting rows are rejected and must run with the shard key of the row instead.
+ */
+final class KeylessWriteGuard implements InvocationHandler {
+
+    private static final Pattern INSERT = Pattern.compile("^\\s*(INSERT|REPLACE)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final Object target;
+    private final String tableName;
+
+    private KeylessWriteGuard(Object target, String tableName) {
+        this.target = target;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Wraps a shard connection so that it rejects inserts.
+     *
+     * @param connection the connection of one shard.
+     * @param tableName the name of the table split by key.
+     * @return the guarded connection.
+     */
+    static Connection guard(Connection connection, String tableName) {
+        return (Connection) Proxy.newProxyInstance(KeylessWriteGuard.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new KeylessWriteGuard(connection, tableName));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "prepareStatement":
+            case "prepareCall":
+            case "execute":
+            case "executeUpdate":
+            case "executeLargeUpdate":
+            case "addBatch":
+                if (args != null && args.length > 0 && args[0] instanceof String && INSERT.matcher((String) args[0]).find()) {
+                    throw new SQLException("Table " + tableName + " is sharded by key; insert its rows with a shard key");
+                }
+                break;
+            default:
+                break;
+        }
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (method.getName().equals("createStatement")) {
+            return Proxy.newProxyInstance(KeylessWriteGuard.class.getClassLoader(),
+                    new Class<?>[] { Statement.class }, new KeylessWriteGuard(result, tableName));
+        }
+        return result;
+    }
+}
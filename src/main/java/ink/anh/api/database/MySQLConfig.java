@@ -1,9 +1,27 @@
 package ink.anh.api.database;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Configuration class for MySQL database settings.
  */
 public class MySQLConfig {
+
+    /**
+     * Strategy used to choose the replica that serves a read.
+     */
+    public enum ReplicaSelection {
+        /**
+         * Cycles through the available replicas.
+         */
+        ROUND_ROBIN,
+        /**
+         * Picks the available replica with the fewest active and waiting borrowers.
+         */
+        LEAST_LOADED
+    }
+
     private final String host;
     private final int port;
     private final String database;
@@ -13,6 +31,11 @@ public class MySQLConfig {
     private final boolean useSSL;
     private final boolean autoReconnect;
     private final boolean useMySQL;
+    private PoolConfig poolConfig;
+    private boolean useCursorFetch;
+    private List<ReplicaEndpoint> replicas = new ArrayList<>();
+    private ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+    private long readYourWritesWindowMillis;
 
     /**
      * Constructs an instance of {@code MySQLConfig} with the specified settings.
@@ -119,4 +142,109 @@ public class MySQLConfig {
     public boolean isUseMySQL() {
         return useMySQL;
     }
+
+    /**
+     * Gets the connection pool settings.
+     *
+     * @return the pool settings, or {@code null} if a single connection is used.
+     */
+    public PoolConfig getPoolConfig() {
+        return poolConfig;
+    }
+
+    /**
+     * Sets the connection pool settings. When set, {@link MySQLDatabaseManager} hands out pooled
+     * connection leases instead of sharing one connection.
+     *
+     * @param poolConfig the pool settings, or {@code null} to use a single connection.
+     */
+    public void setPoolConfig(PoolConfig poolConfig) {
+        this.poolConfig = poolConfig;
+    }
+
+    /**
+     * Checks if server-side cursors are used for streamed queries.
+     *
+     * @return {@code true} if cursor fetch is enabled, {@code false} otherwise.
+     */
+    public boolean isUseCursorFetch() {
+        return useCursorFetch;
+    }
+
+    /**
+     * Sets whether server-side cursors are used for streamed queries. With cursor fetch enabled, streamed queries
+     * read rows in chunks of the requested fetch size; otherwise the driver streams rows one by one.
+     *
+     * @param useCursorFetch whether to enable {@code useCursorFetch} on the connection.
+     */
+    public void setUseCursorFetch(boolean useCursorFetch) {
+        this.useCursorFetch = useCursorFetch;
+    }
+
+    /**
+     * Gets the read replicas that serve read-only operations.
+     *
+     * @return the replica endpoints; empty if all operations use the primary.
+     */
+    public List<ReplicaEndpoint> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Sets the read replicas. Queries, streams and cache loads are routed to the replicas and fall back to the
+     * primary when no replica is available; transactions always run on the primary.
+     *
+     * @param replicas the replica endpoints, or an empty list to disable read routing.
+     */
+    public void setReplicas(List<ReplicaEndpoint> replicas) {
+        this.replicas = new ArrayList<>(replicas);
+    }
+
+    /**
+     * Adds a read replica.
+     *
+     * @param replica the replica endpoint.
+     */
+    public void addReplica(ReplicaEndpoint replica) {
+        replicas.add(replica);
+    }
+
+    /**
+     * Gets the strategy used to choose the replica that serves a read.
+     *
+     * @return the replica selection strategy.
+     */
+    public ReplicaSelection getReplicaSelection() {
+        return replicaSelection;
+    }
+
+    /**
+     * Sets the strategy used to choose the replica that serves a read.
+     *
+     * @param replicaSelection the replica selection strategy.
+     */
+    public void setReplicaSelection(ReplicaSelection replicaSelection) {
+        this.replicaSelection = replicaSelection;
+    }
+
+    /**
+     * Gets how long reads stay on the primary after a write of the same caller.
+     *
+     * @return the read-your-writes window in milliseconds, or 0 if disabled.
+     */
+    public long getReadYourWritesWindowMillis() {
+        return readYourWritesWindowMillis;
+    }
+
+    /**
+     * Enables read-your-writes: after a thread commits a transaction, its reads are served by the primary for the
+     * given time, so they do not miss the write on a lagging replica. Asynchronous operations share this window
+     * with the thread that started them, so a write of either pins the reads of both.
+     * Set it above the usual replication lag.
+     *
+     * @param readYourWritesWindowMillis the window in milliseconds, or 0 to disable.
+     */
+    public void setReadYourWritesWindowMillis(long readYourWritesWindowMillis) {
+        this.readYourWritesWindowMillis = readYourWritesWindowMillis;
+    }
 }
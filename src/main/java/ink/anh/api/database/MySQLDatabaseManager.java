@@ -3,8 +3,13 @@ package ink.anh.api.database;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ink.anh.api.LibraryManager;
+import ink.anh.api.database.AbstractTable.SQLConsumer;
+import ink.anh.api.database.MySQLConfig.ReplicaSelection;
 
 /**
  * Manages the connection and initialization of a MySQL database.
@@ -12,16 +17,21 @@ import ink.anh.api.LibraryManager;
  */
 public class MySQLDatabaseManager extends DatabaseManager {
 
-    private String host;
-    private String database;
-    private String username;
-    private String password;
-    private int port;
-    private String tablePrefix;
-    private boolean useSSL;
-    private boolean autoReconnect;
+    /** The configuration the current pool or connection was opened with; replaced only by a successful reload. */
+    private volatile Settings settings;
 
-    private Connection connection;
+    private static final int SHARED_STATEMENT_CACHE_SIZE = new PoolConfig().getStatementCacheSize();
+
+    private volatile ConnectionPool pool;
+    private volatile ReplicaRouter replicaRouter;
+    private volatile ChangeLog changeLog;
+    /**
+     * Time of the last write of the current caller, shared with the asynchronous operations it starts
+     * so that {@code insertAsync(...).thenCompose(...)} reads stay on the primary as well.
+     */
+    private final ThreadLocal<AtomicLong> lastWriteAt = new ThreadLocal<>();
+    private final AtomicLong replicaReadCount = new AtomicLong();
+    private final AtomicLong primaryReadCount = new AtomicLong();
 
     /**
      * Constructs an instance of {@code MySQLDatabaseManager} with the specified library manager, table registrar,
@@ -32,69 +42,353 @@ public class MySQLDatabaseManager extends DatabaseManager {
      */
     public MySQLDatabaseManager(LibraryManager manager, AbstractTableRegistrar tableRegistrar) {
         super(manager, tableRegistrar);
-        setMySQLParams(manager);
+        this.settings = new Settings(manager.getMySQLConfig());
         initialize();
     }
 
     /**
-     * Sets the MySQL connection parameters using the provided library manager.
+     * Initializes the MySQL database connection using the provided configuration.
+     * In pooled mode the connection pool is created and filled up to its minimum idle size.
+     * Logs any errors encountered during the process.
+     */
+    @Override
+    public void initialize() {
+        Settings current = settings;
+        if (current.poolConfig != null) {
+            pool = new ConnectionPool(getManager().getPlugin(), "mysql", current.poolConfig, current::open,
+                    getStatementCacheStats());
+            pool.start(getScheduler(), getBackgroundExecutor());
+        } else {
+            try {
+                connection = current.open();
+            } catch (SQLException e) {
+                ErrorLogger.log(getManager().getPlugin(), e, "Could not initialize MySQL connection");
+            }
+        }
+        replicaRouter = createReplicaRouter(current);
+    }
+
+    /**
+     * Creates and starts the pools of the configured read replicas. Replicas use the primary's pool settings,
+     * or the default {@link PoolConfig} in single-connection mode.
      *
-     * @param manager the library manager responsible for managing the plugin.
+     * @param config the configuration the replica connections are opened with.
+     * @return the replica router, or {@code null} if no replicas are configured.
      */
-    private void setMySQLParams(LibraryManager manager) {
-        MySQLConfig mySQLConfig = manager.getMySQLConfig();
-        this.host = mySQLConfig.getHost();
-        this.database = mySQLConfig.getDatabase();
-        this.username = mySQLConfig.getUsername();
-        this.password = mySQLConfig.getPassword();
-        this.port = mySQLConfig.getPort();
-        this.tablePrefix = mySQLConfig.getPrefix();
-        this.useSSL = mySQLConfig.isUseSSL();
-        this.autoReconnect = mySQLConfig.isAutoReconnect();
+    private ReplicaRouter createReplicaRouter(Settings config) {
+        if (config.replicas.isEmpty()) {
+            return null;
+        }
+        ReplicaRouter router = new ReplicaRouter(getManager().getPlugin(), config.replicas,
+                config.poolConfig != null ? config.poolConfig : new PoolConfig(),
+                endpoint -> () -> config.open(endpoint.getHost(), endpoint.getPort()),
+                getStatementCacheStats(), config.replicaSelection);
+        router.start(getScheduler(), getBackgroundExecutor());
+        return router;
     }
 
     /**
-     * Initializes the MySQL database connection using the provided configuration.
-     * Logs any errors encountered during the process.
+     * Reads the MySQL configuration again and opens a new pool or connection with it, verifying that a connection
+     * can be obtained before the new set replaces the current one. The new configuration is only adopted once that
+     * check succeeds; until then, and if it fails, the current connections keep reconnecting with the old one.
+     *
+     * @return an action closing the previous pool or connection.
+     * @throws SQLException if the new connections cannot be opened.
      */
     @Override
-    public void initialize() {
-        try {
-            connection = DriverManager.getConnection(
-                "jdbc:mysql://" + this.host + ":" + this.port + "/" + this.database +
-                "?autoReconnect=" + this.autoReconnect + "&useSSL=" + this.useSSL +
-                "&allowPublicKeyRetrieval=true",
-                this.username,
-                this.password
-            );
-        } catch (SQLException e) {
-            ErrorLogger.log(getManager().getPlugin(), e, "Could not initialize MySQL connection");
+    protected Runnable swapConnections() throws SQLException {
+        Settings next = new Settings(getManager().getMySQLConfig());
+        ConnectionPool oldPool = pool;
+        Connection oldConnection = connection;
+        ReplicaRouter oldRouter = replicaRouter;
+        ConnectionPool freshPool = null;
+        Connection freshConnection = null;
+        if (next.poolConfig != null) {
+            freshPool = new ConnectionPool(getManager().getPlugin(), "mysql", next.poolConfig, next::open,
+                    getStatementCacheStats());
+            freshPool.start(getScheduler(), getBackgroundExecutor());
+            try {
+                freshPool.getConnection().close();
+            } catch (SQLException e) {
+                freshPool.close();
+                throw e;
+            }
+        } else {
+            freshConnection = next.open();
         }
+        settings = next;
+        pool = freshPool;
+        connection = freshConnection;
+        replicaRouter = createReplicaRouter(next);
+        return () -> {
+            if (oldPool != null) {
+                oldPool.close();
+            }
+            if (oldRouter != null) {
+                oldRouter.close();
+            }
+            ResultSetSpliterator.closeQuietly(oldConnection);
+        };
     }
 
     /**
      * Provides the current connection to the MySQL database.
-     * Establishes a new connection if the current one is null or closed.
+     * In pooled mode a lease is borrowed from the pool; closing it returns the connection to the pool.
+     * Otherwise the single shared connection is lent with a statement cache; closing the lease resets it instead
+     * of closing it. A new connection is established if the current one is null or closed, except while the
+     * health monitor runs, when {@code null} is returned if it is down.
      * Logs any errors encountered during the process.
      *
      * @return the connection to the MySQL database.
      */
     @Override
     public Connection getConnection() {
-        try {
-            if (connection == null || connection.isClosed()) {
-                connection = DriverManager.getConnection(
-                    "jdbc:mysql://" + this.host + ":" + this.port + "/" + this.database +
-                    "?autoReconnect=" + this.autoReconnect + "&useSSL=" + this.useSSL +
-                    "&allowPublicKeyRetrieval=true",
-                    this.username,
-                    this.password
-                );
+        if (pool != null) {
+            try {
+                return instrumentConnection(pool.getConnection());
+            } catch (SQLException e) {
+                ErrorLogger.log(getManager().getPlugin(), e, "Could not borrow MySQL connection from the pool");
+                return null;
+            }
+        }
+        if (getHealthMonitor() == null) {
+            try {
+                if (connection == null || connection.isClosed()) {
+                    connection = settings.open();
+                }
+            } catch (SQLException e) {
+                ErrorLogger.log(getManager().getPlugin(), e, "Could not retrieve MySQL connection");
+                return null;
+            }
+        }
+        return instrumentConnection(shareConnection());
+    }
+
+    /**
+     * Gets the statement cache size of the single shared connection, taken from the default {@link PoolConfig}.
+     *
+     * @return the cache size.
+     */
+    @Override
+    protected int getSharedStatementCacheSize() {
+        return SHARED_STATEMENT_CACHE_SIZE;
+    }
+
+    /**
+     * Pings the replica pools and the pooled connections, or the single connection when pooling is disabled,
+     * and replaces stale ones. Unavailable replicas are reported as such but do not fail the check.
+     *
+     * @return the number of connections reopened.
+     * @throws SQLException if no working connection can be obtained.
+     */
+    @Override
+    protected int keepAlive() throws SQLException {
+        ReplicaRouter router = replicaRouter;
+        int reopened = router == null ? 0 : router.keepAlive();
+        ConnectionPool current = pool;
+        if (current != null) {
+            return reopened + current.keepAlive();
+        }
+        return reopened + keepAliveConnection(settings::open);
+    }
+
+    /**
+     * Provides a connection for read-only work. With replicas configured, the connection is borrowed from a replica
+     * chosen by the configured {@link ReplicaSelection}; the primary serves the read if no replica is available
+     * or if read-your-writes pins this caller to the primary after a recent write.
+     *
+     * @return a connection suitable for reading.
+     */
+    @Override
+    public Connection getReadConnection() {
+        ReplicaRouter router = replicaRouter;
+        if (router == null) {
+            return getConnection();
+        }
+        if (!isPinnedToPrimary()) {
+            Connection replica = router.getConnection();
+            if (replica != null) {
+                replicaReadCount.incrementAndGet();
+                return instrumentConnection(replica);
             }
-        } catch (SQLException e) {
-            ErrorLogger.log(getManager().getPlugin(), e, "Could not retrieve MySQL connection");
         }
-        return connection;
+        primaryReadCount.incrementAndGet();
+        return getConnection();
+    }
+
+    /**
+     * Runs the transaction on the primary and, with read-your-writes enabled, pins the reads of this caller
+     * and of the asynchronous operations it started to the primary for the configured window.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed.
+     * @throws SQLException if no connection is available or the operation fails.
+     */
+    @Override
+    protected void runTransaction(String tableName, SQLConsumer<Connection> sqlConsumer) throws SQLException {
+        super.runTransaction(tableName, sqlConsumer);
+        if (settings.readYourWritesWindowMillis > 0 && replicaRouter != null) {
+            writeSession().set(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Shares the write time of the calling thread with the asynchronous operation it starts, so a write made
+     * by either pins the reads of both.
+     *
+     * @return the write time holder of the caller, or {@code null} if read-your-writes is disabled.
+     */
+    @Override
+    protected Object captureCallerContext() {
+        return settings.readYourWritesWindowMillis > 0 && replicaRouter != null ? writeSession() : null;
+    }
+
+    /**
+     * Installs the write time holder of the caller on the thread running its asynchronous operation.
+     *
+     * @param context the holder captured by {@link #captureCallerContext()}.
+     */
+    @Override
+    protected void applyCallerContext(Object context) {
+        lastWriteAt.set((AtomicLong) context);
+    }
+
+    /**
+     * Gets the write time holder of the current thread, creating it on first use.
+     *
+     * @return the holder of the time of the last write, 0 if there was none.
+     */
+    private AtomicLong writeSession() {
+        AtomicLong session = lastWriteAt.get();
+        if (session == null) {
+            session = new AtomicLong();
+            lastWriteAt.set(session);
+        }
+        return session;
+    }
+
+    /**
+     * Checks whether reads of the current caller must go to the primary because of a recent write.
+     *
+     * @return {@code true} if the caller is within its read-your-writes window.
+     */
+    private boolean isPinnedToPrimary() {
+        AtomicLong session = lastWriteAt.get();
+        if (session == null) {
+            return false;
+        }
+        long writtenAt = session.get();
+        return writtenAt > 0 && System.currentTimeMillis() - writtenAt < settings.readYourWritesWindowMillis;
+    }
+
+    /**
+     * Gets the connection pools of the read replicas.
+     *
+     * @return the replica pools; empty if no replicas are configured.
+     */
+    public List<ConnectionPool> getReplicaPools() {
+        ReplicaRouter router = replicaRouter;
+        return router == null ? Collections.emptyList() : router.getPools();
+    }
+
+    /**
+     * Gets the number of reads served by a replica.
+     *
+     * @return the replica read count.
+     */
+    public long getReplicaReadCount() {
+        return replicaReadCount.get();
+    }
+
+    /**
+     * Gets the number of reads that fell back to, or were pinned to, the primary while replicas are configured.
+     *
+     * @return the primary read count.
+     */
+    public long getPrimaryReadCount() {
+        return primaryReadCount.get();
+    }
+
+    /**
+     * Uses the requested fetch size with server-side cursors, or row-by-row streaming
+     * ({@link Integer#MIN_VALUE}) when cursor fetch is disabled.
+     *
+     * @param requested the number of rows the caller wants per round trip.
+     * @return the fetch size passed to the MySQL driver.
+     */
+    @Override
+    protected int getStreamingFetchSize(int requested) {
+        return settings.useCursorFetch ? requested : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Gets the connection pool used in pooled mode.
+     *
+     * @return the connection pool, or {@code null} if a single connection is used.
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Enables cross-server cache invalidation through a changelog table in this database, creating the table
+     * if needed. Every server sharing the database enables it with its own node id.
+     * Calling this again returns the existing changelog.
+     *
+     * @param nodeId the unique name of this server, at most 64 characters.
+     * @param pollIntervalMillis the time between polls for changes of other servers, in milliseconds.
+     * @param retentionMillis the time change records are kept before they are pruned, in milliseconds;
+     *        should comfortably exceed the longest time a server may go without polling.
+     * @return the changelog.
+     * @throws SQLException if the changelog table cannot be created.
+     */
+    public synchronized ChangeLog enableChangeLog(String nodeId, long pollIntervalMillis, long retentionMillis) throws SQLException {
+        if (changeLog == null) {
+            changeLog = new ChangeLog(this, nodeId, pollIntervalMillis, retentionMillis);
+        }
+        return changeLog;
+    }
+
+    /**
+     * Gets the cross-server changelog of this manager.
+     *
+     * @return the changelog, or {@code null} if it is not enabled.
+     */
+    @Override
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Stops the changelog polling and shuts the database manager down.
+     */
+    @Override
+    public void shutdown() {
+        ChangeLog current;
+        synchronized (this) {
+            current = changeLog;
+            changeLog = null;
+        }
+        if (current != null) {
+            current.stop();
+        }
+        super.shutdown();
+    }
+
+    /**
+     * Closes the replica pools and the connection pool, or the single connection when pooling is disabled.
+     */
+    @Override
+    protected void releaseConnections() {
+        if (replicaRouter != null) {
+            replicaRouter.close();
+            replicaRouter = null;
+        }
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+        super.releaseConnections();
     }
 
     /**
@@ -104,6 +398,86 @@ public class MySQLDatabaseManager extends DatabaseManager {
      */
     @Override
     public String getTablePrefix() {
-        return tablePrefix;
+        return settings.tablePrefix;
+    }
+
+    /**
+     * Provides the SQL dialect of the MySQL database.
+     *
+     * @return {@link SqlDialect#MYSQL}.
+     */
+    @Override
+    public SqlDialect getDialect() {
+        return SqlDialect.MYSQL;
+    }
+
+    /**
+     * Immutable copy of the MySQL configuration. Pools and replica routers open their connections through the copy
+     * they were created with, so a reload that fails leaves them reconnecting to the server they were built for.
+     */
+    private static final class Settings {
+
+        private final String host;
+        private final String database;
+        private final String username;
+        private final String password;
+        private final int port;
+        private final String tablePrefix;
+        private final boolean useSSL;
+        private final boolean autoReconnect;
+        private final PoolConfig poolConfig;
+        private final boolean useCursorFetch;
+        private final List<ReplicaEndpoint> replicas;
+        private final ReplicaSelection replicaSelection;
+        private final long readYourWritesWindowMillis;
+
+        /**
+         * Copies the MySQL connection parameters from the given configuration.
+         *
+         * @param mySQLConfig the MySQL configuration.
+         */
+        private Settings(MySQLConfig mySQLConfig) {
+            this.host = mySQLConfig.getHost();
+            this.database = mySQLConfig.getDatabase();
+            this.username = mySQLConfig.getUsername();
+            this.password = mySQLConfig.getPassword();
+            this.port = mySQLConfig.getPort();
+            this.tablePrefix = mySQLConfig.getPrefix();
+            this.useSSL = mySQLConfig.isUseSSL();
+            this.autoReconnect = mySQLConfig.isAutoReconnect();
+            this.poolConfig = mySQLConfig.getPoolConfig();
+            this.useCursorFetch = mySQLConfig.isUseCursorFetch();
+            this.replicas = List.copyOf(mySQLConfig.getReplicas());
+            this.replicaSelection = mySQLConfig.getReplicaSelection();
+            this.readYourWritesWindowMillis = mySQLConfig.getReadYourWritesWindowMillis();
+        }
+
+        /**
+         * Opens a new physical connection to the MySQL primary.
+         *
+         * @return the new connection.
+         * @throws SQLException if the connection cannot be established.
+         */
+        private Connection open() throws SQLException {
+            return open(host, port);
+        }
+
+        /**
+         * Opens a new physical connection to the given MySQL server with the configured database and options.
+         *
+         * @param host the host address of the server.
+         * @param port the port number of the server.
+         * @return the new connection.
+         * @throws SQLException if the connection cannot be established.
+         */
+        private Connection open(String host, int port) throws SQLException {
+            return DriverManager.getConnection(
+                "jdbc:mysql://" + host + ":" + port + "/" + database +
+                "?autoReconnect=" + autoReconnect + "&useSSL=" + useSSL +
+                "&allowPublicKeyRetrieval=true" + (useCursorFetch ? "&useCursorFetch=true" : ""),
+                username,
+                password
+            );
+        }
     }
 }
@@ -0,0 +1,97 @@
+package ink.anh.api.database;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, row and error counters of one kind of operation on one table, collected by {@link QueryMetrics}.
+ */
+public class OperationStats {
+
+    private final String tableName;
+    private final String operation;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Constructs an instance of {@code OperationStats}.
+     *
+     * @param tableName the name of the table.
+     * @param operation the operation, such as {@code transaction}, {@code query} or a statement type.
+     */
+    OperationStats(String tableName, String operation) {
+        this.tableName = tableName;
+        this.operation = operation;
+    }
+
+    /**
+     * Records one execution of the operation.
+     *
+     * @param micros the duration in microseconds.
+     * @param affectedRows the number of rows written, or 0 if unknown.
+     * @param failed whether the operation failed.
+     */
+    void record(long micros, long affectedRows, boolean failed) {
+        latency.record(micros);
+        if (affectedRows > 0) {
+            rows.add(affectedRows);
+        }
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Gets the name of the table.
+     *
+     * @return the table name.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Gets the operation.
+     *
+     * @return the operation name.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets the latency histogram of the operation.
+     *
+     * @return the latency histogram.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Gets the number of rows written by the operation.
+     *
+     * @return the row count.
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    /**
+     * Gets the number of failed executions.
+     *
+     * @return the error count.
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Clears all counters.
+     */
+    void reset() {
+        latency.reset();
+        rows.reset();
+        errors.reset();
+    }
+}
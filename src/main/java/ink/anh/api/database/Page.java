@@ -0,0 +1,53 @@
+package ink.anh.api.database;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of entities returned by keyset pagination.
+ *
+ * @param <T> the type of the entities.
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final PageToken nextToken;
+
+    /**
+     * Constructs an instance of {@code Page}.
+     *
+     * @param items the entities of the page.
+     * @param nextToken the token of the next page, or {@code null} if this is the last page.
+     */
+    public Page(List<T> items, PageToken nextToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * Gets the entities of the page.
+     *
+     * @return the unmodifiable list of entities.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the token of the next page.
+     *
+     * @return the token to pass to the next request, or {@code null} if this is the last page.
+     */
+    public PageToken getNextToken() {
+        return nextToken;
+    }
+
+    /**
+     * Checks whether another page follows this one.
+     *
+     * @return {@code true} if there is a next page.
+     */
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
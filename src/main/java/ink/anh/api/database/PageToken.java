@@ -0,0 +1,41 @@
+package ink.anh.api.database;
+
+/**
+ * Position of the last row of a page in keyset pagination.
+ * The next page starts right after the row with these values, so paging stays fast on every page
+ * instead of scanning past an ever-growing {@code OFFSET}.
+ */
+public class PageToken {
+
+    private final Object orderValue;
+    private final Object tieValue;
+
+    /**
+     * Constructs an instance of {@code PageToken}.
+     *
+     * @param orderValue the value of the order column of the last row.
+     * @param tieValue the value of the tie-breaking column of the last row, or {@code null} if none is used.
+     */
+    public PageToken(Object orderValue, Object tieValue) {
+        this.orderValue = orderValue;
+        this.tieValue = tieValue;
+    }
+
+    /**
+     * Gets the value of the order column of the last row.
+     *
+     * @return the order column value.
+     */
+    public Object getOrderValue() {
+        return orderValue;
+    }
+
+    /**
+     * Gets the value of the tie-breaking column of the last row.
+     *
+     * @return the tie-breaking column value, or {@code null} if none is used.
+     */
+    public Object getTieValue() {
+        return tieValue;
+    }
+}
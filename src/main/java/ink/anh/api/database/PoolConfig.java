@@ -0,0 +1,217 @@
+package ink.anh.api.database;
+
+/**
+ * Configuration class for the pooled connection mode of {@link MySQLDatabaseManager}.
+ * A fresh instance holds sensible defaults; individual settings can be changed through the setters
+ * before the configuration is passed to {@link MySQLConfig#setPoolConfig(PoolConfig)}.
+ */
+public class PoolConfig {
+
+    private int minIdle = 2;
+    private int maxSize = 10;
+    private long connectionTimeoutMillis = 10_000L;
+    private int validationTimeoutSeconds = 3;
+    private long idleTimeoutMillis = 600_000L;
+    private long maxLifetimeMillis = 1_800_000L;
+    private long leakDetectionThresholdMillis = 0L;
+    private int statementCacheSize = 64;
+
+    /**
+     * Constructs an instance of {@code PoolConfig} with the default settings.
+     */
+    public PoolConfig() {
+    }
+
+    /**
+     * Constructs an instance of {@code PoolConfig} with the specified minimum and maximum pool sizes.
+     * All other settings keep their default values.
+     *
+     * @param minIdle the number of idle connections the pool tries to keep open.
+     * @param maxSize the maximum number of physical connections the pool may open.
+     */
+    public PoolConfig(int minIdle, int maxSize) {
+        this.minIdle = checkMinIdle(minIdle, maxSize);
+        this.maxSize = checkMaxSize(maxSize, minIdle);
+    }
+
+    /**
+     * Gets the number of idle connections the pool tries to keep open.
+     *
+     * @return the minimum number of idle connections.
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Sets the number of idle connections the pool tries to keep open.
+     *
+     * @param minIdle the minimum number of idle connections, not negative and not above the maximum pool size.
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = checkMinIdle(minIdle, maxSize);
+    }
+
+    /**
+     * Gets the maximum number of physical connections the pool may open.
+     *
+     * @return the maximum pool size.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of physical connections the pool may open.
+     *
+     * @param maxSize the maximum pool size, at least 1 and not below the minimum idle count; lower the minimum
+     *        idle count first when shrinking the pool below it.
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = checkMaxSize(maxSize, minIdle);
+    }
+
+    /**
+     * Gets the time a caller waits for a free connection before the borrow fails.
+     *
+     * @return the borrow timeout in milliseconds.
+     */
+    public long getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    /**
+     * Sets the time a caller waits for a free connection before the borrow fails.
+     *
+     * @param connectionTimeoutMillis the borrow timeout in milliseconds.
+     */
+    public void setConnectionTimeoutMillis(long connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    /**
+     * Gets the timeout used when an idle connection is validated on borrow.
+     *
+     * @return the validation timeout in seconds.
+     */
+    public int getValidationTimeoutSeconds() {
+        return validationTimeoutSeconds;
+    }
+
+    /**
+     * Sets the timeout used when an idle connection is validated on borrow.
+     *
+     * @param validationTimeoutSeconds the validation timeout in seconds.
+     */
+    public void setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    /**
+     * Gets the time after which an unused connection above {@link #getMinIdle()} is closed.
+     *
+     * @return the idle timeout in milliseconds, or 0 if idle connections are never evicted.
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Sets the time after which an unused connection above {@link #getMinIdle()} is closed.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds, or 0 to disable idle eviction.
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Gets the maximum lifetime of a physical connection. Older connections are retired once they are returned.
+     * The value should be somewhat lower than the server's {@code wait_timeout}.
+     *
+     * @return the maximum lifetime in milliseconds, or 0 if connections never expire.
+     */
+    public long getMaxLifetimeMillis() {
+        return maxLifetimeMillis;
+    }
+
+    /**
+     * Sets the maximum lifetime of a physical connection.
+     *
+     * @param maxLifetimeMillis the maximum lifetime in milliseconds, or 0 to disable retirement.
+     */
+    public void setMaxLifetimeMillis(long maxLifetimeMillis) {
+        this.maxLifetimeMillis = maxLifetimeMillis;
+    }
+
+    /**
+     * Gets the time a lease may stay open before it is reported as a possible leak.
+     *
+     * @return the leak detection threshold in milliseconds, or 0 if leak detection is disabled.
+     */
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    /**
+     * Sets the time a lease may stay open before it is reported as a possible leak.
+     * When enabled, the pool records the borrowing stack trace so the warning points at the offending code.
+     *
+     * @param leakDetectionThresholdMillis the threshold in milliseconds, or 0 to disable leak detection.
+     */
+    public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
+
+    /**
+     * Gets the number of prepared statements cached per connection.
+     *
+     * @return the statement cache size, or 0 if statements are not cached.
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the number of prepared statements cached per connection.
+     *
+     * @param statementCacheSize the statement cache size, or 0 to disable statement caching.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Validates a minimum idle count.
+     *
+     * @param minIdle the minimum number of idle connections.
+     * @param maxSize the maximum pool size it must not exceed.
+     * @return the validated value.
+     */
+    private static int checkMinIdle(int minIdle, int maxSize) {
+        if (minIdle < 0) {
+            throw new IllegalArgumentException("minIdle must not be negative");
+        }
+        if (minIdle > maxSize) {
+            throw new IllegalArgumentException("minIdle (" + minIdle + ") must not exceed maxSize (" + maxSize + ")");
+        }
+        return minIdle;
+    }
+
+    /**
+     * Validates a maximum pool size.
+     *
+     * @param maxSize the maximum pool size.
+     * @param minIdle the minimum idle count it must not fall below.
+     * @return the validated value.
+     */
+    private static int checkMaxSize(int maxSize, int minIdle) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        if (maxSize < minIdle) {
+            throw new IllegalArgumentException("maxSize (" + maxSize + ") must not be below minIdle (" + minIdle + ")");
+        }
+        return maxSize;
+    }
+}
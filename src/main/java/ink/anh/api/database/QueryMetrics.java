@@ -0,0 +1,340 @@
+package ink.anh.api.database;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.plugin.Plugin;
+
+import ink.anh.api.utils.MetricsRegistry;
+
+/**
+ * Latency histograms, row counts and error counts of the database operations of one {@link DatabaseManager},
+ * per table and per operation. Transactions and queries run through the manager are recorded as the
+ * {@code transaction} and {@code query} operations; the statements they execute are recorded by statement type
+ * ({@code select}, {@code insert}, {@code update}, {@code delete} or {@code other}). Statements slower than the
+ * slow query threshold are logged with their SQL text, never with their parameters.
+ * <p>
+ * Transactions and queries are always recorded, and those slower than the threshold are logged by operation name,
+ * as timing them costs no more than reading the clock. Statement recording is off by default: while it is on,
+ * every statement and result set runs through a timing proxy, and the slow query log shows the SQL text of the
+ * slow statements. It can be turned on with {@link #setEnabled(boolean)} or the {@code enable} subcommand of
+ * {@link DatabaseMetricsCommand}, for example while investigating slow operations.
+ */
+public class QueryMetrics {
+
+    private static final int SLOW_QUERY_LOG_SIZE = 100;
+
+    private final Plugin plugin;
+    private final JdbcMetrics jdbcMetrics;
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private volatile boolean enabled;
+    private volatile long slowQueryThresholdMillis = 250L;
+
+    /**
+     * Constructs an instance of {@code QueryMetrics}.
+     *
+     * @param plugin the plugin whose logger receives the slow query log.
+     */
+    QueryMetrics(Plugin plugin) {
+        this.plugin = plugin;
+        this.jdbcMetrics = new JdbcMetrics(MetricsRegistry.global(), "database." + plugin.getName() + ".jdbc.");
+    }
+
+    /**
+     * Checks whether statements are recorded. Transactions and queries are recorded either way.
+     *
+     * @return {@code true} if statement recording is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables statement recording. It is disabled by default, so statements and result sets run
+     * without timing proxies; connections obtained while it is disabled stay unrecorded. Transactions, queries and
+     * the slow query log by operation are not affected.
+     *
+     * @param enabled whether to record statements.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets the duration above which a statement is logged as slow.
+     *
+     * @return the threshold in milliseconds, or 0 if the slow query log is disabled.
+     */
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    /**
+     * Sets the duration above which a statement is logged as slow.
+     *
+     * @param slowQueryThresholdMillis the threshold in milliseconds, or 0 to disable the slow query log.
+     */
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    /**
+     * Gets the counters of one operation on one table.
+     *
+     * @param tableName the name of the table.
+     * @param operation the operation name.
+     * @return the counters, created empty if the operation was not recorded yet.
+     */
+    public OperationStats getStats(String tableName, String operation) {
+        return stats.computeIfAbsent(tableName + '/' + operation, k -> new OperationStats(tableName, operation));
+    }
+
+    /**
+     * Gets the counters of all recorded operations, ordered by table and operation.
+     *
+     * @return the operation counters.
+     */
+    public List<OperationStats> getAllStats() {
+        List<OperationStats> all = new ArrayList<>(stats.values());
+        all.sort(Comparator.comparing(OperationStats::getTableName).thenComparing(OperationStats::getOperation));
+        return all;
+    }
+
+    /**
+     * Gets the most recent slow statements, oldest first.
+     *
+     * @return up to the last 100 slow statements.
+     */
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    /**
+     * Clears all counters, the JDBC metrics and the slow query log.
+     */
+    public void reset() {
+        stats.values().forEach(OperationStats::reset);
+        MetricsRegistry.global().reset(jdbcMetrics.getPrefix());
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    /**
+     * Formats the counters as human readable lines, one per table and operation.
+     *
+     * @param tableName the table to report, or {@code null} for all tables.
+     * @return the report lines.
+     */
+    public List<String> formatReport(String tableName) {
+        List<String> lines = new ArrayList<>();
+        for (OperationStats operation : getAllStats()) {
+            if (tableName != null && !tableName.equalsIgnoreCase(operation.getTableName())) {
+                continue;
+            }
+            LatencyHistogram latency = operation.getLatency();
+            if (latency.getCount() == 0 && operation.getErrors() == 0) {
+                continue;
+            }
+            lines.add(String.format(Locale.ROOT, "%s %s: count=%d p50=%s p99=%s max=%s mean=%s rows=%d errors=%d",
+                    operation.getTableName(), operation.getOperation(), latency.getCount(),
+                    formatMillis(latency.getPercentileMicros(50)), formatMillis(latency.getPercentileMicros(99)),
+                    formatMillis(latency.getMaxMicros()), formatMillis((long) latency.getMeanMicros()),
+                    operation.getRows(), operation.getErrors()));
+        }
+        return lines;
+    }
+
+    /**
+     * Formats the JDBC metrics of this manager as human readable lines: statement, batch, result set, commit and
+     * rollback counts and times, and the connection pool gauges, as published in the {@link MetricsRegistry}.
+     *
+     * @return the report lines.
+     */
+    public List<String> formatJdbcReport() {
+        return MetricsRegistry.global().format("database." + plugin.getName() + ".");
+    }
+
+    /**
+     * Formats the slow query log as human readable lines, oldest first.
+     *
+     * @return the report lines.
+     */
+    public List<String> formatSlowQueries() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+        List<String> lines = new ArrayList<>();
+        for (SlowQuery query : getSlowQueries()) {
+            lines.add(format.format(new Date(query.getTimestamp())) + " " + query.getTableName() + " "
+                    + formatMillis(query.getDurationMicros()) + " " + query.getSql());
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the counters and the slow query log to a text file in the plugin data folder.
+     *
+     * @return the written file.
+     * @throws IOException if the file cannot be written.
+     */
+    public File dump() throws IOException {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date());
+        File file = new File(plugin.getDataFolder(), "database-metrics-" + timestamp + ".txt");
+        Files.createDirectories(plugin.getDataFolder().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("# Operations");
+            writer.newLine();
+            for (String line : formatReport(null)) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.newLine();
+            writer.write("# JDBC");
+            writer.newLine();
+            for (String line : formatJdbcReport()) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.newLine();
+            writer.write("# Slow queries (threshold " + slowQueryThresholdMillis + " ms)");
+            writer.newLine();
+            for (String line : formatSlowQueries()) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Records a transaction or query run through the database manager.
+     *
+     * @param tableName the name of the table.
+     * @param operation the operation name.
+     * @param micros the duration in microseconds.
+     * @param failed whether the operation failed.
+     */
+    void recordOperation(String tableName, String operation, long micros, boolean failed) {
+        getStats(tableName, operation).record(micros, 0L, failed);
+        if (!enabled) {
+            logIfSlow(tableName, "[" + operation + "]", micros);
+        }
+    }
+
+    /**
+     * Records an executed statement and adds it to the slow query log if it exceeded the threshold.
+     *
+     * @param tableName the name of the table.
+     * @param sql the SQL text, or {@code null} if unknown.
+     * @param micros the duration in microseconds.
+     * @param rows the number of rows written.
+     * @param failed whether the statement failed.
+     */
+    void recordStatement(String tableName, String sql, long micros, long rows, boolean failed) {
+        getStats(tableName, statementType(sql)).record(micros, rows, failed);
+        if (sql != null) {
+            logIfSlow(tableName, sql, micros);
+        }
+    }
+
+    /**
+     * Adds a statement or operation to the slow query log if it exceeded the threshold.
+     *
+     * @param tableName the name of the table.
+     * @param sql the SQL text, or the operation name in brackets.
+     * @param micros the duration in microseconds.
+     */
+    private void logIfSlow(String tableName, String sql, long micros) {
+        long threshold = slowQueryThresholdMillis;
+        if (threshold > 0 && micros >= threshold * 1000L) {
+            SlowQuery query = new SlowQuery(System.currentTimeMillis(), tableName, sql, micros);
+            synchronized (slowQueries) {
+                if (slowQueries.size() == SLOW_QUERY_LOG_SIZE) {
+                    slowQueries.pollFirst();
+                }
+                slowQueries.addLast(query);
+            }
+            plugin.getLogger().warning("Slow query on table " + tableName + " (" + formatMillis(micros) + "): " + sql);
+        }
+    }
+
+    /**
+     * Gets the JDBC-level metrics recorded by the instrumented connections.
+     *
+     * @return the JDBC metrics.
+     */
+    JdbcMetrics getJdbcMetrics() {
+        return jdbcMetrics;
+    }
+
+    /**
+     * Wraps a connection so that the statements created from it are recorded for the given table.
+     * Transactions, queries and streams of the manager are instrumented already; this is for connections taken
+     * directly from {@link DatabaseManager#getConnection()}. Closing the wrapper closes the connection.
+     *
+     * @param tableName the name of the table.
+     * @param conn the connection to wrap.
+     * @return the instrumented connection, or {@code conn} itself if recording is disabled.
+     */
+    public Connection instrument(String tableName, Connection conn) {
+        return enabled ? InstrumentedConnection.wrap(conn, this, tableName) : conn;
+    }
+
+    /**
+     * Classifies a statement by its leading keyword.
+     *
+     * @param sql the SQL text, or {@code null}.
+     * @return {@code select}, {@code insert}, {@code update}, {@code delete} or {@code other}.
+     */
+    static String statementType(String sql) {
+        if (sql == null) {
+            return "other";
+        }
+        String trimmed = sql.stripLeading();
+        int end = 0;
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+            end++;
+        }
+        String keyword = trimmed.substring(0, end).toLowerCase(Locale.ROOT);
+        switch (keyword) {
+            case "select":
+            case "with":
+                return "select";
+            case "insert":
+            case "replace":
+                return "insert";
+            case "update":
+                return "update";
+            case "delete":
+                return "delete";
+            default:
+                return "other";
+        }
+    }
+
+    /**
+     * Formats a duration in milliseconds with two decimals.
+     *
+     * @param micros the duration in microseconds.
+     * @return the formatted duration.
+     */
+    static String formatMillis(long micros) {
+        return String.format(Locale.ROOT, "%.2fms", micros / 1000.0);
+    }
+}
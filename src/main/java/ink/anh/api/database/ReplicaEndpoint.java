@@ -0,0 +1,45 @@
+package ink.anh.api.database;
+
+/**
+ * Address of a MySQL read replica. Replicas are reached with the database name, credentials and connection
+ * options of the primary described by {@link MySQLConfig}.
+ */
+public class ReplicaEndpoint {
+
+    private final String host;
+    private final int port;
+
+    /**
+     * Constructs an instance of {@code ReplicaEndpoint}.
+     *
+     * @param host the host address of the replica.
+     * @param port the port number of the replica.
+     */
+    public ReplicaEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Gets the host address of the replica.
+     *
+     * @return the host address.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the port number of the replica.
+     *
+     * @return the port number.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,184 @@
+package ink.anh.api.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.bukkit.plugin.Plugin;
+
+import ink.anh.api.database.ConnectionPool.ConnectionFactory;
+import ink.anh.api.database.MySQLConfig.ReplicaSelection;
+
+/**
+ * Connection pools of the read replicas of one {@link MySQLDatabaseManager} and the choice between them.
+ * A replica that fails to hand out a connection is skipped for a short back-off period, so reads fall through
+ * to the remaining replicas or the primary without waiting on a dead host every time.
+ */
+final class ReplicaRouter {
+
+    private static final long DOWN_BACKOFF_MILLIS = 5_000L;
+
+    private final Plugin plugin;
+    private final ReplicaSelection selection;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates the replica pools. No connection is opened until {@link #start(ScheduledExecutorService)}.
+     *
+     * @param plugin the plugin whose logger receives routing warnings.
+     * @param endpoints the replica endpoints.
+     * @param poolConfig the settings of every replica pool.
+     * @param factoryFor creates the connection factory of an endpoint.
+     * @param statementCacheStats the counters updated by the statement caches of the replica connections.
+     * @param selection the replica selection strategy.
+     */
+    ReplicaRouter(Plugin plugin, List<ReplicaEndpoint> endpoints, PoolConfig poolConfig,
+            Function<ReplicaEndpoint, ConnectionFactory> factoryFor, StatementCacheStats statementCacheStats,
+            ReplicaSelection selection) {
+        this.plugin = plugin;
+        this.selection = selection;
+        for (ReplicaEndpoint endpoint : endpoints) {
+            ConnectionPool pool = new ConnectionPool(plugin, "mysql-replica-" + endpoint, poolConfig,
+                    factoryFor.apply(endpoint), statementCacheStats);
+            replicas.add(new Replica(endpoint, pool));
+        }
+    }
+
+    /**
+     * Starts all replica pools.
+     *
+     * @param scheduler the scheduler timing pool housekeeping.
+     * @param worker the executor running pool housekeeping.
+     */
+    void start(ScheduledExecutorService scheduler, Executor worker) {
+        replicas.forEach(replica -> replica.pool.start(scheduler, worker));
+    }
+
+    /**
+     * Borrows a connection from an available replica, trying the others if the chosen one fails.
+     *
+     * @return a leased replica connection, or {@code null} if no replica is available.
+     */
+    Connection getConnection() {
+        long now = System.currentTimeMillis();
+        for (Replica replica : candidates(now)) {
+            try {
+                Connection conn = replica.pool.getConnection();
+                replica.markUp();
+                return conn;
+            } catch (SQLException e) {
+                replica.markDown(now, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pings the replica pools and updates their availability. Replica failures never propagate,
+     * since reads can always fall back to the primary.
+     *
+     * @return the number of replica connections reopened.
+     */
+    int keepAlive() {
+        int reopened = 0;
+        for (Replica replica : replicas) {
+            try {
+                reopened += replica.pool.keepAlive();
+                replica.markUp();
+            } catch (SQLException e) {
+                replica.markDown(System.currentTimeMillis(), e);
+            }
+        }
+        return reopened;
+    }
+
+    /**
+     * Gets the pools of all replicas.
+     *
+     * @return the replica pools in configuration order.
+     */
+    List<ConnectionPool> getPools() {
+        List<ConnectionPool> pools = new ArrayList<>(replicas.size());
+        replicas.forEach(replica -> pools.add(replica.pool));
+        return pools;
+    }
+
+    /**
+     * Closes all replica pools.
+     */
+    void close() {
+        replicas.forEach(replica -> replica.pool.close());
+    }
+
+    /**
+     * Orders the available replicas by preference according to the selection strategy.
+     *
+     * @param now the current time in milliseconds.
+     * @return the replicas to try, most preferred first.
+     */
+    private List<Replica> candidates(long now) {
+        List<Replica> available = new ArrayList<>(replicas.size());
+        if (selection == ReplicaSelection.LEAST_LOADED) {
+            for (Replica replica : replicas) {
+                if (replica.isAvailable(now)) {
+                    available.add(replica);
+                }
+            }
+            available.sort(Comparator.comparingInt(Replica::load));
+            return available;
+        }
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isAvailable(now)) {
+                available.add(replica);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * A replica endpoint with its pool and availability.
+     */
+    private final class Replica {
+        private final ReplicaEndpoint endpoint;
+        private final ConnectionPool pool;
+        private volatile long downUntil;
+
+        private Replica(ReplicaEndpoint endpoint, ConnectionPool pool) {
+            this.endpoint = endpoint;
+            this.pool = pool;
+        }
+
+        private boolean isAvailable(long now) {
+            return now >= downUntil;
+        }
+
+        private int load() {
+            return pool.getActiveConnections() + pool.getPendingThreads();
+        }
+
+        private void markDown(long now, SQLException e) {
+            if (downUntil == 0) {
+                plugin.getLogger().warning("MySQL replica " + endpoint + " is unavailable, reading from other servers: "
+                        + e.getMessage());
+            }
+            downUntil = now + DOWN_BACKOFF_MILLIS;
+        }
+
+        private void markUp() {
+            if (downUntil != 0) {
+                downUntil = 0;
+                plugin.getLogger().info("MySQL replica " + endpoint + " is available again");
+            }
+        }
+    }
+}
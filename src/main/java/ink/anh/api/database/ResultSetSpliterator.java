@@ -0,0 +1,90 @@
+package ink.anh.api.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Lazily maps the rows of an open {@link ResultSet}, one row per advance.
+ * Owns the result set, its statement and its connection, and closes them as soon as the last row has been read,
+ * the stream is closed or reading fails.
+ *
+ * @param <T> the type of the mapped rows.
+ */
+final class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+    private final Connection conn;
+    private final PreparedStatement ps;
+    private final ResultSet rs;
+    private final RowMapper<T> mapper;
+    private final Runnable onClose;
+    private boolean closed;
+
+    /**
+     * Creates a spliterator over the given result set.
+     *
+     * @param conn the connection the query runs on.
+     * @param ps the statement that produced the result set.
+     * @param rs the result set to read.
+     * @param mapper maps each row.
+     * @param onClose runs once after the resources are closed.
+     */
+    ResultSetSpliterator(Connection conn, PreparedStatement ps, ResultSet rs, RowMapper<T> mapper, Runnable onClose) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.conn = conn;
+        this.ps = ps;
+        this.rs = rs;
+        this.mapper = mapper;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (!rs.next()) {
+                close();
+                return false;
+            }
+            action.accept(mapper.map(rs));
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw new DatabaseException("Failed to read streamed row", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeQuietly(rs);
+        closeQuietly(ps);
+        closeQuietly(conn);
+        onClose.run();
+    }
+
+    /**
+     * Closes a JDBC resource, ignoring failures because the resources are being discarded anyway.
+     *
+     * @param resource the resource to close.
+     */
+    static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception ignored) {
+            // Nothing useful can be done while releasing a finished query
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ink.anh.api.database;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy for transactions that fail with a transient error, such as a deadlock, a lock wait timeout or
+ * a busy SQLite database. Failed attempts are retried after an exponentially growing delay with full jitter,
+ * bounded by {@link #getMaxDelayMillis()}, so competing writers do not collide again in lockstep.
+ * <p>
+ * Errors after which the transaction is known to be rolled back are always retried. Lost connections are only
+ * retried for operations marked idempotent, because the commit may have reached the server before the failure.
+ * Operations running on the server main thread are retried at most once and without delay.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Constructs an instance of {@code RetryPolicy} with the default settings:
+     * up to 3 attempts, starting at 50 ms and never waiting more than 1 second.
+     */
+    public RetryPolicy() {
+        this(3, 50L, 1_000L);
+    }
+
+    /**
+     * Constructs an instance of {@code RetryPolicy} with the specified settings.
+     *
+     * @param maxAttempts the total number of attempts, including the first one; 1 disables retries.
+     * @param baseDelayMillis the upper bound of the delay before the first retry, in milliseconds.
+     * @param maxDelayMillis the upper bound of any delay, in milliseconds.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Creates a policy that never retries.
+     *
+     * @return a policy with a single attempt.
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy(1, 0L, 0L);
+    }
+
+    /**
+     * Gets the total number of attempts, including the first one.
+     *
+     * @return the maximum number of attempts.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Gets the upper bound of the delay before the first retry.
+     *
+     * @return the base delay in milliseconds.
+     */
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /**
+     * Gets the upper bound of any delay between attempts.
+     *
+     * @return the maximum delay in milliseconds.
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Computes a random delay before the given retry: uniformly distributed between 0 and
+     * {@code min(maxDelay, baseDelay * 2^(retry - 1))}.
+     *
+     * @param retry the number of the retry, starting at 1.
+     * @return the delay in milliseconds.
+     */
+    public long getDelayMillis(int retry) {
+        long ceiling = baseDelayMillis << Math.min(retry - 1, 20);
+        ceiling = Math.min(ceiling < 0 ? maxDelayMillis : ceiling, maxDelayMillis);
+        return ceiling <= 0 ? 0L : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,67 @@
+package ink.anh.api.database;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the transient failures handled by the {@link RetryPolicy} of one {@link DatabaseManager}.
+ */
+public class RetryStats {
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * Constructs an instance of {@code RetryStats} with all counters at zero.
+     */
+    public RetryStats() {
+    }
+
+    /**
+     * Gets the number of attempts repeated after a transient failure.
+     *
+     * @return the retry count.
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Gets the number of operations that succeeded after at least one retry.
+     *
+     * @return the number of recovered operations.
+     */
+    public long getRecovered() {
+        return recovered.sum();
+    }
+
+    /**
+     * Gets the number of operations that still failed after the last allowed attempt.
+     *
+     * @return the number of operations that ran out of attempts.
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * Records an attempt repeated after a transient failure.
+     */
+    void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Records an operation that succeeded after a retry.
+     */
+    void recordRecovered() {
+        recovered.increment();
+    }
+
+    /**
+     * Records an operation that failed on its last allowed attempt.
+     */
+    void recordExhausted() {
+        exhausted.increment();
+    }
+}
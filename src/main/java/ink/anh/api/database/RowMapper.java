@@ -0,0 +1,23 @@
+package ink.anh.api.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a {@link ResultSet} to an object.
+ * Implementations must only read the current row and must not move the cursor.
+ *
+ * @param <T> the type of the mapped object.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * Maps the current row.
+     *
+     * @param rs the result set positioned on the row to be mapped.
+     * @return the mapped object.
+     * @throws SQLException if a column cannot be read.
+     */
+    T map(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,265 @@
+package ink.anh.api.database;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Configuration class for the optimized mode of {@link SQLiteDatabaseManager}.
+ * In this mode the database is kept open on a persistent connection in WAL journal mode, all mutations are
+ * serialized through a single writer thread and reads are served by a small pool of read-only connections.
+ * A fresh instance holds sensible defaults; individual pragmas can be tuned through the setters.
+ * <p>
+ * With {@link #setInMemory(boolean)} the database file is instead loaded into an in-memory database at startup
+ * and all queries are served from memory; changes are copied back to the file every checkpoint interval and at shutdown.
+ * <p>
+ * Tables can be moved out of the main {@code database.db} into shard files in the {@code shards} folder, either whole
+ * with {@link #assignShard(String, String)} or split by key with {@link #setKeyShards(String, int)}. Every file has its
+ * own writer thread, so writes to different shards run in parallel. Sharding applies to the optimized mode only.
+ */
+public class SQLiteConfig {
+
+    private static final Pattern SHARD_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final int MAX_KEY_SHARDS = 10;
+
+    private String synchronous = "NORMAL";
+    private int cacheSize = -16_000;
+    private long mmapSize = 268_435_456L;
+    private int busyTimeoutMillis = 5_000;
+    private int readPoolSize = 4;
+    private int statementCacheSize = 64;
+    private boolean inMemory;
+    private long checkpointIntervalMillis = 5_000L;
+    private final Map<String, String> tableShards = new LinkedHashMap<>();
+    private final Map<String, Integer> keyShards = new LinkedHashMap<>();
+
+    /**
+     * Constructs an instance of {@code SQLiteConfig} with the default settings.
+     */
+    public SQLiteConfig() {
+    }
+
+    /**
+     * Gets the value of the {@code synchronous} pragma.
+     *
+     * @return the synchronous mode, for example {@code NORMAL} or {@code FULL}.
+     */
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * Sets the value of the {@code synchronous} pragma.
+     * {@code NORMAL} is safe against corruption in WAL mode and only risks the last commits on power loss.
+     *
+     * @param synchronous the synchronous mode: {@code OFF}, {@code NORMAL}, {@code FULL} or {@code EXTRA}.
+     */
+    public void setSynchronous(String synchronous) {
+        switch (synchronous.toUpperCase()) {
+            case "OFF":
+            case "NORMAL":
+            case "FULL":
+            case "EXTRA":
+                this.synchronous = synchronous.toUpperCase();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown synchronous mode: " + synchronous);
+        }
+    }
+
+    /**
+     * Gets the value of the {@code cache_size} pragma.
+     *
+     * @return the cache size; positive values are pages, negative values are KiB.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Sets the value of the {@code cache_size} pragma.
+     *
+     * @param cacheSize the cache size; positive values are pages, negative values are KiB.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Gets the value of the {@code mmap_size} pragma.
+     *
+     * @return the maximum number of bytes mapped into memory, or 0 if memory-mapped I/O is disabled.
+     */
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    /**
+     * Sets the value of the {@code mmap_size} pragma.
+     *
+     * @param mmapSize the maximum number of bytes mapped into memory, or 0 to disable memory-mapped I/O.
+     */
+    public void setMmapSize(long mmapSize) {
+        this.mmapSize = mmapSize;
+    }
+
+    /**
+     * Gets the value of the {@code busy_timeout} pragma.
+     *
+     * @return the time a connection waits for a lock, in milliseconds.
+     */
+    public int getBusyTimeoutMillis() {
+        return busyTimeoutMillis;
+    }
+
+    /**
+     * Sets the value of the {@code busy_timeout} pragma.
+     *
+     * @param busyTimeoutMillis the time a connection waits for a lock, in milliseconds.
+     */
+    public void setBusyTimeoutMillis(int busyTimeoutMillis) {
+        this.busyTimeoutMillis = busyTimeoutMillis;
+    }
+
+    /**
+     * Gets the maximum number of read-only connections used for concurrent reads.
+     *
+     * @return the read pool size.
+     */
+    public int getReadPoolSize() {
+        return readPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of read-only connections used for concurrent reads.
+     *
+     * @param readPoolSize the read pool size, at least 1.
+     */
+    public void setReadPoolSize(int readPoolSize) {
+        if (readPoolSize < 1) {
+            throw new IllegalArgumentException("readPoolSize must be at least 1");
+        }
+        this.readPoolSize = readPoolSize;
+    }
+
+    /**
+     * Gets the number of prepared statements cached per connection.
+     *
+     * @return the statement cache size, or 0 if statements are not cached.
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the number of prepared statements cached per connection.
+     *
+     * @param statementCacheSize the statement cache size, or 0 to disable statement caching.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Checks whether the database is served from an in-memory copy of the file.
+     *
+     * @return {@code true} if the in-memory mode is enabled.
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    /**
+     * Enables serving the database from an in-memory copy of the file, for small read-heavy datasets.
+     * Reads and leased connections are served by a pool of {@link #getReadPoolSize()} connections to the in-memory
+     * database; the WAL and pragma settings other than the busy timeout and the statement cache do not apply.
+     *
+     * @param inMemory {@code true} to load the database into memory.
+     */
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * Gets the time between checkpoints of the in-memory database to its file.
+     *
+     * @return the checkpoint interval in milliseconds.
+     */
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    /**
+     * Sets the time between checkpoints of the in-memory database to its file. This is the durability window:
+     * changes made since the last checkpoint are lost if the server crashes. A checkpoint is skipped when
+     * nothing changed.
+     *
+     * @param checkpointIntervalMillis the checkpoint interval in milliseconds, at least 1.
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        if (checkpointIntervalMillis < 1) {
+            throw new IllegalArgumentException("checkpointIntervalMillis must be at least 1");
+        }
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * Stores a table in its own shard file {@code shards/<shardName>.db}. Tables assigned to the same shard share
+     * the file and its writer, and can be written in one transaction.
+     *
+     * @param tableName the name of the table.
+     * @param shardName the name of the shard, made of letters, digits, {@code _} and {@code -}.
+     */
+    public void assignShard(String tableName, String shardName) {
+        if (!SHARD_NAME.matcher(shardName).matches()) {
+            throw new IllegalArgumentException("Invalid shard name: " + shardName);
+        }
+        keyShards.remove(tableName);
+        tableShards.put(tableName, shardName);
+    }
+
+    /**
+     * Splits the rows of a table across shard files {@code shards/<tableName>-<index>.db} by the hash of their key.
+     * Operations inside {@link DatabaseManager#withShardKey(Object, AbstractTable.SQLSupplier)} reach the shard of
+     * the key; the batched helpers of {@link AbstractTable}, write-behind queues and {@code enqueueWrite} route their
+     * rows by key themselves, and journaled mutations keep their shard key for replay. Operations without
+     * a shard key run on every shard: schema changes, updates and deletes are applied to each shard, reads see the
+     * rows of all shards as one table, and inserts are rejected. Rows already in the main file are copied to the
+     * shard files when the database is opened, and the table of the main file is renamed to
+     * {@code <tableName>_unsharded} as a backup to drop once the move is verified.
+     * The shard count must not change once the table holds data.
+     *
+     * @param tableName the name of the table, made of letters, digits, {@code _} and {@code -}.
+     * @param shardCount the number of shard files, from 2 to 10, the number of files SQLite can attach to one
+     *        connection to read all shards.
+     */
+    public void setKeyShards(String tableName, int shardCount) {
+        if (!SHARD_NAME.matcher(tableName).matches()) {
+            throw new IllegalArgumentException("Invalid table name for key shards: " + tableName);
+        }
+        if (shardCount < 2 || shardCount > MAX_KEY_SHARDS) {
+            throw new IllegalArgumentException("shardCount must be between 2 and " + MAX_KEY_SHARDS);
+        }
+        tableShards.remove(tableName);
+        keyShards.put(tableName, shardCount);
+    }
+
+    /**
+     * Gets the tables stored whole in a shard file.
+     *
+     * @return an unmodifiable view of the shard names by table name.
+     */
+    public Map<String, String> getTableShards() {
+        return Collections.unmodifiableMap(tableShards);
+    }
+
+    /**
+     * Gets the tables split across shard files by key.
+     *
+     * @return an unmodifiable view of the shard counts by table name.
+     */
+    public Map<String, Integer> getKeyShards() {
+        return Collections.unmodifiableMap(keyShards);
+    }
+}
@@ -5,15 +5,31 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import ink.anh.api.LibraryManager;
+import ink.anh.api.database.AbstractTable.SQLConsumer;
+import ink.anh.api.database.AbstractTable.SQLFunction;
 
 /**
  * Manages the connection and initialization of an SQLite database.
  * Extends the {@link DatabaseManager} to provide SQLite specific functionality.
+ * When constructed with an {@link SQLiteConfig}, the database runs in the optimized mode:
+ * a persistent WAL connection, a single writer thread for all transactions and a pool of read-only connections.
+ * If the configuration enables {@link SQLiteConfig#setInMemory(boolean) in-memory mode}, the database file is loaded
+ * into memory instead and checkpointed back to disk periodically and on shutdown.
+ * In the optimized mode tables can also be spread over several database files, each with its own writer; see
+ * {@link SQLiteConfig#assignShard(String, String)} and {@link SQLiteConfig#setKeyShards(String, int)}.
+ * Tables keep their names and are reached through {@link #getTable(Class)} as before, but a transaction
+ * can only span tables stored in the same file.
  */
 public class SQLiteDatabaseManager extends DatabaseManager {
 
+    private final SQLiteConfig sqliteConfig;
+    private volatile SQLiteShardSet shards;
+    private volatile SQLiteMemoryMirror mirror;
+
     /**
      * Constructs an instance of {@code SQLiteDatabaseManager} with the specified library manager and table registrar.
      * Initializes the database upon creation.
@@ -22,7 +38,20 @@ public class SQLiteDatabaseManager extends DatabaseManager {
      * @param tableRegistrar the table registrar for registering database tables.
      */
 	public SQLiteDatabaseManager(LibraryManager manager, AbstractTableRegistrar tableRegistrar) {
+        this(manager, tableRegistrar, null);
+    }
+
+    /**
+     * Constructs an instance of {@code SQLiteDatabaseManager} running in the optimized mode described by the
+     * specified configuration. Initializes the database upon creation.
+     *
+     * @param manager the library manager responsible for managing the plugin.
+     * @param tableRegistrar the table registrar for registering database tables.
+     * @param sqliteConfig the optimized mode settings, or {@code null} to use a plain connection.
+     */
+    public SQLiteDatabaseManager(LibraryManager manager, AbstractTableRegistrar tableRegistrar, SQLiteConfig sqliteConfig) {
         super(manager, tableRegistrar);
+        this.sqliteConfig = sqliteConfig;
         initialize();
     }
 
@@ -37,6 +66,18 @@ public class SQLiteDatabaseManager extends DatabaseManager {
             if (!dataFolder.exists()) {
                 dataFolder.createNewFile();
             }
+            if (sqliteConfig != null && sqliteConfig.isInMemory()) {
+                SQLiteMemoryMirror loaded = new SQLiteMemoryMirror(getManager().getPlugin(), dataFolder, sqliteConfig,
+                        getStatementCacheStats());
+                loaded.open(getScheduler(), getBackgroundExecutor());
+                mirror = loaded;
+                return;
+            }
+            if (sqliteConfig != null) {
+                shards = SQLiteShardSet.open(getManager().getPlugin(), dataFolder, sqliteConfig, getStatementCacheStats(),
+                        getScheduler(), getBackgroundExecutor());
+                return;
+            }
             Class.forName("org.sqlite.JDBC");
             connection = DriverManager.getConnection("jdbc:sqlite:" + dataFolder);
         } catch (IOException | ClassNotFoundException | SQLException e) {
@@ -44,23 +85,320 @@ public class SQLiteDatabaseManager extends DatabaseManager {
         }
     }
 
+    /**
+     * Opens new stores, or a new plain connection, on the same database files before the current ones are closed.
+     * Writes queued on the old stores are finished when they are closed. An in-memory database is kept as it is,
+     * since a second copy loaded from the file would miss the changes not yet checkpointed.
+     *
+     * @return an action closing the previous store or connection.
+     * @throws SQLException if the database cannot be opened.
+     */
+    @Override
+    protected Runnable swapConnections() throws SQLException {
+        if (mirror != null) {
+            return () -> {
+            };
+        }
+        File databaseFile = new File(getManager().getPlugin().getDataFolder(), "database.db");
+        SQLiteShardSet oldShards = shards;
+        Connection oldConnection = connection;
+        if (sqliteConfig != null) {
+            shards = SQLiteShardSet.open(getManager().getPlugin(), databaseFile, sqliteConfig, getStatementCacheStats(),
+                    getScheduler(), getBackgroundExecutor());
+        } else {
+            connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+        }
+        return () -> {
+            if (oldShards != null) {
+                oldShards.close();
+            }
+            ResultSetSpliterator.closeQuietly(oldConnection);
+        };
+    }
+
     /**
      * Provides the current connection to the SQLite database.
-     * Establishes a new connection if the current one is null or closed.
+     * In the optimized mode this is a lease over the persistent write connection which blocks the writer thread
+     * until it is closed; in the in-memory mode it is a pooled connection to the in-memory database, which holds
+     * no lock while it is leased. Otherwise establishes a new connection if the current one is null or closed; while the
+     * health monitor runs the shared connection is lent without reconnecting.
+     * The optimized-mode connection reaches the main database file only: sharded tables are not in that file and
+     * must be used through the table operations, which route them to their shard files.
      * Logs any errors encountered during the process.
      *
      * @return the connection to the SQLite database.
      */
     @Override
     public Connection getConnection() {
+        SQLiteMemoryMirror current = mirror;
+        if (current != null) {
+            return instrumentConnection(current.getConnection());
+        }
+        SQLiteShardSet currentShards = shards;
+        if (currentShards != null) {
+            return instrumentConnection(currentShards.getMain().getWriteConnection());
+        }
+        if (getHealthMonitor() != null) {
+            return instrumentConnection(shareConnection());
+        }
         try {
             if (connection == null || connection.isClosed()) {
-                return DriverManager.getConnection("jdbc:sqlite:" + getManager().getPlugin().getDataFolder() + "/database.db");
+                return instrumentConnection(DriverManager.getConnection("jdbc:sqlite:"
+                        + getManager().getPlugin().getDataFolder() + "/database.db"));
             }
         } catch (SQLException e) {
             ErrorLogger.log(getManager().getPlugin(), e, "Failed to get database connection");
         }
-        return connection;
+        return instrumentConnection(connection);
+    }
+
+    /**
+     * Pings the read pool in the optimized mode, or the single connection otherwise, and replaces stale connections.
+     *
+     * @return the number of connections reopened.
+     * @throws SQLException if no working connection can be obtained.
+     */
+    @Override
+    protected int keepAlive() throws SQLException {
+        SQLiteMemoryMirror currentMirror = mirror;
+        if (currentMirror != null) {
+            return currentMirror.keepAlive();
+        }
+        if (sqliteConfig != null) {
+            SQLiteShardSet current = shards;
+            return current == null ? 0 : current.keepAlive();
+        }
+        return keepAliveConnection(() -> DriverManager.getConnection("jdbc:sqlite:"
+                + new File(getManager().getPlugin().getDataFolder(), "database.db")));
+    }
+
+    /**
+     * Provides a connection for read-only work. In the optimized mode a read-only connection is borrowed
+     * from the read pool so reads do not wait for the writer thread.
+     *
+     * @return a connection suitable for reading.
+     */
+    @Override
+    public Connection getReadConnection() {
+        SQLiteShardSet current = shards;
+        if (current != null) {
+            try {
+                return instrumentConnection(current.getMain().getReadConnection());
+            } catch (SQLException e) {
+                ErrorLogger.log(getManager().getPlugin(), e, "Failed to get read-only database connection");
+                return null;
+            }
+        }
+        return super.getReadConnection();
+    }
+
+    /**
+     * Provides a connection for read-only work on the specified table, borrowed from the read pool of the file
+     * holding the table in the optimized mode. Without a shard key, a table split by key reads as one table holding
+     * the rows of all its shards.
+     *
+     * @param tableName the name of the table the work belongs to.
+     * @return a connection suitable for reading the table.
+     */
+    @Override
+    protected Connection getReadConnection(String tableName) {
+        SQLiteShardSet current = shards;
+        if (current != null) {
+            try {
+                return current.getReadConnection(tableName, getShardKey());
+            } catch (SQLException e) {
+                ErrorLogger.log(getManager().getPlugin(), e, "Failed to get read-only database connection");
+                return null;
+            }
+        }
+        return super.getReadConnection(tableName);
+    }
+
+    /**
+     * Executes the transaction on the writer thread of the file holding the table in the optimized mode, so all
+     * mutations of one file are serialized, or on the primary in-memory connection in the in-memory mode.
+     * Without a shard key, the transaction runs once on every shard file of a table split by key, one transaction
+     * per shard; such writes may change the schema, update or delete rows, but not insert rows.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed.
+     * @throws SQLException if the operation fails.
+     */
+    @Override
+    protected void runTransaction(String tableName, SQLConsumer<Connection> sqlConsumer) throws SQLException {
+        SQLiteMemoryMirror current = mirror;
+        if (current != null) {
+            current.write(conn -> {
+                runInTransaction(conn, sqlConsumer);
+                return null;
+            });
+            return;
+        }
+        SQLiteShardSet currentShards = shards;
+        if (currentShards == null) {
+            super.runTransaction(tableName, sqlConsumer);
+            return;
+        }
+        if (getShardKey() == null && currentShards.getShardCount(tableName) > 1) {
+            for (SQLiteShardSet.Slot slot : currentShards.slotsOf(tableName)) {
+                currentShards.storeFor(tableName, slot).write(conn -> {
+                    runInTransaction(KeylessWriteGuard.guard(conn, tableName), sqlConsumer);
+                    return null;
+                });
+            }
+            return;
+        }
+        currentShards.storeFor(tableName, getShardKey()).write(conn -> {
+            runInTransaction(conn, sqlConsumer);
+            return null;
+        });
+    }
+
+    /**
+     * Executes the read-only operation on a pooled read-only connection of the file holding the table in the
+     * optimized mode, or on a pooled connection to the in-memory database in the in-memory mode.
+     * Without a shard key, a table split by key reads as one table holding the rows of all its shards.
+     *
+     * @param <R> the type of the query result.
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlFunction the SQL operation to be executed.
+     * @return the result of the operation.
+     * @throws SQLException if the operation fails.
+     */
+    @Override
+    protected <R> R runQuery(String tableName, SQLFunction<Connection, R> sqlFunction) throws SQLException {
+        SQLiteMemoryMirror current = mirror;
+        if (current != null) {
+            return current.read(sqlFunction);
+        }
+        SQLiteShardSet currentShards = shards;
+        if (currentShards == null) {
+            return super.runQuery(tableName, sqlFunction);
+        }
+        try (Connection conn = currentShards.getReadConnection(tableName, getShardKey())) {
+            return sqlFunction.apply(conn);
+        }
+    }
+
+    /**
+     * Checks whether the table is stored in shard files rather than the main database file.
+     *
+     * @param tableName the name of the table.
+     * @return {@code true} if the table is sharded.
+     */
+    @Override
+    public boolean isSharded(String tableName) {
+        SQLiteShardSet current = shards;
+        return current != null && current.isSharded(tableName);
+    }
+
+    /**
+     * Gets the number of shard files the rows of the table are split across.
+     *
+     * @param tableName the name of the table.
+     * @return the shard count, 1 if the table is not split by key.
+     */
+    @Override
+    public int getShardCount(String tableName) {
+        SQLiteShardSet current = shards;
+        return current == null ? 1 : current.getShardCount(tableName);
+    }
+
+    /**
+     * Gets the shard file holding the rows of the table with the specified key.
+     *
+     * @param tableName the name of the table.
+     * @param key the row key.
+     * @return the shard index.
+     */
+    @Override
+    public int getShardIndex(String tableName, Object key) {
+        SQLiteShardSet current = shards;
+        return current == null ? 0 : current.shardIndex(tableName, key);
+    }
+
+    /**
+     * Executes the given SQL operation in a separate transaction on every shard file of a table split by key,
+     * or in a single transaction otherwise.
+     *
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlConsumer the SQL operation to be executed once per shard; it may run more than once.
+     * @throws SQLException if the operation fails on a shard; earlier shards stay committed.
+     */
+    @Override
+    public void executeOnAllShards(String tableName, SQLConsumer<Connection> sqlConsumer) throws SQLException {
+        SQLiteShardSet current = shards;
+        if (current == null) {
+            super.executeOnAllShards(tableName, sqlConsumer);
+            return;
+        }
+        for (SQLiteShardSet.Slot slot : current.slotsOf(tableName)) {
+            withShardKey(slot, () -> {
+                executeTransaction(tableName, sqlConsumer, true);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Executes the given read-only SQL operation on every shard file of a table split by key,
+     * or once otherwise.
+     *
+     * @param <R> the type of the query result.
+     * @param tableName the name of the table the operation belongs to.
+     * @param sqlFunction the SQL operation to be executed once per shard.
+     * @return the results of the shards in shard order.
+     * @throws SQLException if the operation fails on a shard.
+     */
+    @Override
+    public <R> List<R> queryAllShards(String tableName, SQLFunction<Connection, R> sqlFunction) throws SQLException {
+        SQLiteShardSet current = shards;
+        if (current == null) {
+            return super.queryAllShards(tableName, sqlFunction);
+        }
+        List<R> results = new ArrayList<>();
+        for (SQLiteShardSet.Slot slot : current.slotsOf(tableName)) {
+            results.add(withShardKey(slot, () -> executeQuery(tableName, sqlFunction)));
+        }
+        return results;
+    }
+
+    /**
+     * Copies the in-memory database to its file now instead of waiting for the next scheduled checkpoint.
+     *
+     * @return {@code true} if the file was written, {@code false} if nothing changed or the in-memory mode is off.
+     * @throws SQLException if the backup fails; the previous copy of the file is kept.
+     */
+    public boolean checkpoint() throws SQLException {
+        SQLiteMemoryMirror current = mirror;
+        return current != null && current.checkpoint();
+    }
+
+    /**
+     * Gets the time the in-memory database was last written to its file.
+     *
+     * @return the epoch time in milliseconds, or 0 if the in-memory mode is off.
+     */
+    public long getLastCheckpointAt() {
+        SQLiteMemoryMirror current = mirror;
+        return current == null ? 0L : current.getLastCheckpointAt();
+    }
+
+    /**
+     * Releases the connection. In the optimized mode queued writes are finished before the stores are closed;
+     * in the in-memory mode the database is checkpointed to its file before it is discarded.
+     */
+    @Override
+    protected void releaseConnections() {
+        if (mirror != null) {
+            mirror.close();
+            mirror = null;
+        }
+        if (shards != null) {
+            shards.close();
+            shards = null;
+        }
+        super.releaseConnections();
     }
 
     /**
@@ -73,4 +411,14 @@ public class SQLiteDatabaseManager extends DatabaseManager {
     public String getTablePrefix() {
         return "";
     }
+
+    /**
+     * Provides the SQL dialect of the SQLite database.
+     *
+     * @return {@link SqlDialect#SQLITE}.
+     */
+    @Override
+    public SqlDialect getDialect() {
+        return SqlDialect.SQLITE;
+    }
 }
@@ -0,0 +1,292 @@
+package ink.anh.api.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import org.bukkit.plugin.Plugin;
+
+import ink.anh.api.database.AbstractTable.SQLFunction;
+
+/**
+ * An in-memory SQLite database loaded from a database file and written back to it.
+ * The file is copied into memory with the {@code restore from} command of the SQLite JDBC driver, which uses the
+ * online backup API, and copied back with {@code backup to} on a fixed schedule and when the mirror is closed.
+ * The backup writes the file in a single transaction, so a crash during a checkpoint leaves the previous copy intact.
+ * <p>
+ * The in-memory database is a named database of the {@code memdb} VFS, so several connections share it with the
+ * usual SQLite locking. Writes run on one primary connection and are serialized by a lock held only for the duration
+ * of each write. Reads and leased connections are served by a pool of further connections, so they are not blocked
+ * by a checkpoint, which holds the write lock while the primary connection copies the database to its file.
+ * Writes through leased connections wait up to the busy timeout for a running checkpoint.
+ */
+final class SQLiteMemoryMirror {
+
+    private final Plugin plugin;
+    private final File file;
+    private final SQLiteConfig config;
+    private static final Pattern UNSAFE_NAME_CHARACTERS = Pattern.compile("[^A-Za-z0-9._-]");
+    private static final AtomicLong DATABASE_IDS = new AtomicLong();
+
+    private final StatementCacheStats statementCacheStats;
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final AtomicLong changeCount = new AtomicLong();
+    private final String url;
+    private Connection connection;
+    private StatementCache statementCache;
+    private ConnectionPool pool;
+    private ScheduledFuture<?> timer;
+    private long checkpointedChangeCount;
+    private volatile long lastCheckpointAt;
+
+    /**
+     * Creates a mirror of the given database file. Nothing is loaded until {@link #open(ScheduledExecutorService, Executor)}.
+     *
+     * @param plugin the plugin owning the database.
+     * @param file the database file.
+     * @param config the checkpoint and statement cache settings.
+     * @param statementCacheStats the counters updated by the statement cache of the in-memory connection.
+     */
+    SQLiteMemoryMirror(Plugin plugin, File file, SQLiteConfig config, StatementCacheStats statementCacheStats) {
+        this.plugin = plugin;
+        this.file = file;
+        this.config = config;
+        this.statementCacheStats = statementCacheStats;
+        String name = UNSAFE_NAME_CHARACTERS.matcher(plugin.getName() + "-" + file.getName()).replaceAll("_");
+        this.url = "jdbc:sqlite:file:/" + name + "-" + DATABASE_IDS.incrementAndGet() + "?vfs=memdb";
+    }
+
+    /**
+     * Loads the database file into memory, starts the connection pool and schedules the checkpoints.
+     *
+     * @param scheduler the scheduler timing the checkpoints and pool housekeeping.
+     * @param worker the executor running the checkpoints and pool housekeeping.
+     * @throws SQLException if the database cannot be loaded.
+     */
+    void open(ScheduledExecutorService scheduler, Executor worker) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLite JDBC driver is not available", e);
+        }
+        connection = openConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("restore from " + quote(file));
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        if (config.getStatementCacheSize() > 0) {
+            statementCache = new StatementCache(connection, config.getStatementCacheSize(), statementCacheStats);
+        }
+        PoolConfig poolConfig = new PoolConfig(1, config.getReadPoolSize());
+        poolConfig.setMaxLifetimeMillis(0L);
+        poolConfig.setStatementCacheSize(config.getStatementCacheSize());
+        pool = new ConnectionPool(plugin, "sqlite-memory-" + file.getName(), poolConfig, this::openConnection,
+                statementCacheStats);
+        pool.start(scheduler, worker);
+        lastCheckpointAt = System.currentTimeMillis();
+        long interval = config.getCheckpointIntervalMillis();
+        timer = BackgroundTask.scheduleWithFixedDelay(scheduler, worker, this::scheduledCheckpoint, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the given work on the primary connection, counting it as a change to be checkpointed.
+     * The work waits for other writes and for a running checkpoint; work nested in a write runs inline.
+     *
+     * @param <R> the type of the result.
+     * @param work the work to run.
+     * @return the result of the work.
+     * @throws SQLException if the work fails.
+     */
+    <R> R write(SQLFunction<Connection, R> work) throws SQLException {
+        if (writeLock.isHeldByCurrentThread()) {
+            return work.apply(connection);
+        }
+        writeLock.lock();
+        try (Connection conn = new ConnectionLease(connection, statementCache, l -> releasePrimary(), false).getProxy()) {
+            return work.apply(conn);
+        } finally {
+            changeCount.incrementAndGet();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Runs read-only work on a pooled connection, alongside writes and checkpoints.
+     *
+     * @param <R> the type of the result.
+     * @param work the work to run.
+     * @return the result of the work.
+     * @throws SQLException if no connection is available or the work fails.
+     */
+    <R> R read(SQLFunction<Connection, R> work) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            return work.apply(conn);
+        }
+    }
+
+    /**
+     * Borrows a pooled connection to the in-memory database. No lock is held while it is leased, so it may be
+     * closed on any thread. Closing it counts as a change since the caller may have written through it.
+     *
+     * @return the leased connection, or {@code null} if none could be obtained.
+     */
+    Connection getConnection() {
+        Connection pooled;
+        try {
+            pooled = pool.getConnection();
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to get in-memory database connection");
+            return null;
+        }
+        return new ConnectionLease(pooled, null, l -> {
+            changeCount.incrementAndGet();
+            ResultSetSpliterator.closeQuietly(pooled);
+        }, false).getProxy();
+    }
+
+    /**
+     * Checks that the primary connection is still open and pings the pooled connections.
+     *
+     * @return the number of pooled connections reopened.
+     * @throws SQLException if the primary connection is closed, since a lost in-memory database cannot be reopened.
+     */
+    int keepAlive() throws SQLException {
+        if (connection.isClosed()) {
+            throw new SQLException("In-memory copy of " + file.getName() + " is closed", "08003");
+        }
+        return pool.keepAlive();
+    }
+
+    /**
+     * Copies the in-memory database to its file if anything changed since the last checkpoint.
+     * Writes on the primary connection wait for the copy; reads continue on the pooled connections.
+     *
+     * @return {@code true} if the file was written.
+     * @throws SQLException if the backup fails; the previous copy of the file is kept.
+     */
+    boolean checkpoint() throws SQLException {
+        writeLock.lock();
+        try {
+            long changes = changeCount.get();
+            if (changes == checkpointedChangeCount || connection.isClosed()) {
+                return false;
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("backup to " + quote(file));
+            }
+            checkpointedChangeCount = changes;
+            lastCheckpointAt = System.currentTimeMillis();
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the time of the last successful checkpoint, or of loading the file if none happened yet.
+     *
+     * @return the epoch time in milliseconds.
+     */
+    long getLastCheckpointAt() {
+        return lastCheckpointAt;
+    }
+
+    /**
+     * Stops the checkpoints, writes the final checkpoint and closes the in-memory database.
+     */
+    void close() {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        if (connection == null) {
+            return;
+        }
+        try {
+            checkpoint();
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to write in-memory database to " + file.getName());
+        }
+        if (pool != null) {
+            pool.close();
+        }
+        writeLock.lock();
+        try {
+            if (statementCache != null) {
+                statementCache.close();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to close in-memory database");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Runs a scheduled checkpoint on the background executor, logging failures instead of cancelling the schedule.
+     */
+    private void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to checkpoint in-memory database to " + file.getName());
+        }
+    }
+
+    /**
+     * Restores the primary connection to auto-commit mode after a write.
+     */
+    private void releasePrimary() {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (statementCache != null) {
+                statementCache.releaseAll();
+            }
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to reset in-memory database connection");
+        }
+    }
+
+    /**
+     * Opens a connection to the shared in-memory database. The primary connection keeps the database alive.
+     *
+     * @return the new connection.
+     * @throws SQLException if the connection cannot be opened.
+     */
+    private Connection openConnection() throws SQLException {
+        Connection opened = DriverManager.getConnection(url);
+        try (Statement statement = opened.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + config.getBusyTimeoutMillis());
+        } catch (SQLException e) {
+            opened.close();
+            throw e;
+        }
+        return opened;
+    }
+
+    /**
+     * Quotes a file path for the backup commands of the SQLite JDBC driver, which accept no escapes.
+     *
+     * @param file the file.
+     * @return the quoted path.
+     */
+    private static String quote(File file) {
+        String path = file.getAbsolutePath();
+        return path.indexOf('\'') < 0 ? "'" + path + "'" : "\"" + path + "\"";
+    }
+}
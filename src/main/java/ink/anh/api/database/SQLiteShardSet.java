@@ -0,0 +1,582 @@
+package ink.anh.api.database;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * The {@link SQLiteStore}s of one {@link SQLiteDatabaseManager}: the main database file and the shard files
+ * configured in {@link SQLiteConfig}, together with the routing of tables and keys to them.
+ * <p>
+ * Reads of a table split by key without a shard key use a connection that attaches every shard file of the table
+ * and shadows the table with a temporary {@code UNION ALL} view, so ordering, limits and aggregates apply to the
+ * rows of all shards. Rows written to the main file before a table was sharded are moved to its shard files once,
+ * when the shard set is opened.
+ */
+final class SQLiteShardSet {
+
+    private static final int MIGRATION_BATCH_SIZE = 1_000;
+
+    private final Plugin plugin;
+    private final SQLiteConfig config;
+    private final StatementCacheStats statementCacheStats;
+    private final ScheduledExecutorService scheduler;
+    private final Executor worker;
+    private final SQLiteStore main;
+    private final Map<String, SQLiteStore> tableStores;
+    private final Map<String, SQLiteStore[]> keyStores;
+    private final List<SQLiteStore> all;
+    private final Map<String, ConnectionPool> unionPools = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a shard set from opened stores.
+     *
+     * @param plugin the plugin owning the database.
+     * @param config the store settings and the shard layout.
+     * @param statementCacheStats the counters updated by the statement caches of the union read pools.
+     * @param scheduler the scheduler timing union read pool housekeeping.
+     * @param worker the executor running union read pool housekeeping.
+     * @param main the store of the main database file.
+     * @param tableStores the stores of whole-table shards by table name.
+     * @param keyStores the stores of key-split tables by table name, in shard order.
+     * @param all every distinct store, the main store first.
+     */
+    private SQLiteShardSet(Plugin plugin, SQLiteConfig config, StatementCacheStats statementCacheStats,
+            ScheduledExecutorService scheduler, Executor worker, SQLiteStore main, Map<String, SQLiteStore> tableStores,
+            Map<String, SQLiteStore[]> keyStores, List<SQLiteStore> all) {
+        this.plugin = plugin;
+        this.config = config;
+        this.statementCacheStats = statementCacheStats;
+        this.scheduler = scheduler;
+        this.worker = worker;
+        this.main = main;
+        this.tableStores = tableStores;
+        this.keyStores = keyStores;
+        this.all = all;
+    }
+
+    /**
+     * Opens the main database file and every shard file of the configuration and moves rows of sharded tables
+     * left in the main file to their shard files. If a file cannot be opened or the rows cannot be moved,
+     * the stores opened so far are closed again.
+     *
+     * @param plugin the plugin owning the database.
+     * @param mainFile the main database file.
+     * @param config the store settings and the shard layout.
+     * @param statementCacheStats the counters updated by the statement caches of the stores.
+     * @param scheduler the scheduler timing read pool housekeeping.
+     * @param worker the executor running read pool housekeeping.
+     * @return the opened shard set.
+     * @throws SQLException if a database file cannot be opened or the rows cannot be moved.
+     */
+    static SQLiteShardSet open(Plugin plugin, File mainFile, SQLiteConfig config, StatementCacheStats statementCacheStats,
+            ScheduledExecutorService scheduler, Executor worker) throws SQLException {
+        List<SQLiteStore> all = new ArrayList<>();
+        try {
+            SQLiteStore main = openStore(plugin, mainFile, config, statementCacheStats, scheduler, worker, all);
+            File shardFolder = new File(mainFile.getParentFile(), "shards");
+            if ((!config.getTableShards().isEmpty() || !config.getKeyShards().isEmpty())
+                    && !shardFolder.isDirectory() && !shardFolder.mkdirs()) {
+                throw new SQLException("Failed to create shard folder " + shardFolder);
+            }
+            Map<String, SQLiteStore> byShardName = new HashMap<>();
+            Map<String, SQLiteStore> tableStores = new HashMap<>();
+            for (Map.Entry<String, String> entry : config.getTableShards().entrySet()) {
+                SQLiteStore store = byShardName.get(entry.getValue());
+                if (store == null) {
+                    store = openStore(plugin, new File(shardFolder, entry.getValue() + ".db"), config,
+                            statementCacheStats, scheduler, worker, all);
+                    byShardName.put(entry.getValue(), store);
+                }
+                tableStores.put(entry.getKey(), store);
+            }
+            Map<String, SQLiteStore[]> keyStores = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : config.getKeyShards().entrySet()) {
+                SQLiteStore[] stores = new SQLiteStore[entry.getValue()];
+                for (int i = 0; i < stores.length; i++) {
+                    stores[i] = openStore(plugin, new File(shardFolder, entry.getKey() + "-" + i + ".db"), config,
+                            statementCacheStats, scheduler, worker, all);
+                }
+                keyStores.put(entry.getKey(), stores);
+            }
+            SQLiteShardSet shardSet = new SQLiteShardSet(plugin, config, statementCacheStats, scheduler, worker, main,
+                    tableStores, keyStores, Collections.unmodifiableList(all));
+            shardSet.migrateLegacyRows();
+            return shardSet;
+        } catch (SQLException | RuntimeException e) {
+            all.forEach(SQLiteStore::close);
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the store of the main database file.
+     *
+     * @return the main store.
+     */
+    SQLiteStore getMain() {
+        return main;
+    }
+
+    /**
+     * Gets the store holding the table, or the rows of the given key for a table split by key.
+     *
+     * @param tableName the name of the table.
+     * @param shardKey the shard key of the current operation, a {@link Slot}, or {@code null}.
+     * @return the store to use.
+     * @throws SQLException if the table is split by key and no shard key is set.
+     */
+    SQLiteStore storeFor(String tableName, Object shardKey) throws SQLException {
+        SQLiteStore[] stores = keyStores.get(tableName);
+        if (stores != null) {
+            if (shardKey == null) {
+                throw new SQLException("Table " + tableName + " is sharded by key; run the operation with a shard key"
+                        + " or on all shards");
+            }
+            return stores[shardKey instanceof Slot ? ((Slot) shardKey).index : shardIndex(tableName, shardKey)];
+        }
+        SQLiteStore store = tableStores.get(tableName);
+        return store != null ? store : main;
+    }
+
+    /**
+     * Borrows a read connection for the table: from the store holding the table or the rows of the shard key,
+     * or, for a table split by key read without a shard key, a connection reading the rows of all its shards.
+     *
+     * @param tableName the name of the table.
+     * @param shardKey the shard key of the current operation, a {@link Slot}, or {@code null}.
+     * @return a leased read-only connection.
+     * @throws SQLException if no connection is available.
+     */
+    Connection getReadConnection(String tableName, Object shardKey) throws SQLException {
+        if (shardKey == null && keyStores.containsKey(tableName)) {
+            return unionPool(tableName).getConnection();
+        }
+        return storeFor(tableName, shardKey).getReadConnection();
+    }
+
+    /**
+     * Checks whether the table lives outside the main database file.
+     *
+     * @param tableName the name of the table.
+     * @return {@code true} if the table is stored in shard files.
+     */
+    boolean isSharded(String tableName) {
+        return keyStores.containsKey(tableName) || tableStores.containsKey(tableName);
+    }
+
+    /**
+     * Gets the number of shard files the rows of the table are split across.
+     *
+     * @param tableName the name of the table.
+     * @return the shard count, 1 if the table is not split by key.
+     */
+    int getShardCount(String tableName) {
+        SQLiteStore[] stores = keyStores.get(tableName);
+        return stores == null ? 1 : stores.length;
+    }
+
+    /**
+     * Gets the shard of a key. Keys are hashed by their {@link #shardKeyText(Object) normalized text form}, so the
+     * mapping is stable across restarts and does not depend on whether the key was read from a column or given
+     * by the caller.
+     *
+     * @param tableName the name of the table.
+     * @param key the row key.
+     * @return the shard index, 0 if the table is not split by key.
+     */
+    int shardIndex(String tableName, Object key) {
+        SQLiteStore[] stores = keyStores.get(tableName);
+        if (stores == null || key == null) {
+            return 0;
+        }
+        return Math.floorMod(shardKeyText(key).hashCode(), stores.length);
+    }
+
+    /**
+     * Converts a shard key to the text that is hashed. Integral numbers of any type, including integral
+     * floating-point values such as the {@code 5.0} SQLite may return for a REAL column, become their decimal
+     * integer form; booleans become {@code 1} or {@code 0} as SQLite stores them. Byte arrays are hashed by content:
+     * 16 bytes as the {@link UUID} they encode with {@link ColumnCodecs#UUID_BINARY}, so binary UUID columns route
+     * like the UUID keys of their entities, and other lengths as hexadecimal text.
+     *
+     * @param key the row key, not {@code null}.
+     * @return the normalized key text.
+     */
+    static String shardKeyText(Object key) {
+        if (key instanceof byte[]) {
+            byte[] bytes = (byte[]) key;
+            return bytes.length == 16 ? ColumnCodecs.UUID_BINARY.decode(bytes).toString() : HexFormat.of().formatHex(bytes);
+        }
+        if (key instanceof Byte || key instanceof Short || key instanceof Integer || key instanceof Long) {
+            return Long.toString(((Number) key).longValue());
+        }
+        if (key instanceof Double || key instanceof Float) {
+            double value = ((Number) key).doubleValue();
+            if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 0x1p63) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+        if (key instanceof BigDecimal || key instanceof BigInteger) {
+            BigDecimal value = key instanceof BigInteger ? new BigDecimal((BigInteger) key) : (BigDecimal) key;
+            return value.signum() == 0 ? "0" : value.stripTrailingZeros().toPlainString();
+        }
+        if (key instanceof Boolean) {
+            return (Boolean) key ? "1" : "0";
+        }
+        return ChangeLog.keyText(key);
+    }
+
+    /**
+     * Gets every distinct store, the main store first.
+     *
+     * @return the stores.
+     */
+    List<SQLiteStore> getStores() {
+        return all;
+    }
+
+    /**
+     * Pings the read pools of all stores and replaces stale connections.
+     *
+     * @return the number of read connections reopened.
+     * @throws SQLException if a store is closed or cannot open a read connection.
+     */
+    int keepAlive() throws SQLException {
+        int reopened = 0;
+        for (SQLiteStore store : all) {
+            reopened += store.keepAlive();
+        }
+        for (ConnectionPool pool : unionPools.values()) {
+            reopened += pool.keepAlive();
+        }
+        return reopened;
+    }
+
+    /**
+     * Finishes the queued writes of all stores and closes them.
+     */
+    void close() {
+        unionPools.values().forEach(ConnectionPool::close);
+        unionPools.clear();
+        all.forEach(SQLiteStore::close);
+    }
+
+    /**
+     * Gets the pool of connections reading all shards of a table split by key, starting it on first use.
+     *
+     * @param tableName the name of the table.
+     * @return the union read pool.
+     */
+    private ConnectionPool unionPool(String tableName) {
+        return unionPools.computeIfAbsent(tableName, name -> {
+            PoolConfig poolConfig = new PoolConfig(1, config.getReadPoolSize());
+            poolConfig.setMaxLifetimeMillis(0L);
+            poolConfig.setStatementCacheSize(config.getStatementCacheSize());
+            ConnectionPool pool = new ConnectionPool(plugin, "sqlite-union-" + name, poolConfig,
+                    () -> openUnionConnection(name), statementCacheStats);
+            pool.start(scheduler, worker);
+            return pool;
+        });
+    }
+
+    /**
+     * Opens a read-only connection that attaches every shard file of a table split by key and shadows the table
+     * with a temporary view of the rows of all shards.
+     *
+     * @param tableName the name of the table.
+     * @return the new connection.
+     * @throws SQLException if the connection cannot be opened.
+     */
+    private Connection openUnionConnection(String tableName) throws SQLException {
+        SQLiteStore[] stores = keyStores.get(tableName);
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + config.getBusyTimeoutMillis());
+            List<String> selects = new ArrayList<>(stores.length);
+            for (int i = 0; i < stores.length; i++) {
+                try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS shard" + i)) {
+                    attach.setString(1, stores[i].getFile().getAbsolutePath());
+                    attach.execute();
+                }
+                selects.add("SELECT * FROM shard" + i + "." + quote(tableName));
+            }
+            statement.execute("CREATE TEMP VIEW " + quote(tableName) + " AS " + String.join(" UNION ALL ", selects));
+            statement.execute("PRAGMA query_only = ON");
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Moves the rows of sharded tables that are still in the main database file, written before the table was
+     * sharded, to the shard files. The table in the main file is then renamed to {@code <table>_unsharded} instead
+     * of being dropped, so it is moved only once but stays available as a backup until it is dropped by hand. The table and
+     * its indexes are created in the shard files from the schema of the main file first. Rows of a table split by
+     * key are routed by their first primary key column, or their first column without a primary key. Rows are
+     * copied with {@code INSERT OR IGNORE}, so an interrupted move can run again.
+     *
+     * @throws SQLException if the rows cannot be moved; the table is then kept in the main file under its name.
+     */
+    private void migrateLegacyRows() throws SQLException {
+        List<String> tableNames = new ArrayList<>(tableStores.keySet());
+        tableNames.addAll(keyStores.keySet());
+        for (String tableName : tableNames) {
+            List<String> schema = main.write(conn -> legacySchema(conn, tableName));
+            if (schema.isEmpty()) {
+                continue;
+            }
+            SQLiteStore[] targets = keyStores.containsKey(tableName) ? keyStores.get(tableName)
+                    : new SQLiteStore[] { tableStores.get(tableName) };
+            for (SQLiteStore target : targets) {
+                target.write(conn -> {
+                    try (Statement statement = conn.createStatement()) {
+                        for (String sql : schema) {
+                            statement.execute(sql.replaceFirst("^CREATE (UNIQUE )?(TABLE|INDEX) ",
+                                    "CREATE $1$2 IF NOT EXISTS "));
+                        }
+                    }
+                    return null;
+                });
+            }
+            long moved = main.write(conn -> moveRows(conn, tableName, targets));
+            String backup = main.write(conn -> renameLegacyTable(conn, tableName));
+            plugin.getLogger().info("Moved " + moved + " rows of table " + tableName + " to its shard files;"
+                    + " the original rows are kept in table " + backup + " of the main file until it is dropped");
+        }
+    }
+
+    /**
+     * Reads the statements creating a table and its indexes from the main database file.
+     *
+     * @param conn the write connection of the main file.
+     * @param tableName the name of the table.
+     * @return the statements, the table first; empty if the main file does not hold the table.
+     * @throws SQLException if the schema cannot be read.
+     */
+    private static List<String> legacySchema(Connection conn, String tableName) throws SQLException {
+        List<String> schema = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT sql FROM sqlite_master WHERE tbl_name = ?"
+                + " AND type IN ('table', 'index') AND sql IS NOT NULL ORDER BY type = 'index'")) {
+            ps.setString(1, tableName);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    schema.add(rs.getString(1));
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Copies the rows of a table from the main database file to its shard files in batches.
+     *
+     * @param conn the write connection of the main file.
+     * @param tableName the name of the table.
+     * @param targets the stores of the shard files, in shard order.
+     * @return the number of rows read from the main file.
+     * @throws SQLException if the rows cannot be copied.
+     */
+    private long moveRows(Connection conn, String tableName, SQLiteStore[] targets) throws SQLException {
+        long moved = 0;
+        try (Statement statement = conn.createStatement()) {
+            int keyIndex = primaryKeyIndex(conn, tableName);
+            try (ResultSet rs = statement.executeQuery("SELECT * FROM " + quote(tableName))) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                List<String> columns = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++) {
+                    columns.add(quote(metaData.getColumnName(i)));
+                }
+                String insert = "INSERT OR IGNORE INTO " + quote(tableName) + " (" + String.join(", ", columns)
+                        + ") VALUES (" + String.join(", ", Collections.nCopies(columnCount, "?")) + ")";
+                List<List<Object[]>> batches = new ArrayList<>(targets.length);
+                for (int i = 0; i < targets.length; i++) {
+                    batches.add(new ArrayList<>());
+                }
+                while (rs.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    int shard = targets.length == 1 ? 0 : shardIndex(tableName, row[keyIndex]);
+                    List<Object[]> batch = batches.get(shard);
+                    batch.add(row);
+                    if (batch.size() >= MIGRATION_BATCH_SIZE) {
+                        insertRows(targets[shard], insert, batch);
+                    }
+                    moved++;
+                }
+                for (int i = 0; i < targets.length; i++) {
+                    insertRows(targets[i], insert, batches.get(i));
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Renames a moved table of the main database file to {@code <table>_unsharded}, or
+     * {@code <table>_unsharded_<n>} if that name is taken by the backup of an earlier move.
+     *
+     * @param conn the write connection of the main file.
+     * @param tableName the name of the moved table.
+     * @return the new name of the table.
+     * @throws SQLException if the table cannot be renamed.
+     */
+    private static String renameLegacyTable(Connection conn, String tableName) throws SQLException {
+        String backup = tableName + "_unsharded";
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM sqlite_master WHERE name = ?")) {
+            for (int suffix = 2; ; suffix++) {
+                ps.setString(1, backup);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        break;
+                    }
+                }
+                backup = tableName + "_unsharded_" + suffix;
+            }
+        }
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("ALTER TABLE " + quote(tableName) + " RENAME TO " + quote(backup));
+        }
+        return backup;
+    }
+
+    /**
+     * Finds the column used to route the rows of a table to their shard.
+     *
+     * @param conn a connection of the main file.
+     * @param tableName the name of the table.
+     * @return the zero-based position of the first primary key column, or 0 if the table has no primary key.
+     * @throws SQLException if the table information cannot be read.
+     */
+    private static int primaryKeyIndex(Connection conn, String tableName) throws SQLException {
+        try (Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("PRAGMA table_info(" + quote(tableName) + ")")) {
+            while (rs.next()) {
+                if (rs.getInt("pk") == 1) {
+                    return rs.getInt("cid");
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes a batch of moved rows to a shard file in one transaction and empties the batch.
+     *
+     * @param target the store of the shard file.
+     * @param insert the insert statement.
+     * @param rows the rows to write.
+     * @throws SQLException if the rows cannot be written.
+     */
+    private static void insertRows(SQLiteStore target, String insert, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        target.write(conn -> {
+            DatabaseManager.runInTransaction(conn, c -> {
+                try (PreparedStatement ps = c.prepareStatement(insert)) {
+                    for (Object[] row : rows) {
+                        for (int i = 0; i < row.length; i++) {
+                            ps.setObject(i + 1, row[i]);
+                        }
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            });
+            return null;
+        });
+        rows.clear();
+    }
+
+    /**
+     * Quotes an identifier for SQLite.
+     *
+     * @param identifier the table or column name.
+     * @return the quoted identifier.
+     */
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Opens one store and adds it to the list of opened stores.
+     *
+     * @param plugin the plugin owning the database.
+     * @param file the database file.
+     * @param config the store settings.
+     * @param statementCacheStats the counters updated by the statement caches of the store.
+     * @param scheduler the scheduler timing read pool housekeeping.
+     * @param worker the executor running read pool housekeeping.
+     * @param opened the stores opened so far.
+     * @return the opened store.
+     * @throws SQLException if the file cannot be opened.
+     */
+    private static SQLiteStore openStore(Plugin plugin, File file, SQLiteConfig config, StatementCacheStats statementCacheStats,
+            ScheduledExecutorService scheduler, Executor worker, List<SQLiteStore> opened) throws SQLException {
+        SQLiteStore store = new SQLiteStore(plugin, file, config, statementCacheStats);
+        opened.add(store);
+        store.open(scheduler, worker);
+        return store;
+    }
+
+    /**
+     * Gets the shard slots of a table, one per shard file.
+     *
+     * @param tableName the name of the table.
+     * @return the slots in shard order, a single slot if the table is not split by key.
+     */
+    List<Slot> slotsOf(String tableName) {
+        Slot[] slots = new Slot[getShardCount(tableName)];
+        Arrays.setAll(slots, Slot::new);
+        return Arrays.asList(slots);
+    }
+
+    /**
+     * Shard key addressing one shard of a table split by key directly, used to run work on every shard.
+     */
+    static final class Slot {
+        private final int index;
+
+        /**
+         * Creates a slot for the given shard.
+         *
+         * @param index the shard index.
+         */
+        Slot(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return "shard " + index;
+        }
+    }
+}
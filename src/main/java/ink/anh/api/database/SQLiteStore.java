@@ -0,0 +1,245 @@
+package ink.anh.api.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bukkit.plugin.Plugin;
+
+import ink.anh.api.database.AbstractTable.SQLFunction;
+
+/**
+ * One SQLite database file opened in WAL journal mode.
+ * All mutations run on a persistent write connection owned by a single writer thread, so concurrent writers
+ * queue up instead of failing with {@code SQLITE_BUSY}. Reads are served by a pool of read-only connections,
+ * which WAL mode allows to run alongside the writer.
+ */
+final class SQLiteStore {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30L;
+
+    private final Plugin plugin;
+    private final File file;
+    private final SQLiteConfig config;
+    private final StatementCacheStats statementCacheStats;
+    private final ReentrantLock writerLock = new ReentrantLock(true);
+    private Connection writeConnection;
+    private StatementCache writeStatementCache;
+    private ExecutorService writer;
+    private ConnectionPool readPool;
+
+    /**
+     * Creates a store for the given database file. Nothing is opened until {@link #open(ScheduledExecutorService)}.
+     *
+     * @param plugin the plugin owning the database.
+     * @param file the database file.
+     * @param config the pragma and pool settings.
+     * @param statementCacheStats the counters updated by the statement caches of this store.
+     */
+    SQLiteStore(Plugin plugin, File file, SQLiteConfig config, StatementCacheStats statementCacheStats) {
+        this.plugin = plugin;
+        this.file = file;
+        this.config = config;
+        this.statementCacheStats = statementCacheStats;
+    }
+
+    /**
+     * Opens the write connection, starts the writer thread and the read pool.
+     *
+     * @param scheduler the scheduler timing read pool housekeeping.
+     * @param worker the executor running read pool housekeeping.
+     * @throws SQLException if the database cannot be opened.
+     */
+    void open(ScheduledExecutorService scheduler, Executor worker) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLite JDBC driver is not available", e);
+        }
+        writeConnection = openConnection(false);
+        if (config.getStatementCacheSize() > 0) {
+            writeStatementCache = new StatementCache(writeConnection, config.getStatementCacheSize(), statementCacheStats);
+        }
+        String threadName = plugin.getName() + "-sqlite-writer-" + file.getName();
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        PoolConfig readPoolConfig = new PoolConfig(1, config.getReadPoolSize());
+        readPoolConfig.setMaxLifetimeMillis(0L);
+        readPoolConfig.setStatementCacheSize(config.getStatementCacheSize());
+        readPool = new ConnectionPool(plugin, "sqlite-read-" + file.getName(), readPoolConfig,
+                () -> openConnection(true), statementCacheStats);
+        readPool.start(scheduler, worker);
+    }
+
+    /**
+     * Gets the database file of this store.
+     *
+     * @return the database file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Runs the given work on the write connection from the writer thread and waits for its result.
+     * Work submitted from a thread that already holds the write connection runs inline.
+     *
+     * @param <R> the type of the result.
+     * @param work the work to run.
+     * @return the result of the work.
+     * @throws SQLException if the work fails or the store is closed.
+     */
+    <R> R write(SQLFunction<Connection, R> work) throws SQLException {
+        if (writerLock.isHeldByCurrentThread()) {
+            return work.apply(writeConnection);
+        }
+        Future<R> future;
+        try {
+            future = writer.submit(() -> {
+                try (Connection conn = getWriteConnection()) {
+                    return work.apply(conn);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new SQLException("SQLite writer for " + file.getName() + " is closed", e);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the SQLite writer", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("SQLite writer task failed", cause);
+        }
+    }
+
+    /**
+     * Leases the write connection to the calling thread. The writer thread is blocked until the lease is closed,
+     * so the lease must be closed on the thread that obtained it.
+     *
+     * @return a lease over the write connection.
+     */
+    Connection getWriteConnection() {
+        writerLock.lock();
+        ConnectionLease lease = new ConnectionLease(writeConnection, writeStatementCache, l -> releaseWriteConnection(), false);
+        return lease.getProxy();
+    }
+
+    /**
+     * Borrows a read-only connection from the read pool.
+     *
+     * @return a leased read-only connection.
+     * @throws SQLException if no connection is available.
+     */
+    Connection getReadConnection() throws SQLException {
+        return readPool.getConnection();
+    }
+
+    /**
+     * Pings the idle read connections and replaces stale ones.
+     *
+     * @return the number of read connections reopened.
+     * @throws SQLException if the write connection is closed or no read connection can be opened.
+     */
+    int keepAlive() throws SQLException {
+        if (writeConnection.isClosed()) {
+            throw new SQLException("SQLite write connection to " + file.getName() + " is closed", "08003");
+        }
+        return readPool.keepAlive();
+    }
+
+    /**
+     * Stops accepting writes, waits for queued writes to finish and closes all connections.
+     */
+    void close() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    plugin.getLogger().warning("SQLite writer for " + file.getName() + " did not finish pending writes in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (readPool != null) {
+            readPool.close();
+        }
+        if (writeStatementCache != null) {
+            writeStatementCache.close();
+        }
+        try {
+            if (writeConnection != null && !writeConnection.isClosed()) {
+                writeConnection.close();
+            }
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to close SQLite connection");
+        }
+    }
+
+    /**
+     * Restores the write connection to auto-commit mode and hands it back to the writer thread.
+     */
+    private void releaseWriteConnection() {
+        try {
+            if (!writeConnection.getAutoCommit()) {
+                writeConnection.rollback();
+                writeConnection.setAutoCommit(true);
+            }
+            if (writeStatementCache != null) {
+                writeStatementCache.releaseAll();
+            }
+        } catch (SQLException e) {
+            ErrorLogger.log(plugin, e, "Failed to reset SQLite write connection");
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Opens a connection to the database file and applies the configured pragmas.
+     *
+     * @param readOnly whether the connection should reject writes.
+     * @return the new connection.
+     * @throws SQLException if the connection cannot be opened.
+     */
+    private Connection openConnection(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + config.getBusyTimeoutMillis());
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = " + config.getSynchronous());
+            statement.execute("PRAGMA cache_size = " + config.getCacheSize());
+            statement.execute("PRAGMA mmap_size = " + config.getMmapSize());
+            if (readOnly) {
+                statement.execute("PRAGMA query_only = ON");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+}
@@ -0,0 +1,145 @@
+package ink.anh.api.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import ink.anh.api.database.AbstractTable.SQLConsumer;
+
+/**
+ * Versioned schema migrations of the registered tables.
+ * Migrations are registered per table class through {@link AbstractTableRegistrar#registerMigrations(SchemaMigrations)}.
+ * The applied version of every table is kept in the {@code schema_version} metadata table, so on startup only
+ * pending steps run, each table's steps in a single transaction. When all tables are up to date the whole check
+ * costs one query regardless of the number of tables.
+ * <p>
+ * MySQL commits DDL statements implicitly, so on MySQL a failing step leaves the earlier DDL of the same run
+ * applied; the version is only recorded when every pending step succeeded.
+ */
+public class SchemaMigrations {
+
+    /**
+     * Name of the metadata table, without the table prefix.
+     */
+    public static final String VERSION_TABLE = "schema_version";
+
+    private final Map<Class<?>, SortedMap<Integer, SQLConsumer<Connection>>> migrations = new LinkedHashMap<>();
+
+    /**
+     * Constructs an empty {@code SchemaMigrations} registry.
+     */
+    public SchemaMigrations() {
+    }
+
+    /**
+     * Registers a migration step of a table. Steps run in ascending version order; version numbers start at 1.
+     *
+     * @param tableClass the class the table is registered with in {@link DatabaseManager#registerTable(Class, AbstractTable)}.
+     * @param version the schema version this step migrates the table to.
+     * @param step the SQL operation performing the migration.
+     */
+    public void register(Class<?> tableClass, int version, SQLConsumer<Connection> step) {
+        if (version < 1) {
+            throw new IllegalArgumentException("Migration versions start at 1");
+        }
+        SortedMap<Integer, SQLConsumer<Connection>> steps = migrations.computeIfAbsent(tableClass, c -> new TreeMap<>());
+        if (steps.putIfAbsent(version, step) != null) {
+            throw new IllegalArgumentException("Duplicate migration version " + version + " for " + tableClass.getName());
+        }
+    }
+
+    /**
+     * Checks whether migrations are registered for the specified table class.
+     *
+     * @param tableClass the class the table is registered with.
+     * @return {@code true} if the table is managed by migrations.
+     */
+    public boolean hasMigrations(Class<?> tableClass) {
+        return migrations.containsKey(tableClass);
+    }
+
+    /**
+     * Checks whether no migrations are registered.
+     *
+     * @return {@code true} if the registry is empty.
+     */
+    public boolean isEmpty() {
+        return migrations.isEmpty();
+    }
+
+    /**
+     * Applies all pending migration steps of the registered tables.
+     * A table whose steps fail is rolled back and logged; the remaining tables are still migrated.
+     * The steps of a {@link DatabaseManager#isSharded(String) sharded} table run on every shard before its
+     * version is recorded in the main database.
+     *
+     * @param dbManager the database manager holding the tables.
+     * @param tables the registered tables by class.
+     * @throws SQLException if the metadata table cannot be created or read.
+     */
+    void migrate(DatabaseManager dbManager, Map<Class<?>, AbstractTable<?>> tables) throws SQLException {
+        String versionTable = dbManager.getTablePrefix() + VERSION_TABLE;
+        Map<String, Integer> applied = new HashMap<>();
+        dbManager.executeTransaction(versionTable, conn -> {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + versionTable
+                        + " (table_name VARCHAR(128) NOT NULL PRIMARY KEY, version INT NOT NULL)");
+                try (ResultSet rs = statement.executeQuery("SELECT table_name, version FROM " + versionTable)) {
+                    while (rs.next()) {
+                        applied.put(rs.getString(1), rs.getInt(2));
+                    }
+                }
+            }
+        });
+
+        for (Map.Entry<Class<?>, SortedMap<Integer, SQLConsumer<Connection>>> entry : migrations.entrySet()) {
+            AbstractTable<?> table = tables.get(entry.getKey());
+            if (table == null) {
+                dbManager.getManager().getPlugin().getLogger().warning(
+                        "Migrations registered for unknown table " + entry.getKey().getName());
+                continue;
+            }
+            Integer current = applied.get(table.dbName);
+            int currentVersion = current == null ? 0 : current;
+            SortedMap<Integer, SQLConsumer<Connection>> pending = entry.getValue().tailMap(currentVersion + 1);
+            if (pending.isEmpty()) {
+                continue;
+            }
+            int targetVersion = pending.lastKey();
+            SQLConsumer<Connection> steps = conn -> {
+                for (SQLConsumer<Connection> step : pending.values()) {
+                    step.accept(conn);
+                }
+            };
+            boolean sharded = dbManager.isSharded(table.dbName);
+            try {
+                if (sharded) {
+                    dbManager.executeOnAllShards(table.dbName, steps);
+                }
+                dbManager.executeTransaction(sharded ? versionTable : table.dbName, conn -> {
+                    if (!sharded) {
+                        steps.accept(conn);
+                    }
+                    String sql = current == null
+                            ? "INSERT INTO " + versionTable + " (version, table_name) VALUES (?, ?)"
+                            : "UPDATE " + versionTable + " SET version = ? WHERE table_name = ?";
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        ps.setInt(1, targetVersion);
+                        ps.setString(2, table.dbName);
+                        ps.executeUpdate();
+                    }
+                });
+            } catch (SQLException e) {
+                ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to migrate table " + table.dbName
+                        + " from version " + currentVersion + " to " + targetVersion);
+            }
+        }
+    }
+}
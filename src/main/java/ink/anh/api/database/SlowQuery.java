@@ -0,0 +1,65 @@
+package ink.anh.api.database;
+
+/**
+ * A statement that took longer than the slow query threshold of {@link QueryMetrics}.
+ * Only the SQL text is kept; parameter values are never recorded.
+ */
+public class SlowQuery {
+
+    private final long timestamp;
+    private final String tableName;
+    private final String sql;
+    private final long durationMicros;
+
+    /**
+     * Constructs an instance of {@code SlowQuery}.
+     *
+     * @param timestamp the epoch time the statement finished, in milliseconds.
+     * @param tableName the name of the table the statement ran for.
+     * @param sql the SQL text of the statement.
+     * @param durationMicros the duration of the statement in microseconds.
+     */
+    SlowQuery(long timestamp, String tableName, String sql, long durationMicros) {
+        this.timestamp = timestamp;
+        this.tableName = tableName;
+        this.sql = sql;
+        this.durationMicros = durationMicros;
+    }
+
+    /**
+     * Gets the time the statement finished.
+     *
+     * @return the epoch time in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the name of the table the statement ran for.
+     *
+     * @return the table name.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Gets the SQL text of the statement, without parameter values. While statement recording is off, slow
+     * transactions and queries are logged instead, with their operation name in brackets, such as {@code [query]}.
+     *
+     * @return the SQL text.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Gets the duration of the statement.
+     *
+     * @return the duration in microseconds.
+     */
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+}
@@ -0,0 +1,308 @@
+package ink.anh.api.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SQL dialects supported by the library. Generates the statements whose syntax differs between
+ * {@link MySQLDatabaseManager} and {@link SQLiteDatabaseManager}.
+ */
+public enum SqlDialect {
+
+    /**
+     * MySQL and MariaDB.
+     */
+    MYSQL {
+        @Override
+        public String keysetPredicate(String orderColumn, String tieColumn, boolean descending) {
+            if (tieColumn == null) {
+                return orderColumn + (descending ? " < ?" : " > ?");
+            }
+            // Expanded form: MySQL does not always use an index range scan for row constructor comparisons
+            String op = descending ? " < ?" : " > ?";
+            return "(" + orderColumn + op + " OR (" + orderColumn + " = ? AND " + tieColumn + op + "))";
+        }
+
+        @Override
+        public int keysetParameterCount(boolean tieBreaker) {
+            return tieBreaker ? 3 : 1;
+        }
+
+        @Override
+        public String createIndexSql(String indexName, String tableName, String... columns) {
+            return "CREATE INDEX " + indexName + " ON " + tableName + " (" + String.join(", ", columns) + ")";
+        }
+
+        @Override
+        public boolean isDuplicateIndex(SQLException e) {
+            return e.getErrorCode() == 1061;
+        }
+
+        @Override
+        public String upsertSql(String tableName, String[] columns, String[] keyColumns, int rows) {
+            List<String> updates = new ArrayList<>();
+            for (String column : updateColumns(columns, keyColumns)) {
+                updates.add(column + " = VALUES(" + column + ")");
+            }
+            if (updates.isEmpty()) {
+                // Nothing to update: a no-op assignment keeps the existing row
+                updates.add(keyColumns[0] + " = " + keyColumns[0]);
+            }
+            return insertValuesSql(tableName, columns, rows) + " ON DUPLICATE KEY UPDATE " + String.join(", ", updates);
+        }
+
+        @Override
+        public int getMaxParameters() {
+            return 65535;
+        }
+
+        @Override
+        protected boolean isTransientCode(SQLException e) {
+            // 1213: deadlock, 1205: lock wait timeout
+            return e.getErrorCode() == 1213 || e.getErrorCode() == 1205 || "40001".equals(e.getSQLState());
+        }
+    },
+
+    /**
+     * SQLite 3.15 or newer.
+     */
+    SQLITE {
+        @Override
+        public String keysetPredicate(String orderColumn, String tieColumn, boolean descending) {
+            String op = descending ? " < " : " > ";
+            if (tieColumn == null) {
+                return orderColumn + op + "?";
+            }
+            return "(" + orderColumn + ", " + tieColumn + ")" + op + "(?, ?)";
+        }
+
+        @Override
+        public int keysetParameterCount(boolean tieBreaker) {
+            return tieBreaker ? 2 : 1;
+        }
+
+        @Override
+        public String createIndexSql(String indexName, String tableName, String... columns) {
+            return "CREATE INDEX IF NOT EXISTS " + indexName + " ON " + tableName + " (" + String.join(", ", columns) + ")";
+        }
+
+        @Override
+        public boolean isDuplicateIndex(SQLException e) {
+            return false;
+        }
+
+        @Override
+        public String upsertSql(String tableName, String[] columns, String[] keyColumns, int rows) {
+            List<String> updates = new ArrayList<>();
+            for (String column : updateColumns(columns, keyColumns)) {
+                updates.add(column + " = excluded." + column);
+            }
+            String conflict = " ON CONFLICT (" + String.join(", ", keyColumns) + ")";
+            return insertValuesSql(tableName, columns, rows) + conflict
+                    + (updates.isEmpty() ? " DO NOTHING" : " DO UPDATE SET " + String.join(", ", updates));
+        }
+
+        @Override
+        public int getMaxParameters() {
+            // SQLITE_MAX_VARIABLE_NUMBER of builds older than 3.32
+            return 999;
+        }
+
+        @Override
+        protected boolean isTransientCode(SQLException e) {
+            // Primary result codes 5: SQLITE_BUSY, 6: SQLITE_LOCKED; the upper bits hold the extended code
+            int primaryCode = e.getErrorCode() & 0xff;
+            return primaryCode == 5 || primaryCode == 6;
+        }
+    };
+
+    /**
+     * Builds the {@code WHERE} predicate that seeks past the last row of the previous page.
+     * The parameters are bound by {@link #bindKeyset(PreparedStatement, int, PageToken)}.
+     *
+     * @param orderColumn the column the rows are ordered by.
+     * @param tieColumn a unique column breaking ties in {@code orderColumn}, or {@code null} if it is unique.
+     * @param descending whether the rows are ordered from the highest value.
+     * @return the SQL predicate.
+     */
+    public abstract String keysetPredicate(String orderColumn, String tieColumn, boolean descending);
+
+    /**
+     * Gets the number of parameters in the predicate built by {@link #keysetPredicate(String, String, boolean)}.
+     *
+     * @param tieBreaker whether a tie-breaking column is used.
+     * @return the number of parameters.
+     */
+    public abstract int keysetParameterCount(boolean tieBreaker);
+
+    /**
+     * Builds a statement creating an index. For SQLite the statement does nothing if the index exists;
+     * for MySQL a duplicate index is reported as an error recognized by {@link #isDuplicateIndex(SQLException)}.
+     *
+     * @param indexName the name of the index.
+     * @param tableName the name of the table.
+     * @param columns the indexed columns in order.
+     * @return the SQL statement.
+     */
+    public abstract String createIndexSql(String indexName, String tableName, String... columns);
+
+    /**
+     * Checks whether the error was caused by creating an index that already exists.
+     *
+     * @param e the error raised by the statement from {@link #createIndexSql(String, String, String...)}.
+     * @return {@code true} if the index already exists.
+     */
+    public abstract boolean isDuplicateIndex(SQLException e);
+
+    /**
+     * Builds an upsert statement inserting {@code rows} rows and updating the non-key columns of rows that
+     * already exist: {@code INSERT ... ON DUPLICATE KEY UPDATE} on MySQL and {@code INSERT ... ON CONFLICT DO UPDATE}
+     * on SQLite 3.24 or newer. The parameters are the values of {@code columns}, row by row.
+     *
+     * @param tableName the name of the table.
+     * @param columns the inserted columns, including the key columns.
+     * @param keyColumns the columns of the primary key or unique index that detects existing rows.
+     * @param rows the number of rows in the {@code VALUES} clause.
+     * @return the SQL statement.
+     */
+    public abstract String upsertSql(String tableName, String[] columns, String[] keyColumns, int rows);
+
+    /**
+     * Gets the maximum number of parameters a single statement may have.
+     *
+     * @return the parameter limit.
+     */
+    public abstract int getMaxParameters();
+
+    /**
+     * Builds {@code INSERT INTO table (columns) VALUES (?, ...), ...} with the given number of rows.
+     *
+     * @param tableName the name of the table.
+     * @param columns the inserted columns.
+     * @param rows the number of rows.
+     * @return the SQL statement.
+     */
+    private static String insertValuesSql(String tableName, String[] columns, int rows) {
+        String row = "(" + String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+        return "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES "
+                + String.join(", ", Collections.nCopies(rows, row));
+    }
+
+    /**
+     * Gets the columns overwritten when a row already exists.
+     *
+     * @param columns the inserted columns.
+     * @param keyColumns the key columns.
+     * @return the inserted columns that are not key columns.
+     */
+    private static List<String> updateColumns(String[] columns, String[] keyColumns) {
+        List<String> keys = Arrays.asList(keyColumns);
+        List<String> updates = new ArrayList<>();
+        for (String column : columns) {
+            if (!keys.contains(column)) {
+                updates.add(column);
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Checks whether the error means the transaction was rolled back because of contention, so running it again
+     * may succeed: a deadlock or lock wait timeout on MySQL, a busy or locked database on SQLite.
+     * Chained causes and next exceptions are inspected as well.
+     *
+     * @param e the error raised by a transaction.
+     * @return {@code true} if the transaction can be retried.
+     */
+    public boolean isTransient(SQLException e) {
+        for (SQLException current : causes(e)) {
+            if (current instanceof SQLTransactionRollbackException || isTransientCode(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the error was caused by a failed or lost connection. The outcome of a transaction that
+     * failed this way is unknown, so it is only safe to retry idempotent operations.
+     *
+     * @param e the error raised by a transaction.
+     * @return {@code true} if the connection failed.
+     */
+    public boolean isConnectionFailure(SQLException e) {
+        for (SQLException current : causes(e)) {
+            String state = current.getSQLState();
+            if (current instanceof SQLTransientConnectionException || current instanceof SQLRecoverableException
+                    || (state != null && state.startsWith("08"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the vendor error code of a single exception for a transient failure.
+     *
+     * @param e the exception to check.
+     * @return {@code true} if the code reports a transient failure.
+     */
+    protected abstract boolean isTransientCode(SQLException e);
+
+    /**
+     * Collects the exception with its chained {@link SQLException} causes and next exceptions.
+     *
+     * @param e the top-level exception.
+     * @return the exceptions in the chain, without duplicates.
+     */
+    private static Set<SQLException> causes(SQLException e) {
+        Set<SQLException> chain = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<SQLException> pending = new ArrayDeque<>();
+        pending.push(e);
+        while (!pending.isEmpty()) {
+            SQLException current = pending.pop();
+            if (!chain.add(current)) {
+                continue;
+            }
+            if (current.getCause() instanceof SQLException) {
+                pending.push((SQLException) current.getCause());
+            }
+            if (current.getNextException() != null) {
+                pending.push(current.getNextException());
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Binds the values of a page token to the parameters of the keyset predicate.
+     *
+     * @param ps the statement whose parameters are set.
+     * @param index the index of the first predicate parameter.
+     * @param token the token of the previous page.
+     * @return the index of the next parameter after the predicate.
+     * @throws SQLException if a parameter cannot be set.
+     */
+    public int bindKeyset(PreparedStatement ps, int index, PageToken token) throws SQLException {
+        int count = keysetParameterCount(token.getTieValue() != null);
+        AbstractTable.setParameter(ps, index++, token.getOrderValue());
+        if (count == 3) {
+            AbstractTable.setParameter(ps, index++, token.getOrderValue());
+        }
+        if (count > 1) {
+            AbstractTable.setParameter(ps, index++, token.getTieValue());
+        }
+        return index;
+    }
+}
@@ -0,0 +1,213 @@
+package ink.anh.api.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of prepared statements for one physical connection, keyed by SQL text.
+ * Statements are handed out as proxies whose {@code close()} clears the parameters and keeps the
+ * statement prepared for the next caller. Every checkout gets its own proxy, which fails once it has been
+ * closed, so a caller holding on to a released statement cannot reach the next caller's statement.
+ * A statement that is still in use when the same SQL is requested again is not shared; the second caller gets
+ * a regular, uncached statement.
+ */
+final class StatementCache {
+
+    private final Connection physical;
+    private final StatementCacheStats stats;
+    private final Map<String, CachedStatement> statements;
+
+    /**
+     * Creates a cache for the given connection.
+     *
+     * @param physical the connection owning the statements.
+     * @param maxSize the maximum number of statements kept prepared.
+     * @param stats the counters updated by this cache.
+     */
+    StatementCache(Connection physical, int maxSize, StatementCacheStats stats) {
+        this.physical = physical;
+        this.stats = stats;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                stats.recordEviction();
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared statement for the given SQL, reusing a cached one when it is free.
+     *
+     * @param sql the SQL text of the statement.
+     * @return the prepared statement.
+     * @throws SQLException if the statement cannot be prepared.
+     */
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null) {
+            if (cached.inUse) {
+                stats.recordMiss();
+                return physical.prepareStatement(sql);
+            }
+            stats.recordHit();
+            return cached.checkOut();
+        }
+        stats.recordMiss();
+        cached = new CachedStatement(sql, physical.prepareStatement(sql));
+        statements.put(sql, cached);
+        return cached.checkOut();
+    }
+
+    /**
+     * Releases statements that the previous lease holder left open, so the next holder can reuse them.
+     */
+    synchronized void releaseAll() {
+        for (CachedStatement cached : new ArrayList<>(statements.values())) {
+            if (cached.inUse) {
+                cached.release();
+            }
+        }
+    }
+
+    /**
+     * Closes all cached statements.
+     */
+    synchronized void close() {
+        List<CachedStatement> all = new ArrayList<>(statements.values());
+        statements.clear();
+        for (CachedStatement cached : all) {
+            cached.closePhysical();
+        }
+    }
+
+    /**
+     * A cached statement and the checkout currently using it.
+     */
+    private final class CachedStatement {
+        private final String sql;
+        private final PreparedStatement statement;
+        private Checkout checkout;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        /**
+         * Hands the statement out under a new proxy.
+         *
+         * @return the proxy of the checkout.
+         */
+        private PreparedStatement checkOut() {
+            inUse = true;
+            checkout = new Checkout(this);
+            return checkout.proxy;
+        }
+
+        /**
+         * Returns the statement to the cache, or closes it if it was evicted while in use.
+         */
+        private void release() {
+            if (checkout != null) {
+                checkout.released = true;
+                checkout = null;
+            }
+            inUse = false;
+            if (evicted) {
+                closePhysical();
+                return;
+            }
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                evicted = true;
+                statements.remove(sql);
+                closePhysical();
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                closePhysical();
+            }
+        }
+
+        private void closePhysical() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // The connection is being discarded or the statement is already gone
+            }
+        }
+    }
+
+    /**
+     * One use of a cached statement: the proxy handed to a caller, valid until it is closed or released.
+     */
+    private final class Checkout implements InvocationHandler {
+        private final CachedStatement cached;
+        private final PreparedStatement proxy;
+        private boolean released;
+
+        private Checkout(CachedStatement cached) {
+            this.cached = cached;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (StatementCache.this) {
+                        if (!released) {
+                            cached.release();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    synchronized (StatementCache.this) {
+                        return released || cached.statement.isClosed();
+                    }
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cached.statement + "]";
+                default:
+                    break;
+            }
+            synchronized (StatementCache.this) {
+                if (released) {
+                    throw new SQLException("Statement is closed");
+                }
+            }
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
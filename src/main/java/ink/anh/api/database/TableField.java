@@ -2,6 +2,8 @@ package ink.anh.api.database;
 
 /**
  * Represents a field in a database table with a key, field name, and field value.
+ * The value may be of any JDBC-compatible type; {@link #getFieldValue()} exposes it as a string
+ * for code written against the original string-only API.
  *
  * @param <T> the type of the key.
  */
@@ -9,7 +11,7 @@ public class TableField<T> {
 
     private T key;
     private String fieldName;
-    private String fieldValue;
+    private Object fieldValue;
 
     /**
      * Constructs an instance of {@code TableField} with the specified key, field name, and field value.
@@ -24,6 +26,19 @@ public class TableField<T> {
         this.fieldValue = fieldValue;
     }
 
+    /**
+     * Constructs an instance of {@code TableField} with the specified key, field name, and typed field value.
+     *
+     * @param key the key associated with the field.
+     * @param fieldName the name of the field.
+     * @param fieldValue the value of the field, for example a number, a boolean, a UUID or an enum constant.
+     */
+    public TableField(T key, String fieldName, Object fieldValue) {
+        this.key = key;
+        this.fieldName = fieldName;
+        this.fieldValue = fieldValue;
+    }
+
     /**
      * Gets the key associated with the field.
      *
@@ -61,11 +76,20 @@ public class TableField<T> {
     }
 
     /**
-     * Gets the value of the field.
+     * Gets the value of the field as a string.
      *
-     * @return the value of the field.
+     * @return the value of the field, or {@code null} if the value is {@code null}.
      */
     public String getFieldValue() {
+        return fieldValue == null ? null : fieldValue.toString();
+    }
+
+    /**
+     * Gets the typed value of the field.
+     *
+     * @return the value of the field.
+     */
+    public Object getValue() {
         return fieldValue;
     }
 
@@ -77,4 +101,13 @@ public class TableField<T> {
     public void setFieldValue(String fieldValue) {
         this.fieldValue = fieldValue;
     }
+
+    /**
+     * Sets the typed value of the field.
+     *
+     * @param fieldValue the value to be set.
+     */
+    public void setValue(Object fieldValue) {
+        this.fieldValue = fieldValue;
+    }
 }
@@ -0,0 +1,76 @@
+package ink.anh.api.database;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects pending field changes grouped by row key.
+ * Changing the same field of the same row twice keeps only the last value, and all changed fields of a row
+ * are written by {@link AbstractTable#updateFields(TableFieldBatch)} as a single {@code UPDATE} statement.
+ * The batch is thread-safe, so changes can be collected from several threads and written periodically.
+ *
+ * @param <K> the type of the row key.
+ */
+public class TableFieldBatch<K> {
+
+    private Map<K, Map<String, Object>> rows = new LinkedHashMap<>();
+
+    /**
+     * Constructs an empty {@code TableFieldBatch}.
+     */
+    public TableFieldBatch() {
+    }
+
+    /**
+     * Adds a field change to the batch.
+     *
+     * @param tableField the field change to be added.
+     */
+    public void add(TableField<K> tableField) {
+        set(tableField.getKey(), tableField.getFieldName(), tableField.getValue());
+    }
+
+    /**
+     * Adds a field change to the batch, replacing a pending change of the same field of the same row.
+     *
+     * @param key the key of the row.
+     * @param fieldName the name of the field.
+     * @param value the new value of the field.
+     */
+    public synchronized void set(K key, String fieldName, Object value) {
+        rows.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(fieldName, value);
+    }
+
+    /**
+     * Gets the number of rows with pending changes.
+     *
+     * @return the number of rows.
+     */
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    /**
+     * Checks whether the batch has no pending changes.
+     *
+     * @return {@code true} if the batch is empty.
+     */
+    public synchronized boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    /**
+     * Removes all pending changes from the batch and returns them.
+     *
+     * @return the pending changes: field values by field name, grouped by row key in insertion order.
+     */
+    public synchronized Map<K, Map<String, Object>> drain() {
+        if (rows.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<K, Map<String, Object>> drained = rows;
+        rows = new LinkedHashMap<>();
+        return drained;
+    }
+}
@@ -0,0 +1,354 @@
+package ink.anh.api.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ink.anh.api.database.AbstractTable.SQLConsumer;
+
+/**
+ * Buffers mutations of one table and writes them in batches.
+ * Instances are created through {@link DatabaseManager#createWriteBehindQueue(String, int, long)}.
+ * Mutations are identified by their SQL text and a key; a mutation enqueued again for the same key replaces
+ * the pending one (last write wins). Pending mutations are flushed in a single transaction using JDBC batching
+ * once {@code maxBatchSize} mutations are pending, every {@code flushIntervalMillis} and when the
+ * {@link DatabaseManager} is closed. A mutation that fails for a reason other than a lost connection or a
+ * transient error is logged and dropped, so it cannot hold back the mutations queued after it.
+ * For a table split by key across shards, each flush writes one transaction per shard with the key of its rows
+ * as shard key, so every mutation reaches the shard holding its row.
+ */
+public class WriteBehindQueue {
+
+    private final DatabaseManager dbManager;
+    private final String tableName;
+    private final int maxBatchSize;
+    private final Object lock = new Object();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> timer;
+
+    /**
+     * Constructs an instance of {@code WriteBehindQueue} for the specified table and starts its flush timer.
+     *
+     * @param dbManager the database manager executing the flushes.
+     * @param tableName the name of the table the mutations belong to.
+     * @param maxBatchSize the number of pending mutations that triggers a flush.
+     * @param flushIntervalMillis the maximum time a mutation stays buffered, in milliseconds.
+     */
+    WriteBehindQueue(DatabaseManager dbManager, String tableName, int maxBatchSize, long flushIntervalMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.dbManager = dbManager;
+        this.tableName = tableName;
+        this.maxBatchSize = maxBatchSize;
+        this.timer = dbManager.scheduleBackground(this::flushQuietly, flushIntervalMillis, flushIntervalMillis);
+    }
+
+    /**
+     * Buffers a mutation. A pending mutation with the same SQL and key is replaced and moves to the end of the queue.
+     *
+     * @param key the key of the affected row.
+     * @param sql the SQL statement of the mutation.
+     * @param binder sets the statement parameters of the mutation.
+     */
+    public void enqueue(Object key, String sql, SQLConsumer<PreparedStatement> binder) {
+        PendingKey pendingKey = new PendingKey(sql, key);
+        int size;
+        synchronized (lock) {
+            if (pending.remove(pendingKey) != null) {
+                coalescedCount.incrementAndGet();
+            }
+            pending.put(pendingKey, binder);
+            size = pending.size();
+        }
+        if (size >= maxBatchSize && flushScheduled.compareAndSet(false, true)) {
+            dbManager.getBackgroundExecutor().execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    /**
+     * Writes all pending mutations in one transaction, or one transaction per shard for a table split by key.
+     * Consecutive mutations sharing the same SQL are sent as one JDBC batch. If a transaction fails because the
+     * connection was lost or on a transient error, its mutations and those not written yet are put back in front
+     * of any newer ones. On any other failure the mutations of the transaction are written one per transaction,
+     * and those that still fail are logged and dropped.
+     *
+     * @throws SQLException if the connection was lost or a transient error persisted.
+     */
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+            List<LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>>> groups = groupByShard(batch);
+            for (int i = 0; i < groups.size(); i++) {
+                LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> group = groups.get(i);
+                try {
+                    write(group);
+                    flushedCount.addAndGet(group.size());
+                } catch (SQLException e) {
+                    if (isRetryable(e)) {
+                        requeue(merge(groups.subList(i, groups.size())));
+                        throw e;
+                    }
+                    writeOneByOne(group, groups.subList(i + 1, groups.size()));
+                } catch (RuntimeException e) {
+                    writeOneByOne(group, groups.subList(i + 1, groups.size()));
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the mutations of a failed transaction one per transaction, dropping those that fail permanently.
+     * If the connection is lost on the way, the unwritten mutations and the groups not flushed yet are put back
+     * in front of newer ones.
+     *
+     * @param batch the mutations in the order they have to be applied.
+     * @param later the groups of the flush that come after this one.
+     * @throws SQLException if the connection was lost or a transient error persisted.
+     */
+    private void writeOneByOne(LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> batch,
+            List<LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>>> later) throws SQLException {
+        List<Map.Entry<PendingKey, SQLConsumer<PreparedStatement>>> entries = new ArrayList<>(batch.entrySet());
+        for (int i = 0; i < entries.size(); i++) {
+            Map.Entry<PendingKey, SQLConsumer<PreparedStatement>> entry = entries.get(i);
+            try {
+                write(Map.of(entry.getKey(), entry.getValue()));
+                flushedCount.incrementAndGet();
+            } catch (SQLException e) {
+                if (isRetryable(e)) {
+                    LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> rest = new LinkedHashMap<>();
+                    entries.subList(i, entries.size()).forEach(remaining -> rest.put(remaining.getKey(), remaining.getValue()));
+                    rest.putAll(merge(later));
+                    requeue(rest);
+                    throw e;
+                }
+                drop(entry.getKey(), e);
+            } catch (RuntimeException e) {
+                drop(entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes mutations of one shard in one transaction, with the key of the first mutation as shard key.
+     *
+     * @param batch the mutations in the order they have to be applied; all of them belong to the same shard.
+     * @throws SQLException if the transaction fails.
+     */
+    private void write(Map<PendingKey, SQLConsumer<PreparedStatement>> batch) throws SQLException {
+        dbManager.withShardKey(batch.keySet().iterator().next().key, () -> {
+            dbManager.executeTransaction(tableName, conn -> writeBatch(conn, batch));
+            return null;
+        });
+    }
+
+    /**
+     * Splits the mutations by the shard holding their key, keeping their order within each shard.
+     * Mutations of the same key always land in the same group, so the order per row is preserved.
+     *
+     * @param batch the mutations in the order they have to be applied.
+     * @return the groups in shard order; the whole batch as one group if the table is not split by key.
+     */
+    private List<LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>>> groupByShard(
+            LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> batch) {
+        if (dbManager.getShardCount(tableName) <= 1) {
+            return List.of(batch);
+        }
+        Map<Integer, LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>>> groups = new TreeMap<>();
+        batch.forEach((key, binder) -> groups.computeIfAbsent(dbManager.getShardIndex(tableName, key.key),
+                index -> new LinkedHashMap<>()).put(key, binder));
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Joins groups of mutations back into one batch in group order.
+     *
+     * @param groups the groups.
+     * @return the joined mutations.
+     */
+    private static LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> merge(
+            List<LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>>> groups) {
+        LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> merged = new LinkedHashMap<>();
+        groups.forEach(merged::putAll);
+        return merged;
+    }
+
+    /**
+     * Logs and counts a mutation that cannot be written.
+     *
+     * @param key the identity of the mutation.
+     * @param e the failure.
+     */
+    private void drop(PendingKey key, Exception e) {
+        droppedCount.incrementAndGet();
+        ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Dropped buffered mutation of table " + tableName
+                + " for key " + key.key + ": " + key.sql);
+    }
+
+    /**
+     * Puts unwritten mutations back in front of the mutations queued since, unless a newer mutation replaced them.
+     *
+     * @param batch the unwritten mutations.
+     */
+    private void requeue(LinkedHashMap<PendingKey, SQLConsumer<PreparedStatement>> batch) {
+        synchronized (lock) {
+            batch.keySet().removeAll(pending.keySet());
+            batch.putAll(pending);
+            pending = batch;
+        }
+    }
+
+    /**
+     * Checks whether a failed flush may succeed when retried later.
+     *
+     * @param e the failure.
+     * @return {@code true} if the connection was lost or the error is transient.
+     */
+    private boolean isRetryable(SQLException e) {
+        SqlDialect dialect = dbManager.getDialect();
+        return dialect.isConnectionFailure(e) || dialect.isTransient(e);
+    }
+
+    /**
+     * Gets the number of mutations waiting to be written.
+     *
+     * @return the number of pending mutations.
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Gets the number of mutations written so far.
+     *
+     * @return the number of flushed mutations.
+     */
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    /**
+     * Gets the number of mutations that were replaced by a later mutation of the same key before being written.
+     *
+     * @return the number of coalesced mutations.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Gets the number of mutations dropped because they failed permanently, for example on a constraint violation.
+     *
+     * @return the number of dropped mutations.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Stops the flush timer. Pending mutations are kept; call {@link #flush()} to write them.
+     */
+    public void cancel() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    /**
+     * Flushes pending mutations and logs a failure instead of throwing it.
+     */
+    void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | RuntimeException e) {
+            ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to flush " + getPendingCount()
+                    + " buffered mutations of table " + tableName);
+        }
+    }
+
+    /**
+     * Sends the mutations to the database, preparing each run of identical SQL once.
+     *
+     * @param conn the connection of the flush transaction.
+     * @param batch the mutations in the order they have to be applied.
+     * @throws SQLException if a statement fails.
+     */
+    private static void writeBatch(Connection conn, Map<PendingKey, SQLConsumer<PreparedStatement>> batch) throws SQLException {
+        List<Map.Entry<PendingKey, SQLConsumer<PreparedStatement>>> entries = new ArrayList<>(batch.entrySet());
+        int start = 0;
+        while (start < entries.size()) {
+            String sql = entries.get(start).getKey().sql;
+            int end = start;
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                while (end < entries.size() && entries.get(end).getKey().sql.equals(sql)) {
+                    entries.get(end).getValue().accept(ps);
+                    ps.addBatch();
+                    end++;
+                }
+                ps.executeBatch();
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Identity of a pending mutation: the SQL text together with the row key.
+     */
+    private static final class PendingKey {
+        private final String sql;
+        private final Object key;
+
+        private PendingKey(String sql, Object key) {
+            this.sql = sql;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey) o;
+            return sql.equals(other.sql) && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + Objects.hashCode(key);
+        }
+    }
+}
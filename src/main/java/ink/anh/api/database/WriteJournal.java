@@ -0,0 +1,771 @@
+package ink.anh.api.database;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local journal of table mutations that could not be written because the database was unreachable.
+ * Instances are created through {@link DatabaseManager#enableWriteJournal(long, long)}.
+ * <p>
+ * Mutations are appended to segment files in the {@code journal} folder of the plugin through a write buffer
+ * and forced to disk every {@code syncIntervalMillis}. Every record carries a CRC32 checksum, so a record torn
+ * by a crash is detected and dropped instead of being replayed. While the journal has pending records, new
+ * journaled mutations are appended as well to keep their order. The journal is replayed oldest segment first
+ * every {@code replayIntervalMillis}; replayed records are acknowledged in an {@code .ack} file and fully
+ * replayed segments are deleted, while a segment whose replay stopped halfway is compacted to its remaining records.
+ * Replay pauses only when the database is unreachable or the error is transient; a record that fails for any
+ * other reason, such as a constraint violation, is logged and moved to the {@code dead-letter.log} file in the
+ * same record format, so it cannot hold back the records behind it.
+ * <p>
+ * The shard key set by {@link DatabaseManager#withShardKey} when a mutation is appended is kept in its record and set
+ * again on replay, so mutations of a table split by key return to the shard holding their row.
+ * <p>
+ * Replay is at-least-once: a record may be written again if the server crashes between a commit and its
+ * acknowledgment, so journaled mutations should be idempotent.
+ */
+public class WriteJournal {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ACK_SUFFIX = ".ack";
+    private static final String DEAD_LETTER_FILE = "dead-letter.log";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int REPLAY_BATCH_SIZE = 100;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_BYTES = 7;
+    private static final byte TYPE_SHORT = 8;
+    private static final byte TYPE_DECIMAL = 9;
+
+    private final DatabaseManager dbManager;
+    private final File directory;
+    private final Object lock = new Object();
+    private final ReentrantLock replayLock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+    private FileChannel activeChannel;
+    private long activeSequence;
+    private boolean activeHasRecords;
+    private boolean dirty;
+    private volatile boolean pending;
+    private ScheduledFuture<?> syncTimer;
+    private ScheduledFuture<?> replayTimer;
+
+    /**
+     * Constructs an instance of {@code WriteJournal} in the specified folder, opens a new active segment
+     * and starts the sync and replay timers. Segments left over from a previous run are replayed first.
+     *
+     * @param dbManager the database manager replaying the mutations.
+     * @param directory the folder holding the segment files.
+     * @param syncIntervalMillis the maximum time an appended record stays unsynced, in milliseconds.
+     * @param replayIntervalMillis the interval between replay attempts, in milliseconds.
+     * @throws IOException if the folder or the active segment cannot be created.
+     */
+    WriteJournal(DatabaseManager dbManager, File directory, long syncIntervalMillis, long replayIntervalMillis) throws IOException {
+        this.dbManager = dbManager;
+        this.directory = directory;
+        Files.createDirectories(directory.toPath());
+        List<File> segments = listSegments();
+        pending = !segments.isEmpty();
+        activeSequence = segments.isEmpty() ? 1 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+        activeChannel = openSegment(activeSequence);
+        syncTimer = dbManager.scheduleBackground(this::syncQuietly, syncIntervalMillis, syncIntervalMillis);
+        replayTimer = dbManager.scheduleBackground(() -> {
+            if (pending) {
+                replay();
+            }
+        }, replayIntervalMillis, replayIntervalMillis);
+    }
+
+    /**
+     * Appends a mutation to the active segment. The record is durable after the next sync.
+     * Parameters may be {@code null}, strings, numbers, booleans, byte arrays, {@link UUID}s, characters and enums;
+     * the last three are stored as strings, the same way {@link AbstractTable#setParameter} binds them.
+     * The shard key of the current thread, which must be of one of these types as well, is stored with the record.
+     *
+     * @param tableName the name of the table the mutation belongs to.
+     * @param sql the SQL statement of the mutation.
+     * @param params the statement parameters in order.
+     * @throws IOException if the record cannot be written.
+     */
+    public void append(String tableName, String sql, Object... params) throws IOException {
+        byte[] payload = encode(tableName, sql, params, DatabaseManager.getShardKey());
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        synchronized (lock) {
+            if (buffer.remaining() < payload.length + 8) {
+                flushBuffer();
+            }
+            if (payload.length + 8 > buffer.capacity()) {
+                ByteBuffer record = ByteBuffer.allocate(payload.length + 8);
+                record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                writeFully(record);
+            } else {
+                buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            }
+            activeHasRecords = true;
+            dirty = true;
+            pending = true;
+        }
+        appendedCount.incrementAndGet();
+    }
+
+    /**
+     * Checks whether the journal holds mutations that were not replayed yet.
+     * New mutations of journaled tables must be appended while this returns {@code true} to keep their order.
+     *
+     * @return {@code true} if records are pending.
+     */
+    public boolean hasPending() {
+        return pending;
+    }
+
+    /**
+     * Writes the buffered records to the active segment and forces them to disk.
+     *
+     * @throws IOException if the segment cannot be written.
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            if (!dirty) {
+                return;
+            }
+            flushBuffer();
+            activeChannel.force(false);
+            dirty = false;
+        }
+    }
+
+    /**
+     * Replays the pending records in the order they were appended. Replay stops at the first transaction that fails
+     * because the database is unreachable or on a transient error, and continues with the remaining records on the
+     * next attempt; records failing for other reasons are dead-lettered. Concurrent calls return immediately.
+     *
+     * @return {@code true} if the journal is empty afterwards.
+     */
+    public boolean replay() {
+        if (!replayLock.tryLock()) {
+            return false;
+        }
+        try {
+            rollActiveSegment();
+            for (File segment : listSegments()) {
+                if (sequenceOf(segment) >= activeSequence) {
+                    break;
+                }
+                if (!replaySegment(segment)) {
+                    return false;
+                }
+            }
+            synchronized (lock) {
+                if (!activeHasRecords) {
+                    pending = false;
+                }
+                return !pending;
+            }
+        } catch (IOException e) {
+            ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to replay the write journal");
+            return false;
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records appended since the journal was opened.
+     *
+     * @return the number of appended records.
+     */
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+
+    /**
+     * Gets the number of records replayed since the journal was opened.
+     *
+     * @return the number of replayed records.
+     */
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * Gets the number of records moved to the dead-letter file since the journal was opened.
+     *
+     * @return the number of dead-lettered records.
+     */
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    /**
+     * Stops the timers, syncs the buffered records and closes the active segment.
+     * Pending records stay on disk and are replayed when the journal is opened again.
+     */
+    public void close() {
+        syncTimer.cancel(false);
+        replayTimer.cancel(false);
+        synchronized (lock) {
+            try {
+                sync();
+                activeChannel.close();
+                if (!activeHasRecords) {
+                    Files.deleteIfExists(segmentPath(activeSequence));
+                }
+            } catch (IOException e) {
+                ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to close the write journal");
+            }
+        }
+    }
+
+    /**
+     * Syncs the journal, logging failures instead of throwing them.
+     */
+    void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Failed to sync the write journal");
+        }
+    }
+
+    /**
+     * Closes the active segment if it holds records and opens the next one, so the closed segment can be replayed
+     * while new records are appended.
+     *
+     * @throws IOException if a segment cannot be closed or opened.
+     */
+    private void rollActiveSegment() throws IOException {
+        synchronized (lock) {
+            if (!activeHasRecords) {
+                return;
+            }
+            flushBuffer();
+            activeChannel.force(false);
+            dirty = false;
+            activeChannel.close();
+            activeSequence++;
+            activeChannel = openSegment(activeSequence);
+            activeHasRecords = false;
+        }
+    }
+
+    /**
+     * Replays one closed segment from its acknowledged offset in transactions of up to
+     * {@link #REPLAY_BATCH_SIZE} records, then deletes it. A torn or corrupted tail is logged and dropped.
+     * If replay pauses, the segment is compacted to the records that were neither written nor dead-lettered.
+     *
+     * @param segment the segment file.
+     * @return {@code true} if the whole segment was replayed.
+     * @throws IOException if the segment cannot be read.
+     */
+    private boolean replaySegment(File segment) throws IOException {
+        Path ackPath = new File(segment.getPath() + ACK_SUFFIX).toPath();
+        long offset = readAck(ackPath);
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            channel.position(offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            List<Record> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+            long batchEnd = offset;
+            boolean end = false;
+            while (!end) {
+                Record record = readRecord(in, segment);
+                if (record != null) {
+                    batch.add(record);
+                    batchEnd += record.size;
+                }
+                end = record == null;
+                if (batch.size() == REPLAY_BATCH_SIZE || (end && !batch.isEmpty())) {
+                    int handled = replayBatch(batch);
+                    if (handled < batch.size()) {
+                        for (Record written : batch.subList(0, handled)) {
+                            offset += written.size;
+                        }
+                        if (handled > 0) {
+                            writeAck(ackPath, offset);
+                        }
+                        compact(segment, offset, ackPath);
+                        return false;
+                    }
+                    offset = batchEnd;
+                    writeAck(ackPath, offset);
+                    batch.clear();
+                }
+            }
+        }
+        Files.deleteIfExists(segment.toPath());
+        Files.deleteIfExists(ackPath);
+        return true;
+    }
+
+    /**
+     * Writes a batch of records. If the batch fails for a reason other than a lost connection or a transient error,
+     * the records are written one per transaction and those that still fail are dead-lettered.
+     *
+     * @param batch the records in journal order.
+     * @return the number of leading records written or dead-lettered; fewer than the batch size if replay pauses.
+     * @throws IOException if the dead-letter file cannot be written.
+     */
+    private int replayBatch(List<Record> batch) throws IOException {
+        try {
+            writeBatch(batch);
+            replayedCount.addAndGet(batch.size());
+            return batch.size();
+        } catch (SQLException e) {
+            if (isRetryable(e)) {
+                dbManager.getManager().getPlugin().getLogger().warning("Write journal replay paused: " + e.getMessage());
+                return 0;
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Record record = batch.get(i);
+            try {
+                writeBatch(List.of(record));
+                replayedCount.incrementAndGet();
+            } catch (SQLException e) {
+                if (isRetryable(e)) {
+                    dbManager.getManager().getPlugin().getLogger().warning("Write journal replay paused: " + e.getMessage());
+                    return i;
+                }
+                deadLetter(record, e);
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * Checks whether a failed replay may succeed later.
+     *
+     * @param e the failure.
+     * @return {@code true} if the connection was lost or the error is transient.
+     */
+    private boolean isRetryable(SQLException e) {
+        SqlDialect dialect = dbManager.getDialect();
+        return dialect.isConnectionFailure(e) || dialect.isTransient(e);
+    }
+
+    /**
+     * Appends a record that cannot be written to the dead-letter file and logs it.
+     *
+     * @param record the record.
+     * @param e the failure of the record.
+     * @throws IOException if the dead-letter file cannot be written.
+     */
+    private void deadLetter(Record record, SQLException e) throws IOException {
+        byte[] payload = encode(record.tableName, record.sql, record.params, record.shardKey);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer framed = ByteBuffer.allocate(payload.length + 8);
+        framed.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        try (FileChannel channel = FileChannel.open(new File(directory, DEAD_LETTER_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (framed.hasRemaining()) {
+                channel.write(framed);
+            }
+            channel.force(false);
+        }
+        deadLetterCount.incrementAndGet();
+        ErrorLogger.log(dbManager.getManager().getPlugin(), e, "Moved journaled mutation of table " + record.tableName
+                + " to " + DEAD_LETTER_FILE + ": " + record.sql);
+    }
+
+    /**
+     * Writes replayed records, grouping them into one transaction per run of the same table and shard.
+     * Each transaction runs with the shard key of its first record.
+     *
+     * @param batch the records in journal order.
+     * @throws SQLException if a transaction fails.
+     */
+    private void writeBatch(List<Record> batch) throws SQLException {
+        int start = 0;
+        while (start < batch.size()) {
+            Record first = batch.get(start);
+            int shard = dbManager.getShardIndex(first.tableName, first.shardKey);
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).tableName.equals(first.tableName)
+                    && dbManager.getShardIndex(first.tableName, batch.get(end).shardKey) == shard) {
+                end++;
+            }
+            List<Record> run = batch.subList(start, end);
+            dbManager.withShardKey(first.shardKey, () -> {
+                dbManager.executeTransaction(first.tableName, conn -> {
+                    for (Record record : run) {
+                        try (PreparedStatement ps = conn.prepareStatement(record.sql)) {
+                            for (int i = 0; i < record.params.length; i++) {
+                                AbstractTable.setParameter(ps, i + 1, record.params[i]);
+                            }
+                            ps.executeUpdate();
+                        }
+                    }
+                }, true);
+                return null;
+            });
+            start = end;
+        }
+    }
+
+    /**
+     * Rewrites a segment so that it only holds the records after the acknowledged offset.
+     * The acknowledgment is removed before the compacted segment replaces the original, so a crash in between
+     * replays acknowledged records again instead of skipping unreplayed ones.
+     *
+     * @param segment the segment file.
+     * @param offset the offset of the first record that was not replayed.
+     * @param ackPath the acknowledgment file of the segment.
+     * @throws IOException if the segment cannot be rewritten.
+     */
+    private void compact(File segment, long offset, Path ackPath) throws IOException {
+        if (offset == 0) {
+            return;
+        }
+        Path compacted = new File(segment.getPath() + ".tmp").toPath();
+        try (FileChannel source = FileChannel.open(segment.toPath(), StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = offset;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            target.force(true);
+        }
+        Files.deleteIfExists(ackPath);
+        Files.move(compacted, segment.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the next record of a segment.
+     *
+     * @param in the segment stream positioned at a record boundary.
+     * @param segment the segment file, for logging.
+     * @return the record, or {@code null} at the end of the segment or at a torn or corrupted record.
+     * @throws IOException if the segment cannot be read.
+     */
+    private Record readRecord(DataInputStream in, File segment) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            int checksum = in.readInt();
+            if (length < 0) {
+                throw new IOException("negative record length");
+            }
+            byte[] payload = in.readNBytes(length);
+            if (payload.length < length) {
+                throw new EOFException();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("checksum mismatch");
+            }
+            return decode(payload, length + 8L);
+        } catch (IOException e) {
+            dbManager.getManager().getPlugin().getLogger().warning("Dropping the torn tail of write journal segment "
+                    + segment.getName() + ": " + (e instanceof EOFException ? "truncated record" : e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Serializes a mutation into a record payload. The shard key follows the parameters, so records written
+     * before shard keys were journaled still decode.
+     *
+     * @param tableName the name of the table.
+     * @param sql the SQL statement.
+     * @param params the statement parameters.
+     * @param shardKey the shard key of the mutation, or {@code null} if none was set.
+     * @return the payload bytes.
+     * @throws IOException if a parameter type is not supported.
+     */
+    private static byte[] encode(String tableName, String sql, Object[] params, Object shardKey) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + sql.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, tableName);
+        writeString(out, sql);
+        out.writeInt(params.length);
+        for (Object param : params) {
+            writeValue(out, param);
+        }
+        writeValue(out, shardKey);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a typed parameter value.
+     *
+     * @param out the output stream.
+     * @param param the value.
+     * @throws IOException if the value type is not supported.
+     */
+    private static void writeValue(DataOutputStream out, Object param) throws IOException {
+        if (param instanceof UUID || param instanceof Character) {
+            param = param.toString();
+        } else if (param instanceof Enum) {
+            param = ((Enum<?>) param).name();
+        }
+        if (param == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (param instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) param);
+        } else if (param instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer) param);
+        } else if (param instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) param);
+        } else if (param instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) param);
+        } else if (param instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) param);
+        } else if (param instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) param);
+        } else if (param instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(((byte[]) param).length);
+            out.write((byte[]) param);
+        } else if (param instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) param);
+        } else if (param instanceof BigDecimal) {
+            out.writeByte(TYPE_DECIMAL);
+            writeString(out, param.toString());
+        } else {
+            throw new IOException("Unsupported journal parameter type " + param.getClass().getName());
+        }
+    }
+
+    /**
+     * Deserializes a record payload.
+     *
+     * @param payload the payload bytes.
+     * @param size the size of the record in the segment, including its header.
+     * @return the record.
+     * @throws IOException if the payload is malformed.
+     */
+    private static Record decode(byte[] payload, long size) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String tableName = readString(in);
+        String sql = readString(in);
+        Object[] params = new Object[in.readInt()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = readValue(in);
+        }
+        Object shardKey = in.available() > 0 ? readValue(in) : null;
+        return new Record(tableName, sql, params, shardKey, size);
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue(DataOutputStream, Object)}.
+     *
+     * @param in the input stream.
+     * @return the value.
+     * @throws IOException if the value is malformed.
+     */
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case TYPE_NULL -> null;
+            case TYPE_STRING -> readString(in);
+            case TYPE_INT -> in.readInt();
+            case TYPE_LONG -> in.readLong();
+            case TYPE_DOUBLE -> in.readDouble();
+            case TYPE_FLOAT -> in.readFloat();
+            case TYPE_BOOLEAN -> in.readBoolean();
+            case TYPE_BYTES -> in.readNBytes(in.readInt());
+            case TYPE_SHORT -> in.readShort();
+            case TYPE_DECIMAL -> new BigDecimal(readString(in));
+            default -> throw new IOException("Unknown journal parameter type " + type);
+        };
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string, which unlike {@link DataOutputStream#writeUTF(String)} has no 64 KB limit.
+     *
+     * @param out the output stream.
+     * @param value the string to write.
+     * @throws IOException if the stream fails.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in the input stream.
+     * @return the string.
+     * @throws IOException if the stream fails.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the buffered records to the active segment. Must hold the journal lock.
+     *
+     * @throws IOException if the segment cannot be written.
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes all remaining bytes of the buffer to the active segment. Must hold the journal lock.
+     *
+     * @param source the bytes to write.
+     * @throws IOException if the segment cannot be written.
+     */
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            activeChannel.write(source);
+        }
+    }
+
+    /**
+     * Opens a segment file for appending.
+     *
+     * @param sequence the sequence number of the segment.
+     * @return the channel of the segment.
+     * @throws IOException if the file cannot be opened.
+     */
+    private FileChannel openSegment(long sequence) throws IOException {
+        return FileChannel.open(segmentPath(sequence), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Gets the path of a segment file.
+     *
+     * @param sequence the sequence number of the segment.
+     * @return the path of the segment.
+     */
+    private Path segmentPath(long sequence) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%012d", sequence) + SEGMENT_SUFFIX).toPath();
+    }
+
+    /**
+     * Lists the segment files in sequence order.
+     *
+     * @return the segment files.
+     */
+    private List<File> listSegments() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Parses the sequence number from a segment file name.
+     *
+     * @param segment the segment file.
+     * @return the sequence number.
+     */
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Reads the acknowledged offset of a segment.
+     *
+     * @param ackPath the acknowledgment file.
+     * @return the offset of the first record that was not replayed, or 0 if none was.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long readAck(Path ackPath) throws IOException {
+        if (!Files.exists(ackPath)) {
+            return 0L;
+        }
+        try (InputStream in = Files.newInputStream(ackPath)) {
+            return new DataInputStream(in).readLong();
+        } catch (EOFException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Durably records the offset up to which a segment was replayed.
+     *
+     * @param ackPath the acknowledgment file.
+     * @param offset the offset of the first record that was not replayed.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeAck(Path ackPath, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(ackPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer value = ByteBuffer.allocate(8).putLong(offset).flip();
+            while (value.hasRemaining()) {
+                channel.write(value);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * A journaled mutation.
+     */
+    private static final class Record {
+        private final String tableName;
+        private final String sql;
+        private final Object[] params;
+        private final Object shardKey;
+        private final long size;
+
+        private Record(String tableName, String sql, Object[] params, Object shardKey, long size) {
+            this.tableName = tableName;
+            this.sql = sql;
+            this.params = params;
+            this.shardKey = shardKey;
+            this.size = size;
+        }
+    }
+}
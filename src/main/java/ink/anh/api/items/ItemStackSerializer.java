@@ -4,6 +4,12 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 
 /**
@@ -11,6 +17,8 @@ import java.util.Base64;
  */
 public class ItemStackSerializer {
 
+    private static final String YAML_PREFIX = "item:";
+
     /**
      * Serializes an ItemStack into a YAML string.
      *
@@ -62,6 +70,41 @@ public class ItemStackSerializer {
         return deserializeItemStackFromYaml(decoded);
     }
 
+    /**
+     * Serializes an ItemStack into UTF-8 encoded YAML, suitable for a compressed BLOB column written by
+     * {@code AbstractTable.setCompressed}.
+     *
+     * @param itemStack The ItemStack to serialize.
+     * @return The YAML bytes representing the ItemStack.
+     */
+    public static byte[] serializeItemStackToBytes(ItemStack itemStack) {
+        return serializeItemStackToYaml(itemStack).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deserializes an ItemStack from a stream of UTF-8 YAML or Base64 encoded YAML, such as the stream returned by
+     * {@code AbstractTable.readCompressed}. The stream is decoded while it is read, without building Base64 strings.
+     *
+     * @param in The stream to read; it is not closed.
+     * @return The deserialized ItemStack, or null if deserialization fails.
+     */
+    public static ItemStack deserializeItemStack(InputStream in) {
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(in);
+            byte[] prefix = YAML_PREFIX.getBytes(StandardCharsets.US_ASCII);
+            buffered.mark(prefix.length);
+            byte[] head = buffered.readNBytes(prefix.length);
+            buffered.reset();
+            InputStream yaml = Arrays.equals(head, prefix) ? buffered : Base64.getDecoder().wrap(buffered);
+            YamlConfiguration yamlConfiguration = new YamlConfiguration();
+            yamlConfiguration.load(new InputStreamReader(yaml, StandardCharsets.UTF_8));
+            return yamlConfiguration.getItemStack("item");
+        } catch (IOException | InvalidConfigurationException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * General method for deserializing an ItemStack from either a Base64 or YAML encoded string.
      *
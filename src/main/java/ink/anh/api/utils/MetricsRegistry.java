@@ -0,0 +1,242 @@
+package ink.anh.api.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Library-wide registry of named counters, timers and gauges.
+ * Components publish their metrics under dotted names such as {@code database.MyPlugin.jdbc.commit}, and any
+ * plugin can read or report them through {@link #global()}. Counters and timers are created on first use and
+ * shared by every caller asking for the same name; recording is lock-free.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructs an instance of {@code MetricsRegistry}. Most callers use the shared {@link #global()} registry.
+     */
+    public MetricsRegistry() {
+    }
+
+    /**
+     * Gets the registry shared by all plugins using the library.
+     *
+     * @return the global registry.
+     */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Gets the counter with the specified name, creating it if needed.
+     *
+     * @param name the metric name.
+     * @return the counter.
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * Gets the timer with the specified name, creating it if needed.
+     *
+     * @param name the metric name.
+     * @return the timer.
+     */
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Registers a gauge read whenever the metrics are reported, replacing a gauge of the same name.
+     *
+     * @param name the metric name.
+     * @param gauge supplies the current value.
+     */
+    public void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Removes a gauge if it is still the one registered under the name, so that a component closed after its
+     * replacement was registered does not remove the replacement's gauge.
+     *
+     * @param name the metric name.
+     * @param gauge the gauge registered by the caller.
+     */
+    public void removeGauge(String name, LongSupplier gauge) {
+        gauges.remove(name, gauge);
+    }
+
+    /**
+     * Removes all metrics whose names start with the prefix, for example when a plugin is disabled.
+     *
+     * @param prefix the name prefix.
+     */
+    public void removeAll(String prefix) {
+        counters.keySet().removeIf(name -> name.startsWith(prefix));
+        timers.keySet().removeIf(name -> name.startsWith(prefix));
+        gauges.keySet().removeIf(name -> name.startsWith(prefix));
+    }
+
+    /**
+     * Resets the counters and timers whose names start with the prefix. Gauges are not affected.
+     *
+     * @param prefix the name prefix.
+     */
+    public void reset(String prefix) {
+        counters.forEach((name, counter) -> {
+            if (name.startsWith(prefix)) {
+                counter.reset();
+            }
+        });
+        timers.forEach((name, timer) -> {
+            if (name.startsWith(prefix)) {
+                timer.reset();
+            }
+        });
+    }
+
+    /**
+     * Formats the metrics whose names start with the prefix, one line per metric in name order.
+     *
+     * @param prefix the name prefix, or an empty string for all metrics.
+     * @return the report lines.
+     */
+    public List<String> format(String prefix) {
+        List<String> lines = new ArrayList<>();
+        counters.forEach((name, counter) -> {
+            if (name.startsWith(prefix)) {
+                lines.add(name + " = " + counter.get());
+            }
+        });
+        timers.forEach((name, timer) -> {
+            if (name.startsWith(prefix)) {
+                lines.add(String.format(Locale.ROOT, "%s: count=%d total=%.2fms mean=%.3fms max=%.3fms", name,
+                        timer.getCount(), timer.getTotalNanos() / 1e6, timer.getMeanNanos() / 1e6, timer.getMaxNanos() / 1e6));
+            }
+        });
+        gauges.forEach((name, gauge) -> {
+            if (name.startsWith(prefix)) {
+                lines.add(name + " = " + gauge.getAsLong());
+            }
+        });
+        return lines;
+    }
+
+    /**
+     * Monotonic counter.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {
+        }
+
+        /**
+         * Adds one to the counter.
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Adds an amount to the counter.
+         *
+         * @param amount the amount to be added.
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        /**
+         * Gets the current value.
+         *
+         * @return the counter value.
+         */
+        public long get() {
+            return value.sum();
+        }
+
+        private void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * Count, total and maximum of recorded durations.
+     */
+    public static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        private Timer() {
+        }
+
+        /**
+         * Records one duration.
+         *
+         * @param nanos the duration in nanoseconds.
+         */
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        /**
+         * Gets the number of recorded durations.
+         *
+         * @return the count.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Gets the sum of the recorded durations.
+         *
+         * @return the total in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * Gets the longest recorded duration.
+         *
+         * @return the maximum in nanoseconds, or 0 if nothing was recorded.
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * Gets the mean of the recorded durations.
+         *
+         * @return the mean in nanoseconds, or 0 if nothing was recorded.
+         */
+        public double getMeanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : (double) totalNanos.sum() / n;
+        }
+
+        private void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+    }
+}
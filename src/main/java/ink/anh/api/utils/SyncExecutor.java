@@ -1,5 +1,7 @@
 package ink.anh.api.utils;
 
+import java.util.concurrent.Executor;
+
 import org.bukkit.Bukkit;
 import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
@@ -81,6 +83,17 @@ public class SyncExecutor {
         Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> runnable.run(object));
     }
 
+    /**
+     * Returns an {@link Executor} that runs tasks synchronously on the main server thread.
+     * Useful as the executor of {@link java.util.concurrent.CompletableFuture} continuations, for example
+     * {@code future.thenAcceptAsync(result -> ..., SyncExecutor.mainThreadExecutor())}.
+     * 
+     * @return an executor backed by {@link #runSync(Runnable)}
+     */
+    public static Executor mainThreadExecutor() {
+        return SyncExecutor::runSync;
+    }
+
     /**
      * Functional interface representing a runnable that accepts a single argument.
      * 